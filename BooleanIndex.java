@@ -0,0 +1,603 @@
+package lse;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * This class answers boolean queries, with AND, OR and NOT, over the keywords of a
+ * LittleSearchEngine. The Occurrence lists of the engine are in order of frequency, which is
+ * the right order for top5search but the wrong one for combining lists, so this class keeps a
+ * second copy of the postings: document ids and frequencies, in ascending order of document
+ * ids. Ids are handed out as documents are added, so a new document's postings go at the end of
+ * its keywords' lists; a document that is removed is taken out of them, and gets a new id if it
+ * is added again.
+ *
+ * Lists are combined by walking them in id order. An AND intersects its lists from the shortest
+ * up, looking up each id of the shorter list in the longer one by galloping search, so a rare
+ * keyword ANDed with a very common one costs O(m log(n / m)) for lists of m and n postings,
+ * not O(m + n). A NOT inside an AND removes ids the same way. OR merges its lists.
+ *
+ * Matching documents are ranked as topK ranks them, for the keywords of the query that are not
+ * under a NOT, in the order they first appear in the query: by the highest frequency of any of
+ * those keywords in the document, ties in favor of the earlier keyword, and then in favor of the
+ * earlier occurrence in that keyword's Occurrence list. Only the top k documents are ranked, and
+ * the position in an Occurrence list is only looked up for documents that tie on the rest.
+ * Documents that match without any of those keywords, as with "NOT word", come last, in
+ * alphabetical order.
+ *
+ * Query syntax:
+ * <pre>
+ *     query   = and { "OR" and }
+ *     and     = unary { ["AND"] unary }       adjacent terms are ANDed
+ *     unary   = "NOT" unary | "(" query ")" | word
+ * </pre>
+ * Operators must be in upper case. Words go through getKeyword; words that are not keywords,
+ * such as noise words, are left out of the query, as if they were not there.
+ *
+ * LittleSearchEngine keeps its index up to date as documents are merged and removed.
+ */
+public class BooleanIndex {
+
+	/**
+	 * Document ids and frequencies of one keyword, or of a partial query result, in ascending
+	 * order of ids. For a query result, all frequencies are 0.
+	 */
+	static class Postings {
+
+		/**
+		 * Document ids, in ascending order.
+		 */
+		int[] docs;
+
+		/**
+		 * Frequency or score of each document.
+		 */
+		int[] freqs;
+
+		/**
+		 * Number of postings.
+		 */
+		int size;
+
+		Postings(int capacity) {
+			docs = new int[Math.max(1, capacity)];
+			freqs = new int[Math.max(1, capacity)];
+		}
+
+		/**
+		 * Appends a posting, whose id must be greater than all ids already in the list.
+		 *
+		 * @param doc Document id
+		 * @param freq Frequency or score
+		 */
+		void add(int doc, int freq) {
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, 2 * size);
+				freqs = Arrays.copyOf(freqs, 2 * size);
+			}
+			docs[size] = doc;
+			freqs[size] = freq;
+			size++;
+		}
+
+		/**
+		 * Removes the posting of a document, if there is one.
+		 *
+		 * @param doc Document id
+		 */
+		void remove(int doc) {
+			int i = Arrays.binarySearch(docs, 0, size, doc);
+			if (i >= 0) {
+				System.arraycopy(docs, i + 1, docs, i, size - i - 1);
+				System.arraycopy(freqs, i + 1, freqs, i, size - i - 1);
+				size--;
+			}
+		}
+	}
+
+	/**
+	 * Engine whose getKeyword rules are applied to query words.
+	 */
+	private final LittleSearchEngine engine;
+
+	/**
+	 * Document names, indexed by id; null for the ids of removed documents.
+	 */
+	final ArrayList<String> documents;
+
+	/**
+	 * Id of each document in the index.
+	 */
+	private final HashMap<String,Integer> ids;
+
+	/**
+	 * Ids of the documents in the index, in ascending order, with frequencies of 0.
+	 */
+	private final Postings live;
+
+	/**
+	 * Postings of each keyword.
+	 */
+	final HashMap<String,Postings> postings;
+
+	/**
+	 * Builds the id-ordered postings of all documents indexed by an engine. Ids are handed out
+	 * in alphabetical order of document names.
+	 *
+	 * @param engine Search engine
+	 */
+	public BooleanIndex(LittleSearchEngine engine) {
+		this.engine = engine;
+		String[] names = engine.documents.toArray(new String[engine.documents.size()]);
+		Arrays.sort(names);
+		documents = new ArrayList<String>(Arrays.asList(names));
+		ids = new HashMap<String,Integer>(2 * names.length);
+		live = new Postings(names.length);
+		for (int id = 0; id < names.length; id++) {
+			ids.put(names[id], id);
+			live.add(id, 0);
+		}
+		postings = new HashMap<String,Postings>(Math.max(16, 2 * engine.keywordsIndex.size()));
+		long[] pairs = new long[16];
+		for (Entry<String,ArrayList<Occurrence>> e : engine.keywordsIndex.entrySet()) {
+			ArrayList<Occurrence> occs = e.getValue();
+			if (occs.size() > pairs.length) {
+				pairs = new long[occs.size()];
+			}
+			// (id, frequency) packed in a long sorts by id
+			for (int i = 0; i < occs.size(); i++) {
+				pairs[i] = (long)ids.get(occs.get(i).document) << 32 | occs.get(i).frequency;
+			}
+			Arrays.sort(pairs, 0, occs.size());
+			Postings list = new Postings(occs.size());
+			for (int i = 0; i < occs.size(); i++) {
+				list.add((int)(pairs[i] >>> 32), (int)pairs[i]);
+			}
+			postings.put(e.getKey(), list);
+		}
+	}
+
+	/**
+	 * Adds a document, with a new id, larger than all others.
+	 *
+	 * @param docFile Name of the document file
+	 * @param kws Keywords hash table for the document
+	 * @return False if the document is already in the index, in which case nothing is added
+	 */
+	boolean add(String docFile, HashMap<String,Occurrence> kws) {
+		if (ids.containsKey(docFile)) {
+			return false;
+		}
+		int id = documents.size();
+		documents.add(docFile);
+		ids.put(docFile, id);
+		live.add(id, 0);
+		for (Entry<String,Occurrence> e : kws.entrySet()) {
+			Postings list = postings.get(e.getKey());
+			if (list == null) {
+				list = new Postings(1);
+				postings.put(e.getKey(), list);
+			}
+			list.add(id, e.getValue().frequency);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a document.
+	 *
+	 * @param docFile Name of the document file
+	 * @param kws Occurrences of the document, by keyword
+	 */
+	void remove(String docFile, Map<String,Occurrence> kws) {
+		Integer id = ids.remove(docFile);
+		if (id == null) {
+			return;
+		}
+		documents.set(id, null);
+		live.remove(id);
+		for (String keyword : kws.keySet()) {
+			Postings list = postings.get(keyword);
+			if (list != null) {
+				list.remove(id);
+				if (list.size == 0) {
+					postings.remove(keyword);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a boolean query.
+	 *
+	 * @param query Query, see the class comment for the syntax
+	 * @param k Maximum number of results
+	 * @return Matching documents, in descending order of scores. The result size is limited to
+	 *         k documents. If there are no matches, returns an empty array list.
+	 * @throws IllegalArgumentException If the query is malformed
+	 */
+	public ArrayList<String> search(String query, int k) {
+		Parser parser = new Parser(query);
+		if (parser.tokens.isEmpty()) {
+			return new ArrayList<String>();
+		}
+		Expr expr = parser.query();
+		if (parser.pos < parser.tokens.size()) {
+			throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.pos) + "' in query: " + query);
+		}
+		ArrayList<String> finals = new ArrayList<String>();
+		if (expr == null || k <= 0) {
+			return finals;
+		}
+		return top(evaluate(expr), parser.keywords, k);
+	}
+
+	/**
+	 * Returns the k first documents of a result in the order of topK, through a heap of size k.
+	 *
+	 * @param result Query result
+	 * @param keywords Keywords that are not under a NOT, in order of precedence
+	 * @param k Maximum number of results
+	 * @return Documents in the order of topK, see the class comment
+	 */
+	private ArrayList<String> top(final Postings result, final ArrayList<String> keywords, int k) {
+		// highest frequency of each document for the keywords, and the first keyword that has it
+		final int[] best = new int[result.size];
+		final int[] first = new int[result.size];
+		for (int w = 0; w < keywords.size(); w++) {
+			Postings list = postings.get(keywords.get(w));
+			if (list == null) {
+				continue;
+			}
+			for (int i = 0, j = 0; i < result.size && j < list.size; i++) {
+				j = PositionalOccurrence.gallop(list.docs, j, list.size, result.docs[i]);
+				if (j < list.size && list.docs[j] == result.docs[i] && list.freqs[j] > best[i]) {
+					best[i] = list.freqs[j];
+					first[i] = w;
+				}
+			}
+		}
+		final HashMap<Long,HashMap<String,Integer>> runs = new HashMap<Long,HashMap<String,Integer>>();
+		final Comparator<Integer> order = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (best[a] != best[b]) {
+					return best[b] - best[a];
+				}
+				String da = documents.get(result.docs[a]);
+				String db = documents.get(result.docs[b]);
+				if (best[a] == 0) {
+					return da.compareTo(db);
+				}
+				if (first[a] != first[b]) {
+					return first[a] - first[b];
+				}
+				HashMap<String,Integer> run = run(runs, keywords, first[a], best[a]);
+				return run.get(da) - run.get(db);
+			}
+		};
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, Math.min(k, result.size)),
+				Collections.reverseOrder(order));
+		for (int i = 0; i < result.size; i++) {
+			if (heap.size() < k) {
+				heap.add(i);
+			}
+			else if (order.compare(i, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(i);
+			}
+		}
+		String[] names = new String[heap.size()];
+		for (int i = names.length - 1; i >= 0; i--) {
+			names[i] = documents.get(result.docs[heap.poll()]);
+		}
+		return new ArrayList<String>(Arrays.asList(names));
+	}
+
+	/**
+	 * Returns the positions of the documents in the run of one frequency of a keyword's
+	 * Occurrence list, finding the run by binary search the first time it is needed.
+	 *
+	 * @param runs Runs found so far, by keyword number and frequency
+	 * @param keywords Keywords of the query
+	 * @param w Keyword number
+	 * @param freq Frequency
+	 * @return Position of each document in the run
+	 */
+	private HashMap<String,Integer> run(HashMap<Long,HashMap<String,Integer>> runs, ArrayList<String> keywords, int w, int freq) {
+		Long key = (long)w << 32 | freq;
+		HashMap<String,Integer> run = runs.get(key);
+		if (run == null) {
+			ArrayList<Occurrence> occs = engine.keywordsIndex.get(keywords.get(w));
+			int lo = 0;
+			int hi = occs.size();
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (occs.get(mid).frequency > freq) {
+					lo = mid + 1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			run = new HashMap<String,Integer>();
+			for (int i = lo; i < occs.size() && occs.get(i).frequency == freq; i++) {
+				run.put(occs.get(i).document, i - lo);
+			}
+			runs.put(key, run);
+		}
+		return run;
+	}
+
+	/**
+	 * Evaluates a query expression.
+	 *
+	 * @param expr Expression
+	 * @return Matching documents with their scores
+	 */
+	private Postings evaluate(Expr expr) {
+		switch (expr.kind) {
+		case Expr.WORD:
+			Postings list = postings.get(expr.word);
+			return list == null ? new Postings(0) : list;
+		case Expr.NOT:
+			return subtract(all(), evaluate(expr.children.get(0)));
+		case Expr.OR:
+			Postings union = evaluate(expr.children.get(0));
+			for (int i = 1; i < expr.children.size(); i++) {
+				union = union(union, evaluate(expr.children.get(i)));
+			}
+			return union;
+		default:
+			ArrayList<Postings> positive = new ArrayList<Postings>();
+			ArrayList<Expr> negative = new ArrayList<Expr>();
+			for (Expr child : expr.children) {
+				if (child.kind == Expr.NOT) {
+					negative.add(child.children.get(0));
+				}
+				else {
+					positive.add(evaluate(child));
+				}
+			}
+			Postings result;
+			if (positive.isEmpty()) {
+				result = all();
+			}
+			else {
+				Collections.sort(positive, new Comparator<Postings>() {
+					public int compare(Postings a, Postings b) {
+						return a.size - b.size;
+					}
+				});
+				result = positive.get(0);
+				for (int i = 1; i < positive.size() && result.size > 0; i++) {
+					result = intersect(result, positive.get(i));
+				}
+			}
+			for (int i = 0; i < negative.size() && result.size > 0; i++) {
+				result = subtract(result, evaluate(negative.get(i)));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Returns every document in the index. The list is the index's own, not to be changed.
+	 *
+	 * @return Postings of all documents
+	 */
+	private Postings all() {
+		return live;
+	}
+
+	/**
+	 * Intersects two lists. Each id of the shorter list is looked up in the longer one by
+	 * galloping from the previous match.
+	 *
+	 * @param a First list
+	 * @param b Second list
+	 * @return Documents in both lists
+	 */
+	static Postings intersect(Postings a, Postings b) {
+		if (b.size < a.size) {
+			Postings t = a;
+			a = b;
+			b = t;
+		}
+		Postings result = new Postings(a.size);
+		for (int i = 0, j = 0; i < a.size && j < b.size; i++) {
+			j = PositionalOccurrence.gallop(b.docs, j, b.size, a.docs[i]);
+			if (j < b.size && b.docs[j] == a.docs[i]) {
+				result.add(a.docs[i], 0);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the documents of one list from another. Each id of the first list is looked up in
+	 * the second by galloping, so a short list loses little time to a long one.
+	 *
+	 * @param a List to remove from
+	 * @param b Documents to remove
+	 * @return Documents of a that are not in b
+	 */
+	static Postings subtract(Postings a, Postings b) {
+		Postings result = new Postings(a.size);
+		for (int i = 0, j = 0; i < a.size; i++) {
+			j = PositionalOccurrence.gallop(b.docs, j, b.size, a.docs[i]);
+			if (j == b.size || b.docs[j] != a.docs[i]) {
+				result.add(a.docs[i], 0);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Merges two lists.
+	 *
+	 * @param a First list
+	 * @param b Second list
+	 * @return Documents in either list
+	 */
+	static Postings union(Postings a, Postings b) {
+		Postings result = new Postings(a.size + b.size);
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.docs[i] < b.docs[j])) {
+				result.add(a.docs[i], 0);
+				i++;
+			}
+			else if (i == a.size || b.docs[j] < a.docs[i]) {
+				result.add(b.docs[j], 0);
+				j++;
+			}
+			else {
+				result.add(a.docs[i], 0);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Node of a parsed query.
+	 */
+	private static class Expr {
+
+		static final int WORD = 0, NOT = 1, AND = 2, OR = 3;
+
+		final int kind;
+
+		/**
+		 * Keyword, for a WORD node.
+		 */
+		String word;
+
+		/**
+		 * Operands, for the other nodes.
+		 */
+		final ArrayList<Expr> children = new ArrayList<Expr>(2);
+
+		Expr(int kind) {
+			this.kind = kind;
+		}
+	}
+
+	/**
+	 * Recursive descent parser for the query syntax. Words that are not keywords parse to
+	 * null, and are dropped by the operators around them.
+	 */
+	private class Parser {
+
+		final String query;
+
+		final ArrayList<String> tokens = new ArrayList<String>();
+
+		int pos;
+
+		/**
+		 * Keywords that are not under a NOT, in the order they first appear.
+		 */
+		final ArrayList<String> keywords = new ArrayList<String>();
+
+		/**
+		 * Number of NOTs around the current token.
+		 */
+		int negations;
+
+		Parser(String query) {
+			this.query = query;
+			StringBuilder word = new StringBuilder();
+			for (int i = 0; i <= query.length(); i++) {
+				char c = i < query.length() ? query.charAt(i) : ' ';
+				if (Character.isWhitespace(c) || c == '(' || c == ')') {
+					if (word.length() > 0) {
+						tokens.add(word.toString());
+						word.setLength(0);
+					}
+					if (c == '(' || c == ')') {
+						tokens.add(String.valueOf(c));
+					}
+				}
+				else {
+					word.append(c);
+				}
+			}
+		}
+
+		Expr query() {
+			return combine(Expr.OR, "OR");
+		}
+
+		/**
+		 * Parses operands joined by an operator: OR between AND groups, or AND (possibly
+		 * implicit) between unary terms.
+		 */
+		Expr combine(int kind, String operator) {
+			Expr node = new Expr(kind);
+			do {
+				Expr operand = kind == Expr.OR ? combine(Expr.AND, "AND") : unary();
+				if (operand != null) {
+					node.children.add(operand);
+				}
+			} while (accept(operator) || (kind == Expr.AND && startsOperand()));
+			return node.children.isEmpty() ? null : node.children.size() == 1 ? node.children.get(0) : node;
+		}
+
+		Expr unary() {
+			if (pos == tokens.size()) {
+				throw new IllegalArgumentException("Query ends too early: " + query);
+			}
+			if (accept("NOT")) {
+				negations++;
+				Expr operand = unary();
+				negations--;
+				if (operand == null) {
+					return null;
+				}
+				Expr node = new Expr(Expr.NOT);
+				node.children.add(operand);
+				return node;
+			}
+			if (accept("(")) {
+				Expr inner = query();
+				if (!accept(")")) {
+					throw new IllegalArgumentException("Missing ')' in query: " + query);
+				}
+				return inner;
+			}
+			String token = tokens.get(pos);
+			if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+				throw new IllegalArgumentException("Unexpected '" + token + "' in query: " + query);
+			}
+			pos++;
+			String keyword = engine.getKeyword(token);
+			if (keyword == null) {
+				return null;
+			}
+			if (negations == 0 && !keywords.contains(keyword)) {
+				keywords.add(keyword);
+			}
+			Expr node = new Expr(Expr.WORD);
+			node.word = keyword;
+			return node;
+		}
+
+		boolean startsOperand() {
+			if (pos == tokens.size()) {
+				return false;
+			}
+			String token = tokens.get(pos);
+			return !token.equals(")") && !token.equals("AND") && !token.equals("OR");
+		}
+
+		boolean accept(String token) {
+			if (pos < tokens.size() && tokens.get(pos).equals(token)) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+	}
+}
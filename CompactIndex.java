@@ -0,0 +1,145 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * This class is a compact form of the keywordsIndex of a LittleSearchEngine. Document names
+ * are replaced by int ids from a DocumentDictionary, and each keyword maps to a PostingList
+ * instead of an ArrayList of Occurrence objects. Postings are kept in the same order as the
+ * Occurrence lists, so searches return the same results.
+ */
+public class CompactIndex {
+
+	/**
+	 * Dictionary of all indexed documents.
+	 */
+	DocumentDictionary documents;
+
+	/**
+	 * Posting list of each keyword, in DESCENDING order of frequencies.
+	 */
+	HashMap<String,PostingList> postings;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public CompactIndex() {
+		documents = new DocumentDictionary();
+		postings = new HashMap<String,PostingList>(1000, 2.0f);
+	}
+
+	/**
+	 * Builds a compact copy of the keywordsIndex of a search engine.
+	 *
+	 * @param lse Search engine whose index is copied
+	 * @return Compact index with the same postings, in the same order
+	 */
+	public static CompactIndex from(LittleSearchEngine lse) {
+		CompactIndex index = new CompactIndex();
+		for (Entry<String,ArrayList<Occurrence>> e : lse.keywordsIndex.entrySet()) {
+			PostingList list = new PostingList();
+			for (Occurrence occ : e.getValue()) {
+				list.append(index.documents.idOf(occ.document), occ.frequency);
+			}
+			list.trimToSize();
+			index.postings.put(e.getKey(), list);
+		}
+		return index;
+	}
+
+	/**
+	 * Merges the keywords for a single document into this index, placing every posting
+	 * exactly where LittleSearchEngine.mergeKeywords would place the Occurrence.
+	 *
+	 * @param kws Keywords hash table for a document
+	 */
+	public void mergeKeywords(HashMap<String,Occurrence> kws) {
+		for (Entry<String,Occurrence> e : kws.entrySet()) {
+			Occurrence occ = e.getValue();
+			PostingList list = postings.get(e.getKey());
+			if (list == null) {
+				list = new PostingList();
+				postings.put(e.getKey(), list);
+			}
+			list.insertLast(documents.idOf(occ.document), occ.frequency);
+		}
+	}
+
+	/**
+	 * Returns the posting list of a keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Posting list, null if the keyword is not indexed
+	 */
+	public PostingList postings(String keyword) {
+		return postings.get(keyword);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", with the same result as LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies, ties broken in favor of kw1. The result size is limited to 5 documents.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		PostingList list1 = postings.get(kw1);
+		PostingList list2 = postings.get(kw2);
+		int size1 = list1 == null ? 0 : list1.size();
+		int size2 = list2 == null ? 0 : list2.size();
+		ArrayList<String> finals = new ArrayList<String>(5);
+		int[] seen = new int[5];
+		int i = 0;
+		int j = 0;
+		while (finals.size() < 5 && (i < size1 || j < size2)) {
+			int doc;
+			if (j >= size2 || (i < size1 && list1.frequency(i) >= list2.frequency(j))) {
+				doc = list1.document(i++);
+			}
+			else {
+				doc = list2.document(j++);
+			}
+			boolean dup = false;
+			for (int s = 0; s < finals.size(); s++) {
+				if (seen[s] == doc) {
+					dup = true;
+					break;
+				}
+			}
+			if (!dup) {
+				seen[finals.size()] = doc;
+				finals.add(documents.nameOf(doc));
+			}
+		}
+		return finals;
+	}
+
+	/**
+	 * Returns the total number of postings in the index.
+	 *
+	 * @return Number of postings
+	 */
+	public long postingCount() {
+		long count = 0;
+		for (PostingList list : postings.values()) {
+			count += list.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns an estimate of the heap bytes held by all posting lists.
+	 *
+	 * @return Estimated bytes
+	 */
+	public long postingBytes() {
+		long bytes = 0;
+		for (PostingList list : postings.values()) {
+			bytes += list.heapBytes();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,316 @@
+package lse;
+
+import java.io.FileNotFoundException;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a keyword index that can be searched by any number of threads while one writer
+ * keeps merging new documents into it. Searches never take a lock and always see a consistent
+ * snapshot: either all or none of the occurrences of a merged batch of documents.
+ *
+ * Each keyword maps to an immutable array of occurrences, in DESCENDING order of frequencies.
+ * The writer never changes a published array; it builds a new copy with the new occurrences
+ * inserted (where LittleSearchEngine.insertLastOccurrence would put them, so the order is the
+ * same as in the sequential index) and puts the copy in a ConcurrentHashMap. Every occurrence
+ * carries the version of the batch that added it. A batch becomes visible when its version is
+ * published, after all of its arrays are in place, and a search that started at version v simply
+ * skips occurrences with a later version.
+ *
+ * Copying a posting list costs time proportional to its length, so documents should be merged
+ * in batches (addDocuments) when ingestion is heavy: each touched list is then copied once per
+ * batch rather than once per document.
+ */
+public class ConcurrentSearchEngine {
+
+	/**
+	 * An occurrence tagged with the version of the batch that added it.
+	 */
+	static class VersionedOccurrence extends Occurrence {
+
+		/**
+		 * Version at which this occurrence became visible.
+		 */
+		final long version;
+
+		/**
+		 * Initializes this occurrence.
+		 *
+		 * @param doc Document name
+		 * @param freq Frequency
+		 * @param version Version of the batch that adds it
+		 */
+		VersionedOccurrence(String doc, int freq, long version) {
+			super(doc, freq);
+			this.version = version;
+		}
+	}
+
+	/**
+	 * A consistent view of the index at one version. Any number of searches can be run on
+	 * a snapshot, and they all see the same documents.
+	 */
+	public class Snapshot {
+
+		/**
+		 * Version seen by this snapshot.
+		 */
+		final long version;
+
+		/**
+		 * Creates a snapshot at the given version.
+		 *
+		 * @param version Published version
+		 */
+		Snapshot(long version) {
+			this.version = version;
+		}
+
+		/**
+		 * Returns the version seen by this snapshot.
+		 *
+		 * @return Version
+		 */
+		public long version() {
+			return version;
+		}
+
+		/**
+		 * Search result for "kw1 or kw2", as LittleSearchEngine.top5search.
+		 *
+		 * @param kw1 First keyword
+		 * @param kw2 Second keyword
+		 * @return Up to 5 documents in which either keyword occurs, in descending order of frequencies
+		 */
+		public ArrayList<String> top5search(String kw1, String kw2) {
+			return topK(Arrays.asList(kw1, kw2), 5);
+		}
+
+		/**
+		 * Search result for "kw1 or ... or kwN", as LittleSearchEngine.topK.
+		 *
+		 * @param keywords Keywords, in order of precedence
+		 * @param k Maximum number of results
+		 * @return Up to k documents in which any keyword occurs, in descending order of frequencies
+		 */
+		public ArrayList<String> topK(List<String> keywords, int k) {
+			ArrayList<String> finals = new ArrayList<String>(Math.max(0, Math.min(k, 128)));
+			if (k <= 0) {
+				return finals;
+			}
+			final int n = keywords.size();
+			final Occurrence[][] lists = new Occurrence[n][];
+			final int[] cursors = new int[n];
+			PriorityQueue<Integer> heads = new PriorityQueue<Integer>(Math.max(1, n), new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int fa = lists[a][cursors[a]].frequency;
+					int fb = lists[b][cursors[b]].frequency;
+					return fa != fb ? fb - fa : a - b;
+				}
+			});
+			for (int i = 0; i < n; i++) {
+				String keyword = keywords.get(i);
+				lists[i] = keyword == null ? null : postings.get(keyword);
+				if (lists[i] != null && advance(lists[i], cursors, i)) {
+					heads.add(i);
+				}
+			}
+
+			HashSet<String> seen = new HashSet<String>(2 * Math.min(k, 1024));
+			while (finals.size() < k && !heads.isEmpty()) {
+				int i = heads.poll();
+				String doc = lists[i][cursors[i]].document;
+				if (seen.add(doc)) {
+					finals.add(doc);
+				}
+				cursors[i]++;
+				if (advance(lists[i], cursors, i)) {
+					heads.add(i);
+				}
+			}
+			return finals;
+		}
+
+		/**
+		 * Moves a cursor past the occurrences this snapshot cannot see.
+		 *
+		 * @param occs Occurrence array
+		 * @param cursors Cursors of all lists
+		 * @param i Which cursor to move
+		 * @return True if the cursor is on a visible occurrence, false if the array is exhausted
+		 */
+		private boolean advance(Occurrence[] occs, int[] cursors, int i) {
+			int c = cursors[i];
+			while (c < occs.length && ((VersionedOccurrence)occs[c]).version > version) {
+				c++;
+			}
+			cursors[i] = c;
+			return c < occs.length;
+		}
+	}
+
+	/**
+	 * Engine that supplies the noise words and the keyword rules.
+	 */
+	private final LittleSearchEngine engine;
+
+	/**
+	 * Immutable occurrence array of each keyword.
+	 */
+	private final ConcurrentHashMap<String,Occurrence[]> postings;
+
+	/**
+	 * Latest published version.
+	 */
+	private final AtomicLong published;
+
+	/**
+	 * Serializes writers.
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Creates a concurrent index that starts out with the keywordsIndex of the given engine,
+	 * at version 0. The engine's noise words and keyword rules are used to scan new documents;
+	 * its own keywordsIndex is not changed by this class.
+	 *
+	 * @param engine Engine with noise words loaded, and possibly an index already built
+	 */
+	public ConcurrentSearchEngine(LittleSearchEngine engine) {
+		this.engine = engine;
+		postings = new ConcurrentHashMap<String,Occurrence[]>(Math.max(16, 2 * engine.keywordsIndex.size()));
+		for (Entry<String,ArrayList<Occurrence>> e : engine.keywordsIndex.entrySet()) {
+			ArrayList<Occurrence> occs = e.getValue();
+			Occurrence[] copy = new Occurrence[occs.size()];
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = new VersionedOccurrence(occs.get(i).document, occs.get(i).frequency, 0);
+			}
+			postings.put(e.getKey(), copy);
+		}
+		published = new AtomicLong(0);
+	}
+
+	/**
+	 * Returns a snapshot of the latest published version.
+	 *
+	 * @return Snapshot
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(published.get());
+	}
+
+	/**
+	 * Search result for "kw1 or kw2" on the latest published version.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return Up to 5 documents in which either keyword occurs, in descending order of frequencies
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return snapshot().top5search(kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or ... or kwN" on the latest published version.
+	 *
+	 * @param keywords Keywords, in order of precedence
+	 * @param k Maximum number of results
+	 * @return Up to k documents in which any keyword occurs, in descending order of frequencies
+	 */
+	public ArrayList<String> topK(List<String> keywords, int k) {
+		return snapshot().topK(keywords, k);
+	}
+
+	/**
+	 * Scans a document and publishes its occurrences.
+	 *
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void addDocument(String docFile)
+			throws FileNotFoundException {
+		addDocuments(Collections.singletonList(docFile));
+	}
+
+	/**
+	 * Scans a batch of documents and publishes all of their occurrences at once. Scanning
+	 * happens before the write lock is taken, so several threads may scan concurrently.
+	 *
+	 * @param docFiles Names of the document files, in the order they are to be merged
+	 * @throws FileNotFoundException If a document file is not found on disk; nothing is published then
+	 */
+	public void addDocuments(List<String> docFiles)
+			throws FileNotFoundException {
+		ArrayList<HashMap<String,Occurrence>> batch = new ArrayList<HashMap<String,Occurrence>>(docFiles.size());
+		for (String docFile : docFiles) {
+			batch.add(engine.loadKeywordsFromDocument(docFile));
+		}
+		mergeKeywords(batch);
+	}
+
+	/**
+	 * Merges the keyword tables of a batch of documents, in order, and publishes them as one
+	 * new version. Searches running meanwhile keep seeing the previous version.
+	 *
+	 * @param batch Keywords hash tables, one per document
+	 */
+	public void mergeKeywords(List<HashMap<String,Occurrence>> batch) {
+		synchronized (writeLock) {
+			long version = published.get() + 1;
+			HashMap<String,ArrayList<Occurrence>> touched = new HashMap<String,ArrayList<Occurrence>>();
+			for (HashMap<String,Occurrence> kws : batch) {
+				for (Entry<String,Occurrence> e : kws.entrySet()) {
+					ArrayList<Occurrence> occs = touched.get(e.getKey());
+					if (occs == null) {
+						Occurrence[] current = postings.get(e.getKey());
+						occs = current == null ? new ArrayList<Occurrence>()
+								: new ArrayList<Occurrence>(Arrays.asList(current));
+						touched.put(e.getKey(), occs);
+					}
+					Occurrence occ = e.getValue();
+					insertLast(occs, new VersionedOccurrence(occ.document, occ.frequency, version));
+				}
+			}
+			for (Entry<String,ArrayList<Occurrence>> e : touched.entrySet()) {
+				postings.put(e.getKey(), e.getValue().toArray(new Occurrence[e.getValue().size()]));
+			}
+			published.set(version);
+		}
+	}
+
+	/**
+	 * Inserts an occurrence at the place insertLastOccurrence would put it if it were appended
+	 * to the list, with the same binary search, but without trimming the list or recording the
+	 * midpoints: a hot keyword gets one insertion per document of the batch, and each must not
+	 * copy the whole list more than once.
+	 *
+	 * @param occs List of Occurrences, in DESCENDING order of frequencies
+	 * @param occ Occurrence to insert
+	 */
+	private static void insertLast(ArrayList<Occurrence> occs, Occurrence occ) {
+		int pos = 0;
+		int first = 0;
+		int last = occs.size() - 1;
+		while (first <= last) {
+			int center = (first + last) / 2;
+			int f = occs.get(center).frequency;
+			if (first == last) {
+				pos = occ.frequency >= f ? center : center + 1;
+				break;
+			}
+			else if (occ.frequency == f) {
+				pos = center;
+				break;
+			}
+			else if (occ.frequency > f) {
+				last = center;
+			}
+			else {
+				first = center + 1;
+			}
+		}
+		occs.add(pos, occ);
+	}
+}
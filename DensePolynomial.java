@@ -0,0 +1,138 @@
+package poly;
+
+/**
+ * This class implements add, multiply and evaluate on dense polynomials: plain coefficient
+ * arrays indexed by degree, so that c[i] is the coefficient of x^i. The kernels loop over
+ * primitive arrays and allocate nothing but their result, which makes them much faster than
+ * the Node lists for dense, high-degree polynomials.
+ *
+ * The zero polynomial is the empty array. Results never have trailing zero coefficients,
+ * so the length of a result is its degree + 1.
+ */
+public class DensePolynomial {
+
+	/**
+	 * Converts a polynomial linked list to a coefficient array.
+	 *
+	 * @param poly Polynomial (front of linked list), in any order of degrees
+	 * @return Coefficient array, indexed by degree
+	 */
+	public static double[] fromNode(Node poly) {
+		int maxDegree = -1;
+		for (Node n = poly; n != null; n = n.next) {
+			maxDegree = Math.max(maxDegree, n.term.degree);
+		}
+		double[] coeffs = new double[maxDegree + 1];
+		for (Node n = poly; n != null; n = n.next) {
+			coeffs[n.term.degree] += n.term.coeff;
+		}
+		return trim(coeffs);
+	}
+
+	/**
+	 * Converts a coefficient array to a polynomial linked list, in ascending order of degrees
+	 * like the lists built by Polynomial.read. Terms with a zero coefficient are left out.
+	 *
+	 * @param coeffs Coefficient array, indexed by degree
+	 * @return Polynomial (front of linked list), null for the zero polynomial
+	 */
+	public static Node toNode(double[] coeffs) {
+		Node poly = null;
+		for (int i = coeffs.length - 1; i >= 0; i--) {
+			if ((float)coeffs[i] != 0) {
+				poly = new Node((float)coeffs[i], i, poly);
+			}
+		}
+		return poly;
+	}
+
+	/**
+	 * Returns the degree of a polynomial.
+	 *
+	 * @param coeffs Coefficient array
+	 * @return Degree, -1 for the zero polynomial
+	 */
+	public static int degree(double[] coeffs) {
+		int d = coeffs.length - 1;
+		while (d >= 0 && coeffs[d] == 0) {
+			d--;
+		}
+		return d;
+	}
+
+	/**
+	 * Drops trailing zero coefficients.
+	 *
+	 * @param coeffs Coefficient array
+	 * @return The same array if it has no trailing zeros, otherwise a shorter copy
+	 */
+	public static double[] trim(double[] coeffs) {
+		int len = degree(coeffs) + 1;
+		if (len == coeffs.length) {
+			return coeffs;
+		}
+		double[] trimmed = new double[len];
+		System.arraycopy(coeffs, 0, trimmed, 0, len);
+		return trimmed;
+	}
+
+	/**
+	 * Returns the sum of two polynomials. Neither input is changed.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return Sum
+	 */
+	public static double[] add(double[] a, double[] b) {
+		if (a.length < b.length) {
+			double[] t = a;
+			a = b;
+			b = t;
+		}
+		double[] sum = new double[a.length];
+		for (int i = 0; i < b.length; i++) {
+			sum[i] = a[i] + b[i];
+		}
+		System.arraycopy(a, b.length, sum, b.length, a.length - b.length);
+		return trim(sum);
+	}
+
+	/**
+	 * Returns the product of two polynomials, by the schoolbook method. Neither input is changed.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return Product
+	 */
+	public static double[] multiply(double[] a, double[] b) {
+		if (a.length == 0 || b.length == 0) {
+			return new double[0];
+		}
+		double[] product = new double[a.length + b.length - 1];
+		for (int i = 0; i < a.length; i++) {
+			double ai = a[i];
+			if (ai == 0) {
+				continue;
+			}
+			for (int j = 0; j < b.length; j++) {
+				product[i + j] += ai * b[j];
+			}
+		}
+		return trim(product);
+	}
+
+	/**
+	 * Evaluates a polynomial at a given value, by Horner's rule.
+	 *
+	 * @param coeffs Coefficient array
+	 * @param x Value at which evaluation is to be done
+	 * @return Value of the polynomial at x
+	 */
+	public static double evaluate(double[] coeffs, double x) {
+		double value = 0;
+		for (int i = coeffs.length - 1; i >= 0; i--) {
+			value = value * x + coeffs[i];
+		}
+		return value;
+	}
+}
@@ -0,0 +1,75 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class maps document names to dense int ids, and back. Ids are handed out in the
+ * order documents are first seen, starting at 0.
+ */
+public class DocumentDictionary {
+
+	/**
+	 * Document names, indexed by id.
+	 */
+	ArrayList<String> names;
+
+	/**
+	 * Id of each document name.
+	 */
+	HashMap<String,Integer> ids;
+
+	/**
+	 * Creates an empty dictionary.
+	 */
+	public DocumentDictionary() {
+		names = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Returns the id of a document, assigning the next free id if the document is new.
+	 *
+	 * @param document Document name
+	 * @return Id of the document
+	 */
+	public int idOf(String document) {
+		Integer id = ids.get(document);
+		if (id == null) {
+			id = names.size();
+			names.add(document);
+			ids.put(document, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a document without assigning one.
+	 *
+	 * @param document Document name
+	 * @return Id of the document, -1 if the document is not in the dictionary
+	 */
+	public int find(String document) {
+		Integer id = ids.get(document);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of the document with the given id.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	public String nameOf(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the number of documents in the dictionary.
+	 *
+	 * @return Number of documents
+	 */
+	public int size() {
+		return names.size();
+	}
+}
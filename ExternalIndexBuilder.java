@@ -0,0 +1,458 @@
+package lse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * This class builds an on-disk index, in the format written by IndexWriter, from a corpus that
+ * does not fit in memory. Instead of filling a keywordsIndex, it works like an external sort:
+ * <pre>
+ *     1. the keyword tables of documents, from loadKeywordsFromDocument, are collected into a
+ *        run of postings until the estimated size of the run reaches the memory budget
+ *     2. the run is written to a temporary segment file, keywords in ascending UTF-8 byte
+ *        order, each with its (document id, frequency) postings in docs file order
+ *     3. once all documents are read, the segments are merged k ways; every keyword's
+ *        postings are replayed in docs file order into a PostingList, with the placement
+ *        rules of insertLastOccurrence, and handed to an IndexWriter
+ * </pre>
+ * Segments are merged at most MERGE_FACTOR at a time, so the number of open files and read
+ * buffers stays fixed too. If there are more of them, they are first merged level by level:
+ * each level merges every group of MERGE_FACTOR consecutive segments into one, so every posting
+ * is rewritten once per level, about log(segments) / log(MERGE_FACTOR) times in all.
+ *
+ * Each keyword then has exactly the postings, in exactly the order, that makeIndex would give
+ * its Occurrence list, ties included. Document ids are handed out in docs file order, rather
+ * than in the hash order used by IndexWriter.write, so the files are not byte for byte those
+ * of saveIndex, but a MappedIndex opened on either returns the same results for every query.
+ *
+ * Memory use is bounded by the budget plus the postings of the one keyword being merged, and
+ * the document names, which are the only things that grow with the corpus. IndexWriter keeps its
+ * offset tables in temporary files, so the number of keywords does not count.
+ */
+public class ExternalIndexBuilder {
+
+	/**
+	 * Largest number of segments merged in one pass.
+	 */
+	static final int MERGE_FACTOR = 64;
+
+	/**
+	 * Buffer size of each segment file.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Estimated heap cost of a keyword in a run, not counting its characters and postings:
+	 * String, character array, hash table entry and posting buffer headers.
+	 */
+	private static final int TERM_OVERHEAD = 128;
+
+	/**
+	 * Directory in which segments are written.
+	 */
+	private final File tempDir;
+
+	/**
+	 * Estimated number of bytes a run may take before it is written out.
+	 */
+	private final long memoryBudget;
+
+	/**
+	 * Engine used for its noise words and tokenizer only; nothing is merged into it.
+	 */
+	private LittleSearchEngine engine;
+
+	/**
+	 * Document names, indexed by id.
+	 */
+	private DocumentDictionary documents;
+
+	/**
+	 * Postings of the current run, by keyword, as (document id, frequency) pairs.
+	 */
+	private HashMap<String,Postings> run;
+
+	/**
+	 * Estimated heap size of the current run.
+	 */
+	private long runBytes;
+
+	/**
+	 * Segment files written so far, in docs file order.
+	 */
+	private ArrayList<File> segments;
+
+	/**
+	 * Number of segment files written by the last build, counting intermediate merges.
+	 */
+	int segmentsWritten;
+
+	/**
+	 * Creates a builder.
+	 *
+	 * @param tempDir Directory for the temporary segment files, null for the system default
+	 * @param memoryBudget Estimated number of bytes of postings to hold before writing a segment
+	 */
+	public ExternalIndexBuilder(File tempDir, long memoryBudget) {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive, got " + memoryBudget);
+		}
+		this.tempDir = tempDir;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Indexes all the documents listed in a docs file, and writes the index to the given
+	 * directory. The input files are read as makeIndex reads them.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param indexDir Index directory, created if it does not exist
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @throws IOException If a segment or the index cannot be written
+	 */
+	public void build(String docsFile, String noiseWordsFile, File indexDir)
+			throws IOException {
+		engine = new LittleSearchEngine();
+		documents = new DocumentDictionary();
+		run = new HashMap<String,Postings>(1000, 2.0f);
+		runBytes = 0;
+		segments = new ArrayList<File>();
+		segmentsWritten = 0;
+		ArrayList<File> level = null;
+		try {
+			Scanner sc = new Scanner(new File(noiseWordsFile));
+			while (sc.hasNext()) {
+				engine.noiseWords.add(sc.next());
+			}
+			sc.close();
+			sc = new Scanner(new File(docsFile));
+			while (sc.hasNext()) {
+				add(engine.loadKeywordsFromDocument(sc.next()));
+			}
+			sc.close();
+			if (!run.isEmpty()) {
+				flush();
+			}
+			run = null;
+
+			while (segments.size() > MERGE_FACTOR) {
+				// merging consecutive segments keeps every keyword's postings in docs file order
+				level = new ArrayList<File>((segments.size() + MERGE_FACTOR - 1) / MERGE_FACTOR);
+				for (int i = 0; i < segments.size(); i += MERGE_FACTOR) {
+					List<File> group = segments.subList(i, Math.min(i + MERGE_FACTOR, segments.size()));
+					if (group.size() == 1) {
+						level.add(group.get(0));
+						continue;
+					}
+					File merged = newSegment();
+					level.add(merged);
+					SegmentWriter out = new SegmentWriter(merged);
+					merge(group, out, null);
+					out.close();
+					deleteAll(group);
+				}
+				segments = level;
+				level = null;
+			}
+			IndexWriter writer = new IndexWriter(indexDir, engine.noiseWords, documents.names);
+			boolean written = false;
+			try {
+				merge(segments, null, writer);
+				writer.close();
+				written = true;
+			} finally {
+				if (!written) {
+					writer.abort();
+				}
+			}
+		} finally {
+			deleteAll(segments);
+			deleteAll(level);
+			engine = null;
+			documents = null;
+			run = null;
+			segments = null;
+		}
+	}
+
+	/**
+	 * Adds the keywords of one document to the current run, and writes the run out if it has
+	 * grown past the budget. Documents without keywords get no id, as in IndexWriter.write.
+	 *
+	 * @param kws Keywords hash table for a document
+	 * @throws IOException If a segment cannot be written
+	 */
+	private void add(HashMap<String,Occurrence> kws)
+			throws IOException {
+		if (kws.isEmpty()) {
+			return;
+		}
+		int doc = documents.idOf(kws.values().iterator().next().document);
+		for (Entry<String,Occurrence> e : kws.entrySet()) {
+			Postings postings = run.get(e.getKey());
+			if (postings == null) {
+				postings = new Postings();
+				run.put(e.getKey(), postings);
+				runBytes += TERM_OVERHEAD + 2L * e.getKey().length();
+			}
+			runBytes += postings.add(doc, e.getValue().frequency);
+		}
+		if (runBytes >= memoryBudget) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the current run to a new segment, and empties it.
+	 *
+	 * @throws IOException If the segment cannot be written
+	 */
+	private void flush()
+			throws IOException {
+		byte[][] keys = new byte[run.size()][];
+		int n = 0;
+		for (String term : run.keySet()) {
+			keys[n++] = term.getBytes(StandardCharsets.UTF_8);
+		}
+		Arrays.sort(keys, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return IndexWriter.compareBytes(a, b);
+			}
+		});
+		File file = newSegment();
+		segments.add(file);
+		SegmentWriter out = new SegmentWriter(file);
+		for (byte[] key : keys) {
+			Postings postings = run.get(new String(key, StandardCharsets.UTF_8));
+			out.write(key, postings.pairs, postings.size);
+		}
+		out.close();
+		run.clear();
+		runBytes = 0;
+	}
+
+	/**
+	 * Merges segments, either into another segment or into the final index. For each keyword,
+	 * the postings of the segments are taken in segment order.
+	 *
+	 * @param files Segments to merge, in docs file order
+	 * @param out Segment to write, or null
+	 * @param writer Index to write if out is null
+	 * @throws IOException If a segment cannot be read, or the output cannot be written
+	 */
+	private void merge(List<File> files, SegmentWriter out, IndexWriter writer)
+			throws IOException {
+		PriorityQueue<SegmentReader> queue = new PriorityQueue<SegmentReader>(Math.max(1, files.size()),
+				new Comparator<SegmentReader>() {
+					public int compare(SegmentReader a, SegmentReader b) {
+						int c = IndexWriter.compareBytes(a.term, b.term);
+						return c != 0 ? c : a.index - b.index;
+					}
+				});
+		ArrayList<SegmentReader> readers = new ArrayList<SegmentReader>(files.size());
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				SegmentReader reader = new SegmentReader(files.get(i), i);
+				readers.add(reader);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			Postings postings = new Postings();
+			while (!queue.isEmpty()) {
+				byte[] term = queue.peek().term;
+				postings.size = 0;
+				while (!queue.isEmpty() && IndexWriter.compareBytes(queue.peek().term, term) == 0) {
+					SegmentReader reader = queue.poll();
+					postings.addAll(reader.pairs, reader.count);
+					if (reader.next()) {
+						queue.add(reader);
+					}
+				}
+				if (out != null) {
+					out.write(term, postings.pairs, postings.size);
+				}
+				else {
+					PostingList list = new PostingList();
+					for (int i = 0; i < postings.size; i++) {
+						list.insertLast(postings.pairs[2 * i], postings.pairs[2 * i + 1]);
+					}
+					writer.addTerm(new String(term, StandardCharsets.UTF_8), list);
+				}
+			}
+		} finally {
+			for (SegmentReader reader : readers) {
+				reader.in.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates a new, empty segment file.
+	 *
+	 * @return Segment file
+	 * @throws IOException If the file cannot be created
+	 */
+	private File newSegment()
+			throws IOException {
+		segmentsWritten++;
+		File file = File.createTempFile("lse-segment", ".tmp", tempDir);
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Deletes segment files.
+	 *
+	 * @param files Segment files
+	 */
+	private static void deleteAll(List<File> files) {
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Growable list of (document id, frequency) pairs, in the order they were added.
+	 */
+	private static class Postings {
+
+		/**
+		 * Document id and frequency of each posting, interleaved.
+		 */
+		int[] pairs = new int[4];
+
+		/**
+		 * Number of postings.
+		 */
+		int size;
+
+		/**
+		 * Adds a posting.
+		 *
+		 * @param doc Document id
+		 * @param freq Frequency
+		 * @return Number of bytes by which the list grew
+		 */
+		int add(int doc, int freq) {
+			int grown = 0;
+			if (2 * size == pairs.length) {
+				grown = 4 * pairs.length;
+				pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+			}
+			pairs[2 * size] = doc;
+			pairs[2 * size + 1] = freq;
+			size++;
+			return grown;
+		}
+
+		/**
+		 * Adds postings.
+		 *
+		 * @param more Document id and frequency of each posting, interleaved
+		 * @param count Number of postings
+		 */
+		void addAll(int[] more, int count) {
+			if (2 * (size + count) > pairs.length) {
+				pairs = Arrays.copyOf(pairs, Math.max(2 * pairs.length, 2 * (size + count)));
+			}
+			System.arraycopy(more, 0, pairs, 2 * size, 2 * count);
+			size += count;
+		}
+	}
+
+	/**
+	 * Writes a segment: a sequence of entries, each an int byte length and the UTF-8 bytes of a
+	 * keyword, an int posting count, and the (document id, frequency) int pairs.
+	 */
+	private static class SegmentWriter {
+
+		final DataOutputStream out;
+
+		SegmentWriter(File file)
+				throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		}
+
+		void write(byte[] term, int[] pairs, int count)
+				throws IOException {
+			out.writeInt(term.length);
+			out.write(term);
+			out.writeInt(count);
+			for (int i = 0; i < 2 * count; i++) {
+				out.writeInt(pairs[i]);
+			}
+		}
+
+		void close()
+				throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a segment one entry at a time.
+	 */
+	private static class SegmentReader {
+
+		final DataInputStream in;
+
+		/**
+		 * Position of the segment in the merge, which breaks ties between equal keywords.
+		 */
+		final int index;
+
+		/**
+		 * Current keyword, as UTF-8 bytes.
+		 */
+		byte[] term;
+
+		/**
+		 * Postings of the current keyword, document ids and frequencies interleaved.
+		 */
+		int[] pairs = new int[16];
+
+		/**
+		 * Number of postings of the current keyword.
+		 */
+		int count;
+
+		SegmentReader(File file, int index)
+				throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+			this.index = index;
+		}
+
+		/**
+		 * Reads the next entry.
+		 *
+		 * @return False at the end of the segment
+		 * @throws IOException If the segment cannot be read
+		 */
+		boolean next()
+				throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			term = new byte[length];
+			in.readFully(term);
+			count = in.readInt();
+			if (2 * count > pairs.length) {
+				pairs = new int[Math.max(2 * count, 2 * pairs.length)];
+			}
+			for (int i = 0; i < 2 * count; i++) {
+				pairs[i] = in.readInt();
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,536 @@
+package poly;
+
+import java.util.Arrays;
+
+/**
+ * This class implements sub-quadratic polynomial multiplication on dense coefficient arrays
+ * (see DensePolynomial), and picks the fastest method for the inputs at hand:
+ * <pre>
+ *     schoolbook   short inputs, under KARATSUBA_THRESHOLD coefficients
+ *     Karatsuba    medium inputs, O(n^1.585)
+ *     FFT          long inputs with arbitrary coefficients, O(n log n) in floating point
+ *     NTT          long inputs with integer coefficients, O(n log n), correctly rounded
+ *     sparse       very sparse inputs, through SparsePolynomial.multiply
+ * </pre>
+ * Karatsuba and schoolbook results agree with Polynomial.multiply up to rounding. FFT results
+ * carry an absolute error per coefficient of roughly 2^-52 * log2(n) * n * max|a| * max|b|,
+ * so coefficients much smaller than that bound lose relative precision. The NTT path computes
+ * the integer product exactly, modulo three primes recombined by the Chinese remainder theorem,
+ * and is used only if every product coefficient is known to fit in 62 bits; multiply returns
+ * each coefficient as the double nearest to it, so coefficients above 2^53 are correctly rounded
+ * rather than exact. multiplyExact returns the integer product itself, as longs.
+ */
+public class FastMultiply {
+
+	/**
+	 * Inputs shorter than this are multiplied by the schoolbook method.
+	 */
+	static final int KARATSUBA_THRESHOLD = 48;
+
+	/**
+	 * Inputs at least this long are multiplied by FFT or NTT.
+	 */
+	static final int FFT_THRESHOLD = 1024;
+
+	/**
+	 * Linked-list inputs with a smaller fraction of nonzero coefficients are multiplied sparsely.
+	 */
+	static final double SPARSE_DENSITY = 0.05;
+
+	/**
+	 * NTT primes, each of the form c * 2^k + 1 with primitive root 3.
+	 */
+	private static final long P1 = 998244353L, P2 = 167772161L, P3 = 469762049L;
+
+	/**
+	 * Longest transform all three primes support: P1 - 1 = 119 * 2^23 has the fewest factors of 2.
+	 */
+	static final int MAX_NTT_LENGTH = 1 << 23;
+
+	/**
+	 * Returns the product of two polynomial linked lists, using whichever method suits them best.
+	 * Neither input is changed, and the result has all new nodes, in ascending order of degrees.
+	 *
+	 * @param poly1 First input polynomial (front of polynomial linked list)
+	 * @param poly2 Second input polynomial (front of polynomial linked list)
+	 * @return Product (front of polynomial linked list)
+	 */
+	public static Node multiply(Node poly1, Node poly2) {
+		if (poly1 == null || poly2 == null) {
+			return null;
+		}
+		if (density(poly1) < SPARSE_DENSITY || density(poly2) < SPARSE_DENSITY) {
+			return SparsePolynomial.fromNode(poly1).multiply(SparsePolynomial.fromNode(poly2)).toNode();
+		}
+		return DensePolynomial.toNode(multiply(DensePolynomial.fromNode(poly1), DensePolynomial.fromNode(poly2)));
+	}
+
+	/**
+	 * Returns the fraction of nonzero coefficients of a polynomial.
+	 *
+	 * @param poly Polynomial (front of linked list)
+	 * @return Number of terms divided by degree + 1
+	 */
+	static double density(Node poly) {
+		int terms = 0;
+		int maxDegree = 0;
+		for (Node n = poly; n != null; n = n.next) {
+			terms++;
+			maxDegree = Math.max(maxDegree, n.term.degree);
+		}
+		return terms / (maxDegree + 1.0);
+	}
+
+	/**
+	 * Returns the product of two dense polynomials, using whichever method suits them best.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return Product
+	 */
+	public static double[] multiply(double[] a, double[] b) {
+		int n = Math.min(a.length, b.length);
+		if (n < KARATSUBA_THRESHOLD) {
+			return DensePolynomial.multiply(a, b);
+		}
+		if (n < FFT_THRESHOLD) {
+			return karatsuba(a, b);
+		}
+		long[] exactA = toExact(a);
+		long[] exactB = exactA == null ? null : toExact(b);
+		if (exactB != null && fitsExact(exactA, exactB)) {
+			long[] product = ntt(exactA, exactB);
+			double[] result = new double[product.length];
+			for (int i = 0; i < product.length; i++) {
+				result[i] = product[i];
+			}
+			return DensePolynomial.trim(result);
+		}
+		return fft(a, b);
+	}
+
+	/**
+	 * Converts coefficients to longs, if they are all integers.
+	 *
+	 * @param a Coefficients
+	 * @return Integer coefficients, null if some coefficient is not an integer or exceeds 2^53
+	 */
+	static long[] toExact(double[] a) {
+		long[] exact = new long[a.length];
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] != Math.rint(a[i]) || Math.abs(a[i]) > (1L << 53)) {
+				return null;
+			}
+			exact[i] = (long)a[i];
+		}
+		return exact;
+	}
+
+	/**
+	 * Checks that every coefficient of a product is guaranteed to fit in 62 bits.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return True if min(len) * max|a| * max|b| < 2^62
+	 */
+	static boolean fitsExact(long[] a, long[] b) {
+		double maxA = 0;
+		double maxB = 0;
+		for (long x : a) {
+			maxA = Math.max(maxA, Math.abs((double)x));
+		}
+		for (long x : b) {
+			maxB = Math.max(maxB, Math.abs((double)x));
+		}
+		return Math.min(a.length, b.length) * maxA * maxB < 0x1p62;
+	}
+
+	/**
+	 * Returns the product of two dense polynomials, by Karatsuba's method. Operands of unequal
+	 * length are multiplied in balanced chunks of the shorter length.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return Product
+	 */
+	public static double[] karatsuba(double[] a, double[] b) {
+		if (a.length == 0 || b.length == 0) {
+			return new double[0];
+		}
+		if (a.length < b.length) {
+			double[] t = a;
+			a = b;
+			b = t;
+		}
+		int n = b.length;
+		double[] product = new double[a.length + n - 1];
+		double[] chunk = new double[n];
+		double[] partial = new double[2 * n - 1];
+		for (int start = 0; start < a.length; start += n) {
+			int len = Math.min(n, a.length - start);
+			System.arraycopy(a, start, chunk, 0, len);
+			for (int i = len; i < n; i++) {
+				chunk[i] = 0;
+			}
+			Arrays.fill(partial, 0);
+			karatsuba(chunk, 0, b, 0, n, partial, 0);
+			int valid = len + n - 1;
+			for (int i = 0; i < valid; i++) {
+				product[start + i] += partial[i];
+			}
+		}
+		return DensePolynomial.trim(product);
+	}
+
+	/**
+	 * Adds the product of two equal-length slices into a result slice.
+	 *
+	 * @param a First operand array
+	 * @param ao Offset of the first slice
+	 * @param b Second operand array
+	 * @param bo Offset of the second slice
+	 * @param n Length of both slices
+	 * @param r Result array
+	 * @param ro Offset of the 2n-1 result coefficients
+	 */
+	static void karatsuba(double[] a, int ao, double[] b, int bo, int n, double[] r, int ro) {
+		if (n < KARATSUBA_THRESHOLD) {
+			for (int i = 0; i < n; i++) {
+				double ai = a[ao + i];
+				if (ai == 0) {
+					continue;
+				}
+				for (int j = 0; j < n; j++) {
+					r[ro + i + j] += ai * b[bo + j];
+				}
+			}
+			return;
+		}
+		int m = n / 2;
+		int h = n - m;
+		double[] sumA = new double[h];
+		double[] sumB = new double[h];
+		for (int i = 0; i < h; i++) {
+			sumA[i] = a[ao + m + i] + (i < m ? a[ao + i] : 0);
+			sumB[i] = b[bo + m + i] + (i < m ? b[bo + i] : 0);
+		}
+		double[] low = new double[2 * m - 1];
+		double[] high = new double[2 * h - 1];
+		double[] mid = new double[2 * h - 1];
+		karatsuba(a, ao, b, bo, m, low, 0);
+		karatsuba(a, ao + m, b, bo + m, h, high, 0);
+		karatsuba(sumA, 0, sumB, 0, h, mid, 0);
+		combine(low, high, mid, m, r, ro);
+	}
+
+	/**
+	 * Adds the three Karatsuba partial products into the result: low + x^m (mid - low - high)
+	 * + x^2m high.
+	 *
+	 * @param low Product of the low halves
+	 * @param high Product of the high halves
+	 * @param mid Product of the sums of halves
+	 * @param m Length of the low halves
+	 * @param r Result array
+	 * @param ro Offset of the result coefficients
+	 */
+	static void combine(double[] low, double[] high, double[] mid, int m, double[] r, int ro) {
+		for (int i = 0; i < low.length; i++) {
+			r[ro + i] += low[i];
+			mid[i] -= low[i];
+		}
+		for (int i = 0; i < high.length; i++) {
+			r[ro + 2 * m + i] += high[i];
+			mid[i] -= high[i];
+		}
+		for (int i = 0; i < mid.length; i++) {
+			r[ro + m + i] += mid[i];
+		}
+	}
+
+	/**
+	 * Returns the product of two dense polynomials, by complex FFT. Both inputs are packed into
+	 * one complex sequence (a in the real part, b in the imaginary part), so a single forward and
+	 * a single inverse transform are needed.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return Product, subject to floating-point error (see class comment)
+	 */
+	public static double[] fft(double[] a, double[] b) {
+		if (a.length == 0 || b.length == 0) {
+			return new double[0];
+		}
+		int len = a.length + b.length - 1;
+		int size = Integer.highestOneBit(Math.max(1, len - 1)) << 1;
+		double[] re = new double[size];
+		double[] im = new double[size];
+		System.arraycopy(a, 0, re, 0, a.length);
+		System.arraycopy(b, 0, im, 0, b.length);
+		double[] cos = new double[size / 2];
+		double[] sin = new double[size / 2];
+		for (int k = 0; k < size / 2; k++) {
+			double angle = 2 * Math.PI * k / size;
+			cos[k] = Math.cos(angle);
+			sin[k] = Math.sin(angle);
+		}
+		transform(re, im, cos, sin, false);
+
+		// with C = FFT(a + ib): A[k] = (C[k] + conj C[-k]) / 2, B[k] = (C[k] - conj C[-k]) / 2i,
+		// and the product spectrum is A[k] * B[k]
+		double[] pr = new double[size];
+		double[] pi = new double[size];
+		for (int k = 0; k < size; k++) {
+			int nk = (size - k) & (size - 1);
+			double ar = (re[k] + re[nk]) / 2;
+			double ai = (im[k] - im[nk]) / 2;
+			double br = (im[k] + im[nk]) / 2;
+			double bi = (re[nk] - re[k]) / 2;
+			pr[k] = ar * br - ai * bi;
+			pi[k] = ar * bi + ai * br;
+		}
+		transform(pr, pi, cos, sin, true);
+		double[] product = new double[len];
+		for (int i = 0; i < len; i++) {
+			product[i] = pr[i] / size;
+		}
+		return DensePolynomial.trim(product);
+	}
+
+	/**
+	 * In-place iterative radix-2 FFT. The inverse transform is not scaled.
+	 *
+	 * @param re Real parts, length a power of 2
+	 * @param im Imaginary parts
+	 * @param cos Cosines of 2 pi k / n, k < n/2
+	 * @param sin Sines of 2 pi k / n, k < n/2
+	 * @param inverse True for the inverse transform
+	 */
+	static void transform(double[] re, double[] im, double[] cos, double[] sin, boolean inverse) {
+		int n = re.length;
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for (int len = 2; len <= n; len <<= 1) {
+			int half = len >> 1;
+			int step = n / len;
+			for (int i = 0; i < n; i += len) {
+				for (int k = 0; k < half; k++) {
+					double wr = cos[k * step];
+					double wi = inverse ? sin[k * step] : -sin[k * step];
+					int u = i + k;
+					int v = u + half;
+					double xr = re[v] * wr - im[v] * wi;
+					double xi = re[v] * wi + im[v] * wr;
+					re[v] = re[u] - xr;
+					im[v] = im[u] - xi;
+					re[u] += xr;
+					im[u] += xi;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the exact product of two integer polynomials.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return Product
+	 * @throws ArithmeticException If a product coefficient could exceed 62 bits
+	 */
+	public static long[] multiplyExact(long[] a, long[] b) {
+		if (!fitsExact(a, b)) {
+			throw new ArithmeticException("Product coefficients may overflow 62 bits");
+		}
+		if (Math.min(a.length, b.length) >= KARATSUBA_THRESHOLD) {
+			return ntt(a, b);
+		}
+		if (a.length == 0 || b.length == 0) {
+			return new long[0];
+		}
+		long[] product = new long[a.length + b.length - 1];
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < b.length; j++) {
+				product[i + j] += a[i] * b[j];
+			}
+		}
+		return product;
+	}
+
+	/**
+	 * Returns the exact product of two integer polynomials, by number-theoretic transforms
+	 * modulo three primes, recombined by the Chinese remainder theorem (Garner's method).
+	 * The caller must make sure every product coefficient fits in 62 bits (see fitsExact).
+	 *
+	 * A product longer than MAX_NTT_LENGTH cannot be transformed modulo P1, so the longer input
+	 * is split in halves until the pieces fit, and the partial products are added up.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @return Product
+	 */
+	public static long[] ntt(long[] a, long[] b) {
+		return ntt(a, b, MAX_NTT_LENGTH);
+	}
+
+	/**
+	 * Returns the exact product of two integer polynomials, splitting them so that no
+	 * transform is longer than the given length. See ntt(long[], long[]).
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @param maxLength Longest transform, a power of 2 no greater than MAX_NTT_LENGTH
+	 * @return Product
+	 */
+	static long[] ntt(long[] a, long[] b, int maxLength) {
+		if (a.length == 0 || b.length == 0) {
+			return new long[0];
+		}
+		if (a.length + b.length - 1 > maxLength) {
+			if (a.length < b.length) {
+				long[] t = a;
+				a = b;
+				b = t;
+			}
+			int half = a.length / 2;
+			long[] low = ntt(Arrays.copyOfRange(a, 0, half), b, maxLength);
+			long[] high = ntt(Arrays.copyOfRange(a, half, a.length), b, maxLength);
+			long[] product = new long[a.length + b.length - 1];
+			System.arraycopy(low, 0, product, 0, low.length);
+			for (int i = 0; i < high.length; i++) {
+				product[half + i] += high[i];
+			}
+			return product;
+		}
+		long[] r1 = multiplyMod(a, b, P1);
+		long[] r2 = multiplyMod(a, b, P2);
+		long[] r3 = multiplyMod(a, b, P3);
+		long p1InvP2 = power(P1 % P2, P2 - 2, P2);
+		long p12 = P1 * P2;
+		long p12InvP3 = power(p12 % P3, P3 - 2, P3);
+		long[] product = new long[r1.length];
+		for (int i = 0; i < product.length; i++) {
+			long x1 = r1[i];
+			long t2 = (r2[i] - x1 % P2 + P2) % P2 * p1InvP2 % P2;
+			long x12 = x1 + P1 * t2;
+			long t3 = (r3[i] - x12 % P3 + P3) % P3 * p12InvP3 % P3;
+			if (t3 > P3 / 2) {
+				t3 -= P3;
+			}
+			product[i] = x12 + p12 * t3;
+		}
+		return product;
+	}
+
+	/**
+	 * Returns the product of two integer polynomials modulo a prime, by NTT.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @param p NTT prime with primitive root 3
+	 * @return Product coefficients, reduced to 0..p-1
+	 * @throws IllegalArgumentException If the transform would be longer than the largest power
+	 *         of 2 that divides p - 1, which is as long as a transform modulo p can be
+	 */
+	public static long[] multiplyMod(long[] a, long[] b, long p) {
+		int len = a.length + b.length - 1;
+		int size = Integer.highestOneBit(Math.max(1, len - 1)) << 1;
+		if (size > Long.lowestOneBit(p - 1)) {
+			throw new IllegalArgumentException("Transform of length " + size + " is too long for prime " + p);
+		}
+		long[] fa = new long[size];
+		long[] fb = new long[size];
+		for (int i = 0; i < a.length; i++) {
+			fa[i] = ((a[i] % p) + p) % p;
+		}
+		for (int i = 0; i < b.length; i++) {
+			fb[i] = ((b[i] % p) + p) % p;
+		}
+		transformMod(fa, p, false);
+		transformMod(fb, p, false);
+		for (int i = 0; i < size; i++) {
+			fa[i] = fa[i] * fb[i] % p;
+		}
+		transformMod(fa, p, true);
+		long inv = power(size, p - 2, p);
+		long[] product = new long[len];
+		for (int i = 0; i < len; i++) {
+			product[i] = fa[i] * inv % p;
+		}
+		return product;
+	}
+
+	/**
+	 * In-place iterative NTT modulo a prime. The inverse transform is not scaled.
+	 *
+	 * @param a Values modulo p, length a power of 2
+	 * @param p NTT prime with primitive root 3
+	 * @param inverse True for the inverse transform
+	 */
+	static void transformMod(long[] a, long p, boolean inverse) {
+		int n = a.length;
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				long t = a[i];
+				a[i] = a[j];
+				a[j] = t;
+			}
+		}
+		for (int len = 2; len <= n; len <<= 1) {
+			long w = power(3, (p - 1) / len, p);
+			if (inverse) {
+				w = power(w, p - 2, p);
+			}
+			int half = len >> 1;
+			for (int i = 0; i < n; i += len) {
+				long wk = 1;
+				for (int k = 0; k < half; k++) {
+					long u = a[i + k];
+					long v = a[i + k + half] * wk % p;
+					a[i + k] = u + v < p ? u + v : u + v - p;
+					a[i + k + half] = u - v >= 0 ? u - v : u - v + p;
+					wk = wk * w % p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Modular exponentiation.
+	 *
+	 * @param base Base, 0..p-1
+	 * @param exp Exponent
+	 * @param p Modulus, under 2^31
+	 * @return base^exp mod p
+	 */
+	static long power(long base, long exp, long p) {
+		long result = 1;
+		base %= p;
+		while (exp > 0) {
+			if ((exp & 1) != 0) {
+				result = result * base % p;
+			}
+			base = base * base % p;
+			exp >>= 1;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,220 @@
+package lse;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class collects indexing and query metrics for a LittleSearchEngine: phase timers for
+ * scanning documents, merging keywords and loading the noise-word file, counters for documents,
+ * tokens, keywords and postings, and a histogram of query latencies. Dropping noise words is done
+ * while a document is scanned, so its time is part of the scanning time.
+ *
+ * Recording is lock-free and allocation-free, so several indexing threads can share one instance.
+ * The latency histogram uses log-linear buckets in the manner of HdrHistogram: every power of two
+ * is split into 16 sub-buckets, so a bucket is never more than about 6% wide.
+ *
+ * Metrics are off unless an instance is given to LittleSearchEngine.setMetrics; the engine then
+ * only pays a null check per document, per merge and per query.
+ */
+public class IndexMetrics implements IndexMetricsMXBean {
+
+	/**
+	 * Sub-buckets per power of two, as a power of two.
+	 */
+	private static final int SUB_BITS = 4;
+
+	/**
+	 * Number of histogram buckets, enough for any non-negative long.
+	 */
+	static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder noiseTokens = new LongAdder();
+	private final LongAdder keywords = new LongAdder();
+	private final LongAdder postings = new LongAdder();
+	private final LongAdder tokenizeNanos = new LongAdder();
+	private final LongAdder mergeNanos = new LongAdder();
+	private final LongAdder noiseLoadNanos = new LongAdder();
+	private final LongAdder latencySum = new LongAdder();
+	private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+	private final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Records the scan of one document.
+	 *
+	 * @param nanos Time taken
+	 * @param tokenCount Number of words in the document
+	 * @param noiseCount Number of noise words in the document
+	 * @param keywordCount Number of distinct keywords in the document
+	 */
+	void recordTokenize(long nanos, long tokenCount, long noiseCount, long keywordCount) {
+		documents.increment();
+		tokens.add(tokenCount);
+		noiseTokens.add(noiseCount);
+		keywords.add(keywordCount);
+		tokenizeNanos.add(nanos);
+	}
+
+	/**
+	 * Records a merge of occurrences into the index.
+	 *
+	 * @param nanos Time taken
+	 * @param postingCount Number of occurrences merged
+	 */
+	void recordMerge(long nanos, long postingCount) {
+		postings.add(postingCount);
+		mergeNanos.add(nanos);
+	}
+
+	/**
+	 * Records the loading of the noise-word file.
+	 *
+	 * @param nanos Time taken
+	 */
+	void recordNoiseLoad(long nanos) {
+		noiseLoadNanos.add(nanos);
+	}
+
+	/**
+	 * Records the latency of one query.
+	 *
+	 * @param nanos Time taken
+	 */
+	void recordQuery(long nanos) {
+		latencyBuckets.incrementAndGet(bucketOf(nanos));
+		latencySum.add(nanos);
+		latencyMax.accumulate(nanos);
+	}
+
+	/**
+	 * Returns the histogram bucket of a latency.
+	 *
+	 * @param nanos Latency, negative values count as 0
+	 * @return Bucket number
+	 */
+	static int bucketOf(long nanos) {
+		if (nanos < (1L << SUB_BITS)) {
+			return (int)Math.max(0, nanos);
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int)(nanos >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	/**
+	 * Returns the largest latency that falls in a bucket.
+	 *
+	 * @param bucket Bucket number
+	 * @return Nanoseconds
+	 */
+	static long bucketLimit(int bucket) {
+		if (bucket < (1 << SUB_BITS)) {
+			return bucket;
+		}
+		int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+		long sub = bucket & ((1 << SUB_BITS) - 1);
+		long low = (1L << exp) + (sub << (exp - SUB_BITS));
+		return low + (1L << (exp - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Takes a snapshot of all metrics.
+	 *
+	 * @return Snapshot
+	 */
+	public MetricsSnapshot snapshot() {
+		long[] buckets = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++) {
+			buckets[b] = latencyBuckets.get(b);
+		}
+		return new MetricsSnapshot(documents.sum(), tokens.sum(), noiseTokens.sum(), keywords.sum(),
+				postings.sum(), tokenizeNanos.sum(), mergeNanos.sum(), noiseLoadNanos.sum(),
+				buckets, latencySum.sum(), latencyMax.get());
+	}
+
+	/**
+	 * Clears all metrics.
+	 */
+	public void reset() {
+		documents.reset();
+		tokens.reset();
+		noiseTokens.reset();
+		keywords.reset();
+		postings.reset();
+		tokenizeNanos.reset();
+		mergeNanos.reset();
+		noiseLoadNanos.reset();
+		latencySum.reset();
+		latencyMax.reset();
+		for (int b = 0; b < BUCKETS; b++) {
+			latencyBuckets.set(b, 0);
+		}
+	}
+
+	/**
+	 * Registers this instance with the platform MBean server.
+	 *
+	 * @param name Object name, for example "lse:type=IndexMetrics"
+	 * @throws JMException If the name is malformed or already registered
+	 */
+	public void registerMBean(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+	}
+
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	public long getTokens() {
+		return tokens.sum();
+	}
+
+	public long getNoiseTokens() {
+		return noiseTokens.sum();
+	}
+
+	public long getKeywords() {
+		return keywords.sum();
+	}
+
+	public long getPostings() {
+		return postings.sum();
+	}
+
+	public long getTokenizeNanos() {
+		return tokenizeNanos.sum();
+	}
+
+	public long getMergeNanos() {
+		return mergeNanos.sum();
+	}
+
+	public long getNoiseLoadNanos() {
+		return noiseLoadNanos.sum();
+	}
+
+	public long getQueries() {
+		return snapshot().queries();
+	}
+
+	public long getQueryLatencyMeanNanos() {
+		return snapshot().latencyMean();
+	}
+
+	public long getQueryLatencyP50Nanos() {
+		return snapshot().latencyPercentile(50);
+	}
+
+	public long getQueryLatencyP99Nanos() {
+		return snapshot().latencyPercentile(99);
+	}
+
+	public long getQueryLatencyMaxNanos() {
+		return latencyMax.get();
+	}
+}
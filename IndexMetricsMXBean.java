@@ -0,0 +1,36 @@
+package lse;
+
+/**
+ * Management interface of IndexMetrics, for JMX clients such as jconsole. All times are
+ * in nanoseconds.
+ */
+public interface IndexMetricsMXBean {
+
+	long getDocuments();
+
+	long getTokens();
+
+	long getNoiseTokens();
+
+	long getKeywords();
+
+	long getPostings();
+
+	long getTokenizeNanos();
+
+	long getMergeNanos();
+
+	long getNoiseLoadNanos();
+
+	long getQueries();
+
+	long getQueryLatencyMeanNanos();
+
+	long getQueryLatencyP50Nanos();
+
+	long getQueryLatencyP99Nanos();
+
+	long getQueryLatencyMaxNanos();
+
+	void reset();
+}
@@ -0,0 +1,477 @@
+package lse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * This class writes a search index to disk, in the format read by MappedIndex. An index is a
+ * directory holding four files:
+ * <pre>
+ *     documents.lse   document table: document names, indexed by document id
+ *     noise.lse       noise words
+ *     terms.lse       term dictionary: keywords in ascending UTF-8 byte order, each with the
+ *                     position and length of its postings
+ *     postings.lse    (document id, frequency) pairs of all keywords, each keyword's postings
+ *                     in DESCENDING order of frequencies
+ * </pre>
+ * Every file starts with the same fixed-size header:
+ * <pre>
+ *     int  magic        0x4C534549 ("LSEI")
+ *     int  version      format version, FORMAT_VERSION
+ *     int  kind         which of the four files this is
+ *     int  reserved     0
+ *     long buildId      same random value in all four files of one index
+ *     long count        number of entries (documents, noise words, terms or postings)
+ *     long tableOffset  file offset of the entry offset table, 0 for the postings file
+ *     long checksum     CRC32 of all bytes after the header
+ * </pre>
+ * Strings are stored as an int byte length followed by their UTF-8 bytes. The documents, noise
+ * and terms files end with a table of long file offsets, one per entry, so entries can be found
+ * by binary search or by index without reading the whole file.
+ *
+ * Terms must be added in ascending UTF-8 byte order. Files are written under temporary names and
+ * only renamed into place by close, so a failed write never replaces a good index. A writer that
+ * is given up on, after a failure or otherwise, must be aborted, which deletes the temporary files.
+ * Offset tables are also written to temporary files as entries are added, and copied to the end
+ * of their files by close, so the heap used by a writer does not grow with the index.
+ */
+public class IndexWriter implements Closeable {
+
+	/**
+	 * Magic number at the start of every index file.
+	 */
+	static final int MAGIC = 0x4C534549;
+
+	/**
+	 * Current format version. Files with any other version are rejected.
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Size of the header at the start of every index file.
+	 */
+	static final int HEADER_BYTES = 48;
+
+	/**
+	 * File kinds, as stored in the header.
+	 */
+	static final int DOCUMENTS = 1, NOISE = 2, TERMS = 3, POSTINGS = 4;
+
+	/**
+	 * File names, indexed by kind.
+	 */
+	static final String[] FILE_NAMES = { null, "documents.lse", "noise.lse", "terms.lse", "postings.lse" };
+
+	/**
+	 * Index directory.
+	 */
+	private final File dir;
+
+	/**
+	 * Build id written into all four files.
+	 */
+	private final long buildId;
+
+	/**
+	 * Term dictionary being written.
+	 */
+	private final Section terms;
+
+	/**
+	 * Postings being written.
+	 */
+	private final Section postings;
+
+	/**
+	 * Sections opened so far, closed by abort.
+	 */
+	private final ArrayList<Section> opened = new ArrayList<Section>(4);
+
+	/**
+	 * Last term added, as UTF-8 bytes.
+	 */
+	private byte[] lastTerm;
+
+	/**
+	 * Set once close has run.
+	 */
+	private boolean closed;
+
+	/**
+	 * Starts writing an index into the given directory, which is created if needed. The document
+	 * table and noise words are written right away.
+	 *
+	 * @param dir Index directory
+	 * @param noiseWords Noise words
+	 * @param documents Document names, indexed by the document ids used in the postings
+	 * @throws IOException If the files cannot be written
+	 */
+	public IndexWriter(File dir, Collection<String> noiseWords, List<String> documents)
+			throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create index directory " + dir);
+		}
+		this.dir = dir;
+		buildId = new Random().nextLong();
+
+		try {
+			Section docs = new Section(DOCUMENTS);
+			for (String doc : documents) {
+				docs.startEntry();
+				docs.writeString(doc);
+			}
+			docs.finish();
+			Section noise = new Section(NOISE);
+			for (String word : noiseWords) {
+				noise.startEntry();
+				noise.writeString(word);
+			}
+			noise.finish();
+
+			terms = new Section(TERMS);
+			postings = new Section(POSTINGS);
+		} catch (IOException | RuntimeException e) {
+			abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a term and its postings. Terms must be added in ascending UTF-8 byte order.
+	 *
+	 * @param term Keyword
+	 * @param docs Document ids, in DESCENDING order of frequencies
+	 * @param freqs Frequencies, parallel to docs
+	 * @param count Number of postings
+	 * @throws IOException If the files cannot be written
+	 */
+	public void addTerm(String term, int[] docs, int[] freqs, int count)
+			throws IOException {
+		byte[] bytes = startTerm(term, count);
+		for (int i = 0; i < count; i++) {
+			postings.out.writeInt(docs[i]);
+			postings.out.writeInt(freqs[i]);
+		}
+		postings.entries += count;
+		postings.position += 8L * count;
+		lastTerm = bytes;
+	}
+
+	/**
+	 * Adds a term and its postings. Terms must be added in ascending UTF-8 byte order.
+	 *
+	 * @param term Keyword
+	 * @param list Postings of the term
+	 * @throws IOException If the files cannot be written
+	 */
+	public void addTerm(String term, PostingList list)
+			throws IOException {
+		int count = list.size();
+		byte[] bytes = startTerm(term, count);
+		for (int r = 0, i = 0; r < list.runs; r++) {
+			for (; i < list.runEnds[r]; i++) {
+				postings.out.writeInt(list.docs[i]);
+				postings.out.writeInt(list.runFreqs[r]);
+			}
+		}
+		postings.entries += count;
+		postings.position += 8L * count;
+		lastTerm = bytes;
+	}
+
+	/**
+	 * Writes the dictionary entry of a term.
+	 *
+	 * @param term Keyword
+	 * @param count Number of postings of the term
+	 * @return UTF-8 bytes of the term
+	 * @throws IOException If the term is out of order, or cannot be written
+	 */
+	private byte[] startTerm(String term, int count)
+			throws IOException {
+		byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+		if (lastTerm != null && compareBytes(lastTerm, bytes) >= 0) {
+			throw new IOException("Term '" + term + "' is not in ascending order");
+		}
+		terms.startEntry();
+		terms.writeBytes(bytes);
+		terms.out.writeLong(postings.entries);
+		terms.out.writeInt(count);
+		terms.position += 12;
+		return bytes;
+	}
+
+	/**
+	 * Finishes the term dictionary and postings, and moves all four files into place.
+	 *
+	 * @throws IOException If the files cannot be written
+	 */
+	public void close()
+			throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		terms.finish();
+		postings.finish();
+		for (int kind = DOCUMENTS; kind <= POSTINGS; kind++) {
+			Files.move(temporaryFile(kind).toPath(), new File(dir, FILE_NAMES[kind]).toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		opened.clear();
+	}
+
+	/**
+	 * Gives up on the index: closes any files still open, and deletes the temporary files. An
+	 * index already in the directory is left as it was, unless close had started moving files
+	 * into place. Does nothing once close has completed.
+	 */
+	public void abort() {
+		for (Section section : opened) {
+			closeQuietly(section.out);
+			closeQuietly(section.offsets);
+		}
+		opened.clear();
+		closed = true;
+		for (int kind = DOCUMENTS; kind <= POSTINGS; kind++) {
+			temporaryFile(kind).delete();
+			offsetsFile(kind).delete();
+		}
+	}
+
+	/**
+	 * Closes a stream that is about to be deleted, ignoring errors.
+	 *
+	 * @param stream Stream, or null
+	 */
+	private static void closeQuietly(Closeable stream) {
+		if (stream == null) {
+			return;
+		}
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// the file is deleted anyway
+		}
+	}
+
+	/**
+	 * Writes the index of a search engine to the given directory. If writing fails, no
+	 * temporary files are left behind.
+	 *
+	 * @param lse Search engine whose keywordsIndex and noiseWords are written
+	 * @param dir Index directory
+	 * @throws IOException If the files cannot be written
+	 */
+	public static void write(LittleSearchEngine lse, File dir)
+			throws IOException {
+		DocumentDictionary documents = new DocumentDictionary();
+		ArrayList<byte[]> keys = new ArrayList<byte[]>(lse.keywordsIndex.size());
+		for (Entry<String,ArrayList<Occurrence>> e : lse.keywordsIndex.entrySet()) {
+			keys.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+			for (Occurrence occ : e.getValue()) {
+				documents.idOf(occ.document);
+			}
+		}
+		Collections.sort(keys, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b) {
+				return compareBytes(a, b);
+			}
+		});
+
+		IndexWriter writer = new IndexWriter(dir, lse.noiseWords, documents.names);
+		boolean written = false;
+		try {
+			int[] docs = new int[16];
+			int[] freqs = new int[16];
+			for (byte[] key : keys) {
+				String term = new String(key, StandardCharsets.UTF_8);
+				ArrayList<Occurrence> occs = lse.keywordsIndex.get(term);
+				if (occs.size() > docs.length) {
+					docs = new int[occs.size()];
+					freqs = new int[occs.size()];
+				}
+				for (int i = 0; i < occs.size(); i++) {
+					docs[i] = documents.idOf(occs.get(i).document);
+					freqs[i] = occs.get(i).frequency;
+				}
+				writer.addTerm(term, docs, freqs, occs.size());
+			}
+			writer.close();
+			written = true;
+		} finally {
+			if (!written) {
+				writer.abort();
+			}
+		}
+	}
+
+	/**
+	 * Compares two byte strings as unsigned bytes, which orders UTF-8 strings by code point.
+	 *
+	 * @param a First string
+	 * @param b Second string
+	 * @return Negative, zero or positive, as a is less than, equal to or greater than b
+	 */
+	static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Returns the temporary name of a file of this index.
+	 *
+	 * @param kind File kind
+	 * @return Temporary file
+	 */
+	private File temporaryFile(int kind) {
+		return new File(dir, FILE_NAMES[kind] + ".tmp");
+	}
+
+	/**
+	 * Returns the temporary file holding the offset table of a file of this index while it is
+	 * being written.
+	 *
+	 * @param kind File kind
+	 * @return Temporary offsets file
+	 */
+	private File offsetsFile(int kind) {
+		return new File(dir, FILE_NAMES[kind] + ".offsets.tmp");
+	}
+
+	/**
+	 * One index file being written. The header is reserved up front, and filled in by finish
+	 * once the entry count, offset table position and checksum are known.
+	 */
+	private class Section {
+
+		/**
+		 * File kind.
+		 */
+		final int kind;
+
+		/**
+		 * Checksum of everything written after the header.
+		 */
+		final CRC32 crc;
+
+		/**
+		 * Stream of everything after the header.
+		 */
+		final DataOutputStream out;
+
+		/**
+		 * Current file offset.
+		 */
+		long position;
+
+		/**
+		 * Number of entries written.
+		 */
+		long entries;
+
+		/**
+		 * File offset of each entry, written to the offsets file, if the file has an offset table.
+		 */
+		DataOutputStream offsets;
+
+		/**
+		 * Opens the temporary file of the given kind.
+		 *
+		 * @param kind File kind
+		 * @throws IOException If the file cannot be created
+		 */
+		Section(int kind)
+				throws IOException {
+			this.kind = kind;
+			FileOutputStream file = new FileOutputStream(temporaryFile(kind));
+			crc = new CRC32();
+			out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc));
+			opened.add(this);
+			file.write(new byte[HEADER_BYTES]);
+			position = HEADER_BYTES;
+			if (kind != POSTINGS) {
+				offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile(kind)), 1 << 16));
+			}
+		}
+
+		/**
+		 * Records the offset of a new entry.
+		 *
+		 * @throws IOException If the offsets file cannot be written
+		 */
+		void startEntry()
+				throws IOException {
+			offsets.writeLong(position);
+			entries++;
+		}
+
+		/**
+		 * Writes a length-prefixed UTF-8 string.
+		 *
+		 * @param s String
+		 * @throws IOException If the file cannot be written
+		 */
+		void writeString(String s)
+				throws IOException {
+			writeBytes(s.getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Writes a length-prefixed byte string.
+		 *
+		 * @param bytes Bytes
+		 * @throws IOException If the file cannot be written
+		 */
+		void writeBytes(byte[] bytes)
+				throws IOException {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			position += 4 + bytes.length;
+		}
+
+		/**
+		 * Writes the offset table, if any, and then the header.
+		 *
+		 * @throws IOException If the file cannot be written
+		 */
+		void finish()
+				throws IOException {
+			long tableOffset = 0;
+			if (offsets != null) {
+				tableOffset = position;
+				offsets.close();
+				offsets = null;
+				Files.copy(offsetsFile(kind).toPath(), out);
+				offsetsFile(kind).delete();
+			}
+			out.close();
+
+			RandomAccessFile file = new RandomAccessFile(temporaryFile(kind), "rw");
+			try {
+				file.writeInt(MAGIC);
+				file.writeInt(FORMAT_VERSION);
+				file.writeInt(kind);
+				file.writeInt(0);
+				file.writeLong(buildId);
+				file.writeLong(entries);
+				file.writeLong(tableOffset);
+				file.writeLong(crc.getValue());
+			} finally {
+				file.close();
+			}
+		}
+	}
+}
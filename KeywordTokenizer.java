@@ -0,0 +1,555 @@
+package lse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * This class scans a document for keywords without going through a Scanner. The document
+ * file is read through memory-mapped windows, and characters are classified directly in the
+ * mapped bytes using the same rules as LittleSearchEngine.getKeyword.
+ *
+ * Distinct words of the document are counted in an open-addressing table keyed by their
+ * lower-cased bytes, so a String is only created the first time a word is seen in the
+ * document, and no Occurrence is created until the document has been fully scanned.
+ * Noise words are remembered in the table too, so they are only looked up once per document.
+ *
+ * Words that contain non-ASCII bytes are decoded as UTF-8 and handed to getKeyword, so the
+ * result is the same as scanning the document with a Scanner.
+ *
+ * If the engine is in positional mode, the position of every keyword occurrence (its token
+ * ordinal, counting all words) is recorded as well, and keywords come with PositionalOccurrence
+ * objects instead of plain Occurrence objects.
+ *
+ * An instance is not thread-safe, but may be reused for any number of documents.
+ */
+class KeywordTokenizer {
+
+	/**
+	 * Size of the file window mapped at a time.
+	 */
+	private static final int WINDOW = 64 * 1024 * 1024;
+
+	/**
+	 * Engine whose noise words and getKeyword rules are applied.
+	 */
+	private final LittleSearchEngine engine;
+
+	/**
+	 * True if positions are recorded.
+	 */
+	private final boolean positional;
+
+	/**
+	 * Open-addressing table of entry numbers, -1 for an empty slot. Its length is a power of 2.
+	 */
+	private int[] slots;
+
+	/**
+	 * Hash code of each entry, computed the same way as String.hashCode.
+	 */
+	private int[] hashes;
+
+	/**
+	 * Offset of each entry's lower-cased bytes in the byte pool.
+	 */
+	private int[] offsets;
+
+	/**
+	 * Length of each entry's lower-cased bytes.
+	 */
+	private int[] lengths;
+
+	/**
+	 * Frequency of each entry in the current document.
+	 */
+	private int[] counts;
+
+	/**
+	 * Keyword of each entry, null if the entry is a noise word.
+	 */
+	private String[] words;
+
+	/**
+	 * Positions of each keyword entry in the current document, counts[e] of them, null unless
+	 * positions are recorded. Arrays are reused from one document to the next.
+	 */
+	private int[][] positions;
+
+	/**
+	 * Number of entries in the table.
+	 */
+	private int entries;
+
+	/**
+	 * Lower-cased bytes of all entries, back to back.
+	 */
+	private byte[] pool;
+
+	/**
+	 * Number of bytes used in the pool.
+	 */
+	private int poolSize;
+
+	/**
+	 * Lower-cased letters of the word being scanned.
+	 */
+	private byte[] scratch;
+
+	/**
+	 * Keywords found in words that had to be decoded, null if there were none.
+	 */
+	private HashMap<String,Occurrence> decoded;
+
+	/**
+	 * Positions of the keywords found in decoded words, if positions are recorded.
+	 */
+	private HashMap<String,int[]> decodedPositions;
+
+	/**
+	 * Number of words in the last document scanned.
+	 */
+	int tokens;
+
+	/**
+	 * Number of noise words in the last document scanned.
+	 */
+	int noiseTokens;
+
+	/**
+	 * Initializes a tokenizer for the given engine.
+	 *
+	 * @param engine Engine whose noise words and keyword rules are applied
+	 */
+	KeywordTokenizer(LittleSearchEngine engine) {
+		this.engine = engine;
+		positional = engine.positional;
+		slots = new int[1024];
+		hashes = new int[512];
+		offsets = new int[512];
+		lengths = new int[512];
+		counts = new int[512];
+		words = new String[512];
+		pool = new byte[4096];
+		scratch = new byte[64];
+		if (positional) {
+			positions = new int[512][];
+		}
+	}
+
+	/**
+	 * Scans a document, and returns all keywords found in it, each associated with an
+	 * Occurrence object (a PositionalOccurrence in positional mode). The result is the same as
+	 * LittleSearchEngine.loadKeywordsFromDocument.
+	 *
+	 * @param docFile Name of the document file to be scanned
+	 * @return Hash table of keywords in the given document
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	HashMap<String,Occurrence> tokenize(String docFile)
+			throws FileNotFoundException {
+		reset();
+		FileInputStream in = new FileInputStream(docFile);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			long pos = 0;
+			long window = WINDOW;
+			while (pos < size) {
+				long len = Math.min(window, size - pos);
+				MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+				int consumed = scan(buf, (int)len, pos + len == size);
+				if (consumed == 0) {
+					// a single word fills the whole window
+					window = Math.min(2 * window, Integer.MAX_VALUE);
+					continue;
+				}
+				pos += consumed;
+				window = WINDOW;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing was written, nothing to lose
+			}
+		}
+		return result(docFile);
+	}
+
+	/**
+	 * Clears the table for a new document.
+	 */
+	private void reset() {
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = -1;
+		}
+		entries = 0;
+		poolSize = 0;
+		decoded = null;
+		decodedPositions = null;
+		tokens = 0;
+		noiseTokens = 0;
+	}
+
+	/**
+	 * Scans the words of a mapped window.
+	 *
+	 * @param buf Mapped window
+	 * @param len Number of bytes in the window
+	 * @param last True if the window ends at the end of the file
+	 * @return Number of bytes consumed. If the window does not end the file, a word running
+	 *         into the end of the window is not consumed, so it can be scanned again from
+	 *         the next window.
+	 */
+	private int scan(ByteBuffer buf, int len, boolean last) {
+		int i = 0;
+		while (i < len) {
+			byte b = buf.get(i);
+			if (isSpace(b)) {
+				i++;
+				continue;
+			}
+			int start = i;
+			int n = 0;
+			int hash = 0;
+			boolean letters = true;
+			boolean valid = true;
+			boolean ascii = true;
+			while (i < len && !isSpace(b = buf.get(i))) {
+				if (b < 0) {
+					ascii = false;
+				}
+				else if (letters) {
+					if (isLetter(b)) {
+						if (n == scratch.length) {
+							scratch = grow(scratch, n + 1);
+						}
+						byte lower = (byte)(b | 0x20);
+						scratch[n++] = lower;
+						hash = 31 * hash + lower;
+					}
+					else {
+						letters = false;
+					}
+				}
+				else if (isLetter(b)) {
+					valid = false;
+				}
+				i++;
+			}
+			if (i == len && !last) {
+				return start;
+			}
+			if (!ascii) {
+				decode(buf, start, i);
+			}
+			else {
+				tokens++;
+				if (valid) {
+					count(n, hash);
+				}
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Counts one occurrence of the word held in the scratch buffer, which is at position
+	 * tokens - 1.
+	 *
+	 * @param n Length of the word
+	 * @param hash Hash code of the word
+	 */
+	private void count(int n, int hash) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		int e;
+		while ((e = slots[slot]) != -1) {
+			if (hashes[e] == hash && lengths[e] == n && sameBytes(offsets[e], n)) {
+				counts[e]++;
+				if (words[e] == null) {
+					noiseTokens++;
+				}
+				else if (positional) {
+					record(e);
+				}
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		e = entries++;
+		if (e == hashes.length) {
+			int cap = 2 * e;
+			hashes = Arrays.copyOf(hashes, cap);
+			offsets = Arrays.copyOf(offsets, cap);
+			lengths = Arrays.copyOf(lengths, cap);
+			counts = Arrays.copyOf(counts, cap);
+			words = Arrays.copyOf(words, cap);
+			if (positional) {
+				positions = Arrays.copyOf(positions, cap);
+			}
+		}
+		if (poolSize + n > pool.length) {
+			pool = grow(pool, poolSize + n);
+		}
+		System.arraycopy(scratch, 0, pool, poolSize, n);
+		String word = new String(scratch, 0, n, StandardCharsets.ISO_8859_1);
+		hashes[e] = hash;
+		offsets[e] = poolSize;
+		lengths[e] = n;
+		counts[e] = 1;
+		words[e] = engine.noiseWords.contains(word) ? null : word;
+		if (words[e] == null) {
+			noiseTokens++;
+		}
+		else if (positional) {
+			record(e);
+		}
+		poolSize += n;
+		slots[slot] = e;
+		if (2 * entries > slots.length) {
+			rehash();
+		}
+	}
+
+	/**
+	 * Records the position of the latest occurrence of a keyword entry, whose count already
+	 * includes it.
+	 *
+	 * @param e Entry number
+	 */
+	private void record(int e) {
+		int[] p = positions[e];
+		if (p == null) {
+			p = positions[e] = new int[4];
+		}
+		else if (counts[e] > p.length) {
+			p = positions[e] = Arrays.copyOf(p, 2 * p.length);
+		}
+		p[counts[e] - 1] = tokens - 1;
+	}
+
+	/**
+	 * Checks whether the scratch buffer holds the same bytes as the pool at the given offset.
+	 *
+	 * @param offset Offset in the pool
+	 * @param n Number of bytes to compare
+	 * @return True if all bytes are equal
+	 */
+	private boolean sameBytes(int offset, int n) {
+		for (int i = 0; i < n; i++) {
+			if (pool[offset + i] != scratch[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the slot table and reinserts all entries.
+	 */
+	private void rehash() {
+		int[] bigger = new int[2 * slots.length];
+		for (int i = 0; i < bigger.length; i++) {
+			bigger[i] = -1;
+		}
+		int mask = bigger.length - 1;
+		for (int e = 0; e < entries; e++) {
+			int slot = hashes[e] & mask;
+			while (bigger[slot] != -1) {
+				slot = (slot + 1) & mask;
+			}
+			bigger[slot] = e;
+		}
+		slots = bigger;
+	}
+
+	/**
+	 * Tells whether a word is a noise word by the rules of getKeyword: it consists of letters
+	 * followed by anything but letters, and the letters, in lower case, are a noise word.
+	 *
+	 * @param word Word
+	 * @return True if getKeyword rejects the word as a noise word
+	 */
+	private boolean isNoise(String word) {
+		int end = 0;
+		while (end < word.length() && Character.isAlphabetic(word.charAt(end))) {
+			end++;
+		}
+		for (int i = end; i < word.length(); i++) {
+			if (Character.isAlphabetic(word.charAt(i))) {
+				return false;
+			}
+		}
+		return engine.noiseWords.contains(word.substring(0, end).toLowerCase());
+	}
+
+	/**
+	 * Handles a word containing non-ASCII bytes. The bytes are decoded as UTF-8, split on
+	 * whitespace the same way a Scanner does, and each piece is passed to getKeyword.
+	 *
+	 * @param buf Mapped window
+	 * @param start Offset of the first byte of the word
+	 * @param end Offset just past the last byte of the word
+	 */
+	private void decode(ByteBuffer buf, int start, int end) {
+		ByteBuffer bytes = buf.duplicate();
+		bytes.limit(end);
+		bytes.position(start);
+		String text = StandardCharsets.UTF_8.decode(bytes).toString();
+		int i = 0;
+		while (i < text.length()) {
+			int cp = text.codePointAt(i);
+			if (Character.isWhitespace(cp)) {
+				i += Character.charCount(cp);
+				continue;
+			}
+			int wordStart = i;
+			while (i < text.length() && !Character.isWhitespace(cp = text.codePointAt(i))) {
+				i += Character.charCount(cp);
+			}
+			tokens++;
+			String word = text.substring(wordStart, i);
+			String keyword = engine.getKeyword(word);
+			if (keyword == null) {
+				if (isNoise(word)) {
+					noiseTokens++;
+				}
+				continue;
+			}
+			if (decoded == null) {
+				decoded = new HashMap<String,Occurrence>();
+			}
+			Occurrence occ = decoded.get(keyword);
+			if (occ == null) {
+				decoded.put(keyword, occ = new Occurrence(null, 1));
+			}
+			else {
+				occ.frequency++;
+			}
+			if (positional) {
+				if (decodedPositions == null) {
+					decodedPositions = new HashMap<String,int[]>();
+				}
+				int[] p = decodedPositions.get(keyword);
+				if (p == null) {
+					decodedPositions.put(keyword, p = new int[4]);
+				}
+				else if (occ.frequency > p.length) {
+					decodedPositions.put(keyword, p = Arrays.copyOf(p, 2 * p.length));
+				}
+				p[occ.frequency - 1] = tokens - 1;
+			}
+		}
+	}
+
+	/**
+	 * Builds the keywords table of the scanned document.
+	 *
+	 * @param docFile Name of the document file
+	 * @return Hash table of keywords, each associated with an Occurrence object
+	 */
+	private HashMap<String,Occurrence> result(String docFile) {
+		if (positional) {
+			return positionalResult(docFile);
+		}
+		HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>(Math.max(16, 2 * entries));
+		for (int e = 0; e < entries; e++) {
+			if (words[e] != null) {
+				kws.put(words[e], new Occurrence(docFile, counts[e]));
+			}
+		}
+		if (decoded != null) {
+			for (Entry<String,Occurrence> d : decoded.entrySet()) {
+				Occurrence occ = kws.get(d.getKey());
+				if (occ == null) {
+					kws.put(d.getKey(), new Occurrence(docFile, d.getValue().frequency));
+				}
+				else {
+					occ.frequency += d.getValue().frequency;
+				}
+			}
+		}
+		for (int e = 0; e < entries; e++) {
+			words[e] = null;
+		}
+		return kws;
+	}
+
+	/**
+	 * Builds the keywords table of the scanned document, with positions.
+	 *
+	 * @param docFile Name of the document file
+	 * @return Hash table of keywords, each associated with a PositionalOccurrence object
+	 */
+	private HashMap<String,Occurrence> positionalResult(String docFile) {
+		HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>(Math.max(16, 2 * entries));
+		for (int e = 0; e < entries; e++) {
+			if (words[e] == null) {
+				continue;
+			}
+			Occurrence d = decoded == null ? null : decoded.remove(words[e]);
+			if (d == null) {
+				kws.put(words[e], new PositionalOccurrence(docFile, positions[e], counts[e]));
+			}
+			else {
+				// the keyword also occurs in decoded words; merge both position lists
+				int[] a = positions[e];
+				int[] b = decodedPositions.get(words[e]);
+				int[] merged = new int[counts[e] + d.frequency];
+				for (int i = 0, j = 0, k = 0; k < merged.length; k++) {
+					merged[k] = j == d.frequency || (i < counts[e] && a[i] < b[j]) ? a[i++] : b[j++];
+				}
+				kws.put(words[e], new PositionalOccurrence(docFile, merged, merged.length));
+			}
+			words[e] = null;
+		}
+		if (decoded != null) {
+			for (Entry<String,Occurrence> d : decoded.entrySet()) {
+				kws.put(d.getKey(), new PositionalOccurrence(docFile, decodedPositions.get(d.getKey()), d.getValue().frequency));
+			}
+		}
+		return kws;
+	}
+
+	/**
+	 * Checks for the ASCII characters that Character.isWhitespace accepts.
+	 *
+	 * @param b Byte
+	 * @return True if the byte is an ASCII whitespace character
+	 */
+	private static boolean isSpace(byte b) {
+		return b == ' ' || (b >= 9 && b <= 13) || (b >= 28 && b <= 31);
+	}
+
+	/**
+	 * Checks for an ASCII letter.
+	 *
+	 * @param b Byte
+	 * @return True if the byte is 'a'..'z' or 'A'..'Z'
+	 */
+	private static boolean isLetter(byte b) {
+		int lower = b | 0x20;
+		return lower >= 'a' && lower <= 'z';
+	}
+
+	/**
+	 * Returns a copy of the given array with at least the given capacity.
+	 *
+	 * @param bytes Array to grow
+	 * @param min Minimum capacity
+	 * @return Larger copy
+	 */
+	private static byte[] grow(byte[] bytes, int min) {
+		return Arrays.copyOf(bytes, Math.max(min, 2 * bytes.length));
+	}
+}
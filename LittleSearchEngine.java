@@ -3,6 +3,7 @@ package lse;
 import java.io.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 
 /**
  * This class builds an index of keywords. Each keyword maps to a set of pages in
@@ -22,16 +23,134 @@ public class LittleSearchEngine {
 	 */
 	HashSet<String> noiseWords;
 
+	/**
+	 * Names of all indexed documents, including documents without any keywords.
+	 */
+	HashSet<String> documents;
+
+	/**
+	 * Forward index: the keywords of every indexed document that has any, with the very
+	 * Occurrence objects that are in keywordsIndex, so that a document's occurrences can be found
+	 * and removed without scanning the whole index. Each document keeps two arrays rather than a
+	 * hash table, which costs two references per occurrence.
+	 */
+	HashMap<String,DocumentKeywords> documentKeywords;
+
+	/**
+	 * Optional cache of search results, null if caching is off.
+	 */
+	QueryCache queryCache;
+
+	/**
+	 * Optional indexing and query metrics, null if metrics are off.
+	 */
+	IndexMetrics metrics;
+
+	/**
+	 * Sorted dictionary of the keywords, for prefix and wildcard queries. It is built on first
+	 * use, and from then on kept up to date as keywords are added to and removed from
+	 * keywordsIndex.
+	 */
+	TermDictionary termDictionary;
+
+	/**
+	 * Postings in document order, for boolean queries. Built on first use, and from then on kept
+	 * up to date as documents are merged into and removed from the index.
+	 */
+	BooleanIndex booleanIndex;
+
+	/**
+	 * True if documents are loaded with the positions of their keywords, as PositionalOccurrence
+	 * objects, so that phrase and proximity queries can be answered.
+	 */
+	boolean positional;
+
+	/**
+	 * Default limit on the number of keywords a wildcard pattern expands to.
+	 */
+	static final int MAX_EXPANSIONS = 64;
+
+	/**
+	 * Number of keyword stripes used by the parallel build. Every keyword belongs to exactly
+	 * one stripe, so stripes can be merged concurrently without any locking.
+	 */
+	private static final int MERGE_STRIPES = 64;
+
+	/**
+	 * Number of documents tokenized per round of the parallel build. Bounds the number of
+	 * per-document keyword tables held in memory at once.
+	 */
+	private static final int PARALLEL_BATCH = 256;
+
 	/**
 	 * Creates the keyWordsIndex and noiseWords hash tables.
 	 */
 	public LittleSearchEngine() {
 		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
 		noiseWords = new HashSet<String>(100,2.0f);
+		documents = new HashSet<String>();
+		documentKeywords = new HashMap<String,DocumentKeywords>();
+	}
+
+	/**
+	 * Keywords of one document, for the forward index, in ascending order so that a keyword can
+	 * be looked up by binary search.
+	 */
+	static final class DocumentKeywords {
+
+		/**
+		 * Keywords of the document, in ascending order.
+		 */
+		final String[] keywords;
+
+		/**
+		 * Occurrence of each keyword in the document, as merged into keywordsIndex.
+		 */
+		final Occurrence[] occurrences;
+
+		/**
+		 * Copies the keywords hash table of a document.
+		 *
+		 * @param kws Keywords hash table for the document
+		 */
+		DocumentKeywords(HashMap<String,Occurrence> kws) {
+			keywords = kws.keySet().toArray(new String[kws.size()]);
+			Arrays.sort(keywords);
+			occurrences = new Occurrence[keywords.length];
+			for (int i = 0; i < keywords.length; i++) {
+				occurrences[i] = kws.get(keywords[i]);
+			}
+		}
+
+		/**
+		 * Returns the occurrence of a keyword in the document.
+		 *
+		 * @param keyword Keyword
+		 * @return Occurrence, null if the keyword does not occur in the document
+		 */
+		Occurrence get(String keyword) {
+			int i = Arrays.binarySearch(keywords, keyword);
+			return i < 0 ? null : occurrences[i];
+		}
+
+		/**
+		 * Returns the keywords hash table of the document.
+		 *
+		 * @return New hash table of the occurrences, by keyword
+		 */
+		HashMap<String,Occurrence> toMap() {
+			HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>(2 * keywords.length);
+			for (int i = 0; i < keywords.length; i++) {
+				kws.put(keywords[i], occurrences[i]);
+			}
+			return kws;
+		}
 	}
 	/**
 	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * in the document. Uses the same rules as the getKeyWord method to separate keywords from
+	 * other words, but scans the mapped bytes of the document directly (see KeywordTokenizer),
+	 * so that only one String is created per distinct word of the document.
 	 *
 	 * @param docFile Name of the document file to be scanned and loaded
 	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
@@ -39,26 +158,14 @@ public class LittleSearchEngine {
 	 */
 	public HashMap<String,Occurrence> loadKeywordsFromDocument(String docFile)
 			throws FileNotFoundException {
-		HashMap<String,Occurrence> temporary = new HashMap<String,Occurrence>(1000);
-		Scanner scanMach= new Scanner(new File(docFile));
-		while (scanMach.hasNext()) {
-			String nextScan = scanMach.next();
-			String scanInput = getKeyword(nextScan);
-			Occurrence newNew = new Occurrence(docFile, 1);
-			if (scanInput == null) {
-				continue;
-			}
-			else {
-				if (temporary.containsKey(scanInput)) {
-					temporary.get(scanInput).frequency++;
-				}
-				else {
-					temporary.put(scanInput, newNew);
-				}
-			}
+		if (metrics == null) {
+			return new KeywordTokenizer(this).tokenize(docFile);
 		}
-		scanMach.close();
-		return temporary;
+		long start = System.nanoTime();
+		KeywordTokenizer tokenizer = new KeywordTokenizer(this);
+		HashMap<String,Occurrence> kws = tokenizer.tokenize(docFile);
+		metrics.recordTokenize(System.nanoTime() - start, tokenizer.tokens, tokenizer.noiseTokens, kws.size());
+		return kws;
 	}
 
 	/**
@@ -71,18 +178,77 @@ public class LittleSearchEngine {
 	 * @param kws Keywords hash table for a document
 	 */
 	public void mergeKeywords(HashMap<String,Occurrence> kws) {
+		Iterator<Occurrence> occs = kws.values().iterator();
+		merge(occs.hasNext() ? occs.next().document : null, kws);
+	}
+
+	/**
+	 * Merges the keywords of a document into keywordsIndex, see mergeKeywords, and records the
+	 * document as indexed, even if it has no keywords.
+	 *
+	 * @param docFile Name of the document file, null if it is not known (then a document without
+	 *        keywords is not recorded)
+	 * @param kws Keywords hash table for the document
+	 */
+	void merge(String docFile, HashMap<String,Occurrence> kws) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		rememberDocument(docFile, kws);
 		for(String setter: kws.keySet()){
-			Occurrence thingo=kws.get(setter);
-			if(!keywordsIndex.containsKey(setter)){
-				ArrayList<Occurrence> list= new ArrayList<Occurrence>();
-				list.add(thingo);
-				keywordsIndex.put(setter, list);}
-			else{
-				keywordsIndex.get(setter).add(thingo);
-				insertLastOccurrence(keywordsIndex.get(setter));}
+			if (mergeOccurrence(keywordsIndex, setter, kws.get(setter)) && termDictionary != null) {
+				termDictionary.add(setter);
+			}
+			if (queryCache != null) {
+				queryCache.invalidate(setter);
+			}
+		}
+		if (metrics != null) {
+			metrics.recordMerge(System.nanoTime() - start, kws.size());
+		}
+	}
+
+	/**
+	 * Records a document as indexed, and its keywords in the forward index, and in the boolean
+	 * index if that is on.
+	 *
+	 * @param docFile Name of the document file, null if it is not known
+	 * @param kws Keywords hash table for the document
+	 */
+	private void rememberDocument(String docFile, HashMap<String,Occurrence> kws) {
+		if (docFile == null) {
+			return;
+		}
+		documents.add(docFile);
+		if (!kws.isEmpty()) {
+			documentKeywords.put(docFile, new DocumentKeywords(kws));
+		}
+		if (booleanIndex != null && !booleanIndex.add(docFile, kws)) {
+			// merged twice without being removed in between, which only a rebuild sorts out
+			booleanIndex = null;
 		}
 	}
 
+	/**
+	 * Merges a single keyword occurrence into the given index, appending it to the keyword's
+	 * occurrence list and moving it into place with insertLastOccurrence.
+	 *
+	 * @param index Index to merge into
+	 * @param keyword Keyword
+	 * @param occ Occurrence of the keyword in one document
+	 * @return True if the keyword is new to the index
+	 */
+	private boolean mergeOccurrence(HashMap<String,ArrayList<Occurrence>> index, String keyword, Occurrence occ) {
+		ArrayList<Occurrence> list = index.get(keyword);
+		if (list == null) {
+			list = new ArrayList<Occurrence>();
+			list.add(occ);
+			index.put(keyword, list);
+			return true;
+		}
+		list.add(occ);
+		insertLastOccurrence(list);
+		return false;
+	}
+
 	/**
 	 * Given a word, returns it as a keyword if it passes the keyword test,
 	 * otherwise returns null. A keyword is any word that, after being stripped of any
@@ -200,18 +366,379 @@ public class LittleSearchEngine {
 	 */
 	public void makeIndex(String docsFile, String noiseWordsFile)
 			throws FileNotFoundException {
+		long start = metrics == null ? 0 : System.nanoTime();
 		Scanner sc = new Scanner(new File(noiseWordsFile));
 		while (sc.hasNext()) {
 			String word = sc.next();
 			noiseWords.add(word);
 		}
+		if (metrics != null) {
+			metrics.recordNoiseLoad(System.nanoTime() - start);
+		}
 		sc = new Scanner(new File(docsFile));
 		while (sc.hasNext()) {
 			String docFile = sc.next();
 			HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
-			mergeKeywords(kws);
+			merge(docFile, kws);
+		}
+		sc.close();
+	}
+
+	/**
+	 * Parallel version of makeIndex. Documents are tokenized concurrently on the given executor,
+	 * and the per-document keyword tables are then merged concurrently, one task per keyword stripe.
+	 * Within a stripe, documents are always merged in the order they are listed in the docs file,
+	 * so every occurrence list ends up exactly as the sequential makeIndex would leave it.
+	 *
+	 * Documents are read and merged in batches of PARALLEL_BATCH. If a document cannot be read,
+	 * the documents of the batches before its own stay indexed, and none of its batch are.
+	 *
+	 * The executor is not shut down by this method.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param executor Executor (for instance a ForkJoinPool) on which to tokenize and merge
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, ExecutorService executor)
+			throws FileNotFoundException {
+		long noiseStart = metrics == null ? 0 : System.nanoTime();
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			noiseWords.add(sc.next());
+		}
+		sc.close();
+		if (metrics != null) {
+			metrics.recordNoiseLoad(System.nanoTime() - noiseStart);
+		}
+		ArrayList<String> docs = new ArrayList<String>();
+		sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
 		}
 		sc.close();
+
+		final ArrayList<HashMap<String,ArrayList<Occurrence>>> stripes =
+				new ArrayList<HashMap<String,ArrayList<Occurrence>>>(MERGE_STRIPES);
+		for (int s = 0; s < MERGE_STRIPES; s++) {
+			stripes.add(new HashMap<String,ArrayList<Occurrence>>());
+		}
+		for (Entry<String,ArrayList<Occurrence>> e : keywordsIndex.entrySet()) {
+			stripes.get(stripeOf(e.getKey())).put(e.getKey(), e.getValue());
+		}
+
+		try {
+			for (int start = 0; start < docs.size(); start += PARALLEL_BATCH) {
+				int end = Math.min(docs.size(), start + PARALLEL_BATCH);
+				ArrayList<Future<ArrayList<HashMap<String,Occurrence>>>> loading =
+						new ArrayList<Future<ArrayList<HashMap<String,Occurrence>>>>(end - start);
+				for (int d = start; d < end; d++) {
+					final String docFile = docs.get(d);
+					loading.add(executor.submit(new Callable<ArrayList<HashMap<String,Occurrence>>>() {
+						public ArrayList<HashMap<String,Occurrence>> call() throws FileNotFoundException {
+							return splitByStripe(loadKeywordsFromDocument(docFile));
+						}
+					}));
+				}
+				final ArrayList<ArrayList<HashMap<String,Occurrence>>> loaded =
+						new ArrayList<ArrayList<HashMap<String,Occurrence>>>(end - start);
+				long batchPostings = 0;
+				for (int d = start; d < end; d++) {
+					loaded.add(await(loading.get(d - start)));
+				}
+				// only once the whole batch has been read, so that a failure leaves none of it recorded
+				for (int d = start; d < end; d++) {
+					HashMap<String,Occurrence> kws = loaded.get(d - start).get(MERGE_STRIPES);
+					rememberDocument(docs.get(d), kws);
+					batchPostings += kws.size();
+				}
+				long mergeStart = metrics == null ? 0 : System.nanoTime();
+
+				ArrayList<Future<Void>> merging = new ArrayList<Future<Void>>(MERGE_STRIPES);
+				for (int s = 0; s < MERGE_STRIPES; s++) {
+					final int stripe = s;
+					merging.add(executor.submit(new Callable<Void>() {
+						public Void call() {
+							HashMap<String,ArrayList<Occurrence>> index = stripes.get(stripe);
+							for (ArrayList<HashMap<String,Occurrence>> doc : loaded) {
+								HashMap<String,Occurrence> kws = doc.get(stripe);
+								if (kws == null) {
+									continue;
+								}
+								for (Entry<String,Occurrence> e : kws.entrySet()) {
+									mergeOccurrence(index, e.getKey(), e.getValue());
+								}
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> f : merging) {
+					await(f);
+				}
+				if (metrics != null) {
+					metrics.recordMerge(System.nanoTime() - mergeStart, batchPostings);
+				}
+			}
+		} finally {
+			// the stripes share their lists with keywordsIndex, but keywords new to the index
+			// are only in the stripes, so they go back even if a batch failed
+			keywordsIndex.clear();
+			if (queryCache != null) {
+				queryCache.clear();
+			}
+			for (HashMap<String,ArrayList<Occurrence>> index : stripes) {
+				keywordsIndex.putAll(index);
+			}
+			if (termDictionary != null) {
+				// the stripes started out with every keyword already indexed, so keywords were only added
+				for (String keyword : keywordsIndex.keySet()) {
+					termDictionary.add(keyword);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the merge stripe that owns the given keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Stripe number, 0..MERGE_STRIPES-1
+	 */
+	private static int stripeOf(String keyword) {
+		return (keyword.hashCode() & 0x7fffffff) % MERGE_STRIPES;
+	}
+
+	/**
+	 * Splits the keywords table of a document into one table per merge stripe. Stripes
+	 * without any keywords of the document are left null.
+	 *
+	 * @param kws Keywords hash table for a document
+	 * @return List of MERGE_STRIPES tables, indexed by stripe, followed by kws itself
+	 */
+	private static ArrayList<HashMap<String,Occurrence>> splitByStripe(HashMap<String,Occurrence> kws) {
+		ArrayList<HashMap<String,Occurrence>> split = new ArrayList<HashMap<String,Occurrence>>(MERGE_STRIPES + 1);
+		for (int s = 0; s < MERGE_STRIPES; s++) {
+			split.add(null);
+		}
+		split.add(kws);
+		for (Entry<String,Occurrence> e : kws.entrySet()) {
+			int stripe = stripeOf(e.getKey());
+			HashMap<String,Occurrence> part = split.get(stripe);
+			if (part == null) {
+				part = new HashMap<String,Occurrence>();
+				split.set(stripe, part);
+			}
+			part.put(e.getKey(), e.getValue());
+		}
+		return split;
+	}
+
+	/**
+	 * Waits for a task of the parallel build, rethrowing its failure.
+	 *
+	 * @param f Task result
+	 * @return Value computed by the task
+	 * @throws FileNotFoundException If the task could not find a document file
+	 */
+	private static <T> T await(Future<T> f) throws FileNotFoundException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building index", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Adds a single document to the index. If the document is already indexed, it is
+	 * replaced instead (see updateDocument). The cost is proportional to the number of
+	 * keywords in the document, not to the size of the index.
+	 *
+	 * @param docFile Name of the document file to be scanned and indexed
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void addDocument(String docFile)
+			throws FileNotFoundException {
+		if (documents.contains(docFile)) {
+			updateDocument(docFile);
+			return;
+		}
+		merge(docFile, loadKeywordsFromDocument(docFile));
+	}
+
+	/**
+	 * Re-scans a document that has changed on disk, and replaces its occurrences in the index.
+	 * The document is scanned before anything is removed, so the index is left untouched if
+	 * the document cannot be read. The new occurrences are merged as if the document had been
+	 * added last, so among equal frequencies it may land in a different place than a full
+	 * rebuild would put it.
+	 *
+	 * @param docFile Name of the document file to be scanned and indexed
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void updateDocument(String docFile)
+			throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loadKeywordsFromDocument(docFile);
+		removeDocument(docFile);
+		merge(docFile, kws);
+	}
+
+	/**
+	 * Removes all occurrences of a document from the index. Keywords that occur in no other
+	 * document are removed from the index altogether. Each occurrence is located through the
+	 * forward index and a binary search on its frequency, so the cost is proportional to the
+	 * number of keywords in the document (plus the length of each run of equal frequencies).
+	 *
+	 * @param docFile Name of the document file
+	 * @return True if the document was indexed, false otherwise
+	 */
+	public boolean removeDocument(String docFile) {
+		return remove(docFile) != null;
+	}
+
+	/**
+	 * Removes all occurrences of a document from the index, see removeDocument.
+	 *
+	 * @param docFile Name of the document file
+	 * @return Occurrences removed, by keyword; null if the document was not indexed
+	 */
+	HashMap<String,Occurrence> remove(String docFile) {
+		if (!documents.remove(docFile)) {
+			return null;
+		}
+		DocumentKeywords entry = documentKeywords.remove(docFile);
+		HashMap<String,Occurrence> kws = entry == null ? new HashMap<String,Occurrence>() : entry.toMap();
+		if (booleanIndex != null) {
+			booleanIndex.remove(docFile, kws);
+		}
+		for (Entry<String,Occurrence> e : kws.entrySet()) {
+			ArrayList<Occurrence> occs = keywordsIndex.get(e.getKey());
+			if (occs == null) {
+				continue;
+			}
+			int i = indexOfOccurrence(occs, e.getValue());
+			if (i >= 0) {
+				occs.remove(i);
+			}
+			if (queryCache != null) {
+				queryCache.invalidate(e.getKey());
+			}
+			if (occs.isEmpty()) {
+				keywordsIndex.remove(e.getKey());
+				if (termDictionary != null) {
+					termDictionary.remove(e.getKey());
+				}
+			}
+		}
+		return kws;
+	}
+
+	/**
+	 * Returns the occurrence of a keyword in a document, by binary search in the document's
+	 * entry of the forward index. The cost does not depend on how many documents the keyword
+	 * occurs in.
+	 *
+	 * @param keyword Keyword
+	 * @param docFile Name of the document file
+	 * @return Occurrence, null if the keyword does not occur in the document
+	 */
+	Occurrence occurrenceOf(String keyword, String docFile) {
+		DocumentKeywords kws = documentKeywords.get(docFile);
+		return kws == null ? null : kws.get(keyword);
+	}
+
+	/**
+	 * Finds an Occurrence object in a list in DESCENDING order of frequencies. Binary search
+	 * finds the run of occurrences with the same frequency, which is then scanned for the object.
+	 *
+	 * @param occs List of Occurrences
+	 * @param occ Occurrence to find (by identity)
+	 * @return Index of occ in the list, -1 if it is not there
+	 */
+	private static int indexOfOccurrence(ArrayList<Occurrence> occs, Occurrence occ) {
+		int lo = 0;
+		int hi = occs.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int f = occs.get(mid).frequency;
+			if (f > occ.frequency) {
+				lo = mid + 1;
+			}
+			else if (f < occ.frequency) {
+				hi = mid - 1;
+			}
+			else {
+				for (int i = mid; i >= 0 && occs.get(i).frequency == f; i--) {
+					if (occs.get(i) == occ) {
+						return i;
+					}
+				}
+				for (int i = mid + 1; i < occs.size() && occs.get(i).frequency == f; i++) {
+					if (occs.get(i) == occ) {
+						return i;
+					}
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Saves the keywords index and noise words in the given directory, in the format that
+	 * MappedIndex opens. See IndexWriter for the format.
+	 *
+	 * @param dir Index directory, created if it does not exist
+	 * @throws IOException If the index cannot be written
+	 */
+	public void saveIndex(File dir)
+			throws IOException {
+		IndexWriter.write(this, dir);
+	}
+
+	/**
+	 * Puts a result cache in front of top5search and topK, or takes it away. Cached queries
+	 * are invalidated whenever the occurrences of one of their keywords change.
+	 *
+	 * @param cache Result cache, null to turn caching off
+	 */
+	public void setQueryCache(QueryCache cache) {
+		queryCache = cache;
+	}
+
+	/**
+	 * Turns positional mode on or off. In positional mode, loadKeywordsFromDocument records the
+	 * token position of every keyword occurrence, and the index is built from PositionalOccurrence
+	 * objects, which phraseSearch and proximitySearch need. Only documents loaded while the mode
+	 * is on have positions, so it should be set before the index is built.
+	 *
+	 * @param positional True to record positions
+	 */
+	public void setPositional(boolean positional) {
+		this.positional = positional;
+	}
+
+	/**
+	 * Turns metrics collection on or off. When off, indexing and searching only pay a null
+	 * check per document, merge and query.
+	 *
+	 * @param metrics Metrics to record into, null to turn metrics off
+	 */
+	public void setMetrics(IndexMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 	/**
@@ -235,142 +762,404 @@ public class LittleSearchEngine {
 	 *         returns null or empty array list.
 	 */
 	public ArrayList<String> top5search(String kw1, String kw2) {
-		ArrayList<Occurrence> kw1Items = keywordsIndex.get(kw1);
-		ArrayList<Occurrence> kw2Items = keywordsIndex.get(kw2);
-		ArrayList<String> finals = new ArrayList<String>(5);
-		if(kw1Items == null && kw2Items == null) {
+		return topK(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", limited to k documents. A document is in the
+	 * result set if any of the keywords occurs in it. Result set is arranged in descending order of
+	 * document frequencies, and a matching document only appears once, at its highest frequency.
+	 *
+	 * Ties in frequency values are broken in favor of the earlier keyword in the list, as in
+	 * top5search, and within one keyword in favor of the earlier occurrence in its list.
+	 *
+	 * The occurrence lists are merged with a priority queue holding the next occurrence of each
+	 * keyword. Since occurrences come off the queue in descending order of frequency, no document
+	 * that has not been seen yet can beat the k-th result once it has been found, so the merge stops
+	 * right there (this is the stopping rule of the threshold algorithm, for max scoring).
+	 *
+	 * @param keywords Keywords, in order of precedence
+	 * @param k Maximum number of results
+	 * @return List of documents in which any keyword occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to k documents. If there are no matches,
+	 *         returns an empty array list.
+	 */
+	public ArrayList<String> topK(List<String> keywords, int k) {
+		if (metrics == null) {
+			return search(keywords, k);
+		}
+		long start = System.nanoTime();
+		ArrayList<String> finals = search(keywords, k);
+		metrics.recordQuery(System.nanoTime() - start);
+		return finals;
+	}
+
+	/**
+	 * Runs a topK query, see topK.
+	 *
+	 * @param keywords Keywords, in order of precedence
+	 * @param k Maximum number of results
+	 * @return List of documents in which any keyword occurs, in descending order of frequencies
+	 */
+	private ArrayList<String> search(List<String> keywords, int k) {
+		ArrayList<String> finals = new ArrayList<String>(Math.max(0, Math.min(k, 128)));
+		if (k <= 0) {
 			return finals;
 		}
-		int firstInd = 0;
-		int secondInd = 0;
-		int counter = 0;
-		if (kw1Items == null && kw2Items != null) {
-			kw2Items.trimToSize();
-			while (secondInd < kw2Items.size() && counter < 5) {
-
-				if (finals.isEmpty()) {
-					finals.add(kw2Items.get(secondInd).document);
-					counter++;
-					secondInd++;
-				}
-				else if(finals.contains(kw2Items.get(secondInd).document)) {
-					secondInd++;
-					continue;
-				}
-				else {
-					finals.add(kw2Items.get(secondInd).document);
-					counter++;
-					secondInd++;
-				}
+		if (queryCache != null) {
+			ArrayList<String> cached = queryCache.get(keywords, k);
+			if (cached != null) {
+				return cached;
 			}
 		}
+		for (Occurrence occ : topOccurrences(keywords, k, false, null)) {
+			finals.add(occ.document);
+		}
+		if (queryCache != null) {
+			queryCache.put(keywords, k, finals);
+		}
+		return finals;
+	}
 
-		if (kw2Items == null && kw1Items != null) {
-			kw1Items.trimToSize();
-			while (firstInd < kw1Items.size() && counter < 5) {
-				if (finals.isEmpty()) {
-					finals.add(kw1Items.get(firstInd).document);
-					counter++;
-					firstInd++;
-				}
-				else if(finals.contains(kw1Items.get(firstInd).document)) {
-					firstInd++;
-					continue;
-				}
-				else {
-					finals.add(kw1Items.get(firstInd).document);
-					counter++;
-					firstInd++;
-				}
+	/**
+	 * Merges the occurrence lists of the keywords, see topK, and returns the occurrence that
+	 * ranks each document of the result: its first occurrence off the queue, which has its
+	 * highest frequency and, among keywords with that frequency, the earliest keyword.
+	 *
+	 * @param keywords Keywords, in order of precedence
+	 * @param k Maximum number of results
+	 * @param ties True to go on past the k-th document with the documents that tie with it,
+	 *        those ranked by the same frequency of the same keyword
+	 * @param keywordOf If not null, gets the index of the keyword of each returned occurrence
+	 * @return Ranking occurrences, in the order of the result
+	 */
+	ArrayList<Occurrence> topOccurrences(List<String> keywords, int k, boolean ties, ArrayList<Integer> keywordOf) {
+		ArrayList<Occurrence> finals = new ArrayList<Occurrence>(Math.max(0, Math.min(k, 128)));
+		if (k <= 0) {
+			return finals;
+		}
+		final int n = keywords.size();
+		final ArrayList<ArrayList<Occurrence>> lists = new ArrayList<ArrayList<Occurrence>>(n);
+		final int[] cursors = new int[n];
+		PriorityQueue<Integer> heads = new PriorityQueue<Integer>(Math.max(1, n), new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int fa = lists.get(a).get(cursors[a]).frequency;
+				int fb = lists.get(b).get(cursors[b]).frequency;
+				return fa != fb ? fb - fa : a - b;
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			ArrayList<Occurrence> occs = keywordsIndex.get(keywords.get(i));
+			lists.add(occs);
+			if (occs != null && !occs.isEmpty()) {
+				heads.add(i);
 			}
 		}
-		if(kw2Items != null && kw1Items != null) {
-			kw1Items.trimToSize();
-			kw2Items.trimToSize();
-			while (counter < 5) {
-				if (firstInd >= kw1Items.size() && secondInd >= kw2Items.size()) {
-					break;
-				}
-				else if (firstInd < kw1Items.size() && secondInd >= kw2Items.size()) {
-					if (finals.isEmpty()) {
-						finals.add(kw1Items.get(firstInd).document);
-						counter++;
-						firstInd++;
-					}
-					else if(finals.contains(kw1Items.get(firstInd).document)) {
-						firstInd++;
-						continue;
-					}
-					else {
-						finals.add(kw1Items.get(firstInd).document);
-						counter++;
-						firstInd++;
-					}
-				}
-				else if (firstInd >= kw1Items.size() && secondInd < kw2Items.size()) {
-					if (finals.isEmpty()) {
-						finals.add(kw2Items.get(secondInd).document);
-						counter++;
-						secondInd++;
-					}
-					else if(finals.contains(kw2Items.get(secondInd).document)) {
-						secondInd++;
-						continue;
-					}
-					else {
-						finals.add(kw2Items.get(secondInd).document);
-						counter++;
-						secondInd++;
-					}
-				}
-				else if (firstInd < kw1Items.size() && secondInd < kw2Items.size()) {
-					if (kw1Items.get(firstInd).frequency >= kw2Items.get(secondInd).frequency) {
-						if (finals.isEmpty()) {
-							finals.add(kw1Items.get(firstInd).document);
-							counter++;
-							firstInd++;
-						}
-						else if(finals.contains(kw1Items.get(firstInd).document)) {
-							firstInd++;
-							continue;
-						}
-						else {
-							finals.add(kw1Items.get(firstInd).document);
-							counter++;
-							firstInd++;
-						}
-					}
-				
-					else {
-						if (finals.isEmpty()) {
-							finals.add(kw2Items.get(secondInd).document);
-							counter++;
-							secondInd++;
-						}
-						else if(finals.contains(kw2Items.get(secondInd).document)) {
-							secondInd++;
-							continue;
-						}
-						else {
-							finals.add(kw2Items.get(secondInd).document);
-							counter++;
-							secondInd++;
-						}
-					}
-					
-				}
-				else {
-					System.out.println("there was an error somewhere");
-					break;
+
+		HashSet<String> seen = new HashSet<String>(2 * Math.min(k, 1024));
+		int lastKeyword = -1;
+		while (!heads.isEmpty()) {
+			int i = heads.peek();
+			ArrayList<Occurrence> occs = lists.get(i);
+			Occurrence occ = occs.get(cursors[i]);
+			if (finals.size() >= k
+					&& (!ties || i != lastKeyword || occ.frequency != finals.get(finals.size() - 1).frequency)) {
+				break;
+			}
+			heads.poll();
+			if (seen.add(occ.document)) {
+				finals.add(occ);
+				lastKeyword = i;
+				if (keywordOf != null) {
+					keywordOf.add(i);
 				}
 			}
+			if (++cursors[i] < occs.size()) {
+				heads.add(i);
+			}
 		}
 		return finals;
+	}
+
+	/**
+	 * Returns the sorted dictionary of all keywords, building it on first use.
+	 *
+	 * @return Term dictionary
+	 */
+	public TermDictionary termDictionary() {
+		if (termDictionary == null) {
+			termDictionary = new TermDictionary(keywordsIndex.keySet());
+		}
+		return termDictionary;
+	}
 
+	/**
+	 * Expands a wildcard pattern into the keywords it matches, in ascending order. '*' matches
+	 * any sequence of characters and '?' any single character; the pattern is lower-cased, like
+	 * keywords. A pattern without wildcards expands to itself if it is a keyword.
+	 *
+	 * @param pattern Pattern, for instance "deep*"
+	 * @param maxExpansions Maximum number of keywords returned
+	 * @return Matching keywords, at most maxExpansions of them
+	 */
+	public ArrayList<String> expandKeyword(String pattern, int maxExpansions) {
+		return termDictionary().expand(pattern.toLowerCase(), maxExpansions);
 	}
 
+	/**
+	 * Search result for "pattern1 or pattern2 or ... or patternN", limited to k documents, where
+	 * each pattern may contain the wildcards of expandKeyword. Every pattern is expanded into at
+	 * most maxExpansions keywords, and the keywords are searched as by topK: earlier patterns take
+	 * precedence over later ones, and within a pattern keywords take precedence in ascending order.
+	 *
+	 * @param patterns Keyword patterns, in order of precedence
+	 * @param k Maximum number of results
+	 * @param maxExpansions Maximum number of keywords each pattern expands to
+	 * @return List of documents in which any matching keyword occurs, arranged in descending order
+	 *         of frequencies. The result size is limited to k documents. If there are no matches,
+	 *         returns an empty array list.
+	 */
+	public ArrayList<String> wildcardSearch(List<String> patterns, int k, int maxExpansions) {
+		ArrayList<String> keywords = new ArrayList<String>();
+		HashSet<String> added = new HashSet<String>();
+		for (String pattern : patterns) {
+			for (String keyword : expandKeyword(pattern, maxExpansions)) {
+				if (added.add(keyword)) {
+					keywords.add(keyword);
+				}
+			}
+		}
+		return topK(keywords, k);
+	}
 
+	/**
+	 * Search result for a list of keyword patterns, each expanded into at most MAX_EXPANSIONS
+	 * keywords. See wildcardSearch.
+	 *
+	 * @param patterns Keyword patterns, in order of precedence
+	 * @param k Maximum number of results
+	 * @return List of documents in which any matching keyword occurs, arranged in descending order
+	 *         of frequencies. The result size is limited to k documents.
+	 */
+	public ArrayList<String> wildcardSearch(List<String> patterns, int k) {
+		return wildcardSearch(patterns, k, MAX_EXPANSIONS);
+	}
 
+	/**
+	 * Search result for a boolean query, such as "(deep OR machine) AND learning AND NOT neural".
+	 * Operators are AND, OR and NOT, in upper case, with parentheses for grouping; adjacent words
+	 * are ANDed. A document matches if it satisfies the query, and matching documents are ranked
+	 * as topK would rank them for the keywords of the query that are not under a NOT, in the
+	 * order they first appear. See BooleanIndex.
+	 *
+	 * The document-ordered postings that the query runs on are built on the first boolean query,
+	 * at a cost proportional to the size of the index, and then kept up to date as documents are
+	 * added and removed.
+	 *
+	 * @param query Boolean query
+	 * @param k Maximum number of results
+	 * @return List of matching documents, arranged in descending order of frequencies as by topK,
+	 *         followed by documents that match without any keyword outside a NOT, alphabetically.
+	 *         The result size is limited to k documents. If there are no matches, returns an
+	 *         empty array list.
+	 * @throws IllegalArgumentException If the query is malformed
+	 */
+	public ArrayList<String> booleanSearch(String query, int k) {
+		if (booleanIndex == null) {
+			booleanIndex = new BooleanIndex(this);
+		}
+		return booleanIndex.search(query, k);
+	}
 
-}
+	/**
+	 * Search result for an exact phrase: documents in which the words of the phrase occur one
+	 * right after the other. Words are turned into keywords by getKeyword; words that are not
+	 * keywords, such as noise words, are not indexed, so they match any word at their place in
+	 * the phrase; at the start or end of the phrase they are ignored. Documents are ranked by
+	 * the number of times the phrase occurs, in descending order, ties in favor of the document
+	 * that comes first in the occurrence list of the rarest keyword of the phrase.
+	 *
+	 * Candidate documents are those of the rarest keyword, and the other keywords of a candidate
+	 * are looked up in its forward index entry with occurrenceOf, so the occurrence lists of the
+	 * other keywords are never scanned, however common they are. Within a document, the possible
+	 * starts of the phrase are the positions of the rarest keyword, and they are narrowed down
+	 * keyword by keyword with a galloping intersection, which costs O(m log(n / m)) for m starts
+	 * and n positions.
+	 *
+	 * @param phrase Phrase, words separated by whitespace
+	 * @param k Maximum number of results
+	 * @return List of documents in which the phrase occurs, in descending order of the number of
+	 *         occurrences. The result size is limited to k documents. If there are no matches,
+	 *         returns an empty array list.
+	 * @throws IllegalStateException If the index was not built in positional mode
+	 */
+	public ArrayList<String> phraseSearch(String phrase, int k) {
+		String[] words = phrase.trim().split("\\s+");
+		ArrayList<String> keywords = new ArrayList<String>(words.length);
+		ArrayList<Integer> offsets = new ArrayList<Integer>(words.length);
+		int rarest = -1;
+		for (int i = 0; i < words.length; i++) {
+			String keyword = words[i].isEmpty() ? null : getKeyword(words[i]);
+			if (keyword == null) {
+				continue;
+			}
+			ArrayList<Occurrence> occs = keywordsIndex.get(keyword);
+			if (occs == null) {
+				return new ArrayList<String>();
+			}
+			if (rarest < 0 || occs.size() < keywordsIndex.get(keywords.get(rarest)).size()) {
+				rarest = keywords.size();
+			}
+			keywords.add(keyword);
+			offsets.add(i);
+		}
+		ArrayList<String> docs = new ArrayList<String>();
+		ArrayList<Integer> scores = new ArrayList<Integer>();
+		if (rarest < 0) {
+			return docs;
+		}
+		for (Occurrence occ : keywordsIndex.get(keywords.get(rarest))) {
+			int[] starts = positionsOf(occ);
+			int n = starts.length;
+			for (int i = 0; i < n; i++) {
+				starts[i] -= offsets.get(rarest);
+			}
+			for (int j = 0; j < keywords.size() && n > 0; j++) {
+				if (j != rarest) {
+					Occurrence other = occurrenceOf(keywords.get(j), occ.document);
+					n = other == null ? 0 : intersect(starts, n, positionsOf(other), offsets.get(j));
+				}
+			}
+			if (n > 0) {
+				docs.add(occ.document);
+				scores.add(n);
+			}
+		}
+		return rank(docs, scores, k);
+	}
+
+	/**
+	 * Search result for "kw1 within distance words of kw2": documents in which an occurrence of
+	 * one keyword is at most distance words away from an occurrence of the other, in either order.
+	 * Documents are ranked by the number of such occurrences of the less frequent keyword, in
+	 * descending order, ties in favor of the document that comes first in the occurrence list of
+	 * the keyword that occurs in fewer documents.
+	 *
+	 * Candidate documents are those of the keyword that occurs in fewer documents, and the other
+	 * keyword of a candidate is looked up with occurrenceOf. For each position of one keyword,
+	 * the nearest positions of the other are found by galloping forward from where the previous
+	 * search stopped.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @param distance Largest number of words from one keyword to the other; 1 for adjacent words
+	 * @param k Maximum number of results
+	 * @return List of documents in which the keywords occur within distance words, in descending
+	 *         order of the number of such occurrences. The result size is limited to k documents.
+	 *         If there are no matches, returns an empty array list.
+	 * @throws IllegalStateException If the index was not built in positional mode
+	 */
+	public ArrayList<String> proximitySearch(String kw1, String kw2, int distance, int k) {
+		ArrayList<String> docs = new ArrayList<String>();
+		ArrayList<Integer> scores = new ArrayList<Integer>();
+		ArrayList<Occurrence> occs1 = keywordsIndex.get(kw1);
+		ArrayList<Occurrence> occs2 = keywordsIndex.get(kw2);
+		if (occs1 == null || occs2 == null || distance < 1) {
+			return docs;
+		}
+		if (occs2.size() < occs1.size()) {
+			String kw = kw1;
+			kw1 = kw2;
+			kw2 = kw;
+			occs1 = occs2;
+		}
+		for (Occurrence occ : occs1) {
+			Occurrence other = occurrenceOf(kw2, occ.document);
+			if (other == null) {
+				continue;
+			}
+			int[] a = positionsOf(occ);
+			int[] b = positionsOf(other);
+			if (b.length < a.length) {
+				int[] t = a;
+				a = b;
+				b = t;
+			}
+			int n = 0;
+			for (int i = 0, j = 0; i < a.length; i++) {
+				j = PositionalOccurrence.gallop(b, j, b.length, a[i] - distance);
+				int near = j < b.length && b[j] == a[i] ? j + 1 : j;
+				if (near < b.length && b[near] <= a[i] + distance) {
+					n++;
+				}
+			}
+			if (n > 0) {
+				docs.add(occ.document);
+				scores.add(n);
+			}
+		}
+		return rank(docs, scores, k);
+	}
 
+	/**
+	 * Returns the positions of an occurrence.
+	 *
+	 * @param occ Occurrence
+	 * @return Positions, in ascending order
+	 * @throws IllegalStateException If the occurrence has no positions
+	 */
+	private static int[] positionsOf(Occurrence occ) {
+		if (!(occ instanceof PositionalOccurrence)) {
+			throw new IllegalStateException("Document " + occ.document + " was not indexed in positional mode");
+		}
+		return ((PositionalOccurrence)occ).positions();
+	}
+
+	/**
+	 * Keeps the values v of a sorted array for which v + shift is also in another sorted array.
+	 * The other array is searched by galloping, from where the previous search stopped.
+	 *
+	 * @param values Sorted values, compacted in place
+	 * @param n Number of values
+	 * @param positions Sorted positions
+	 * @param shift Shift applied to each value before it is looked up
+	 * @return Number of values kept
+	 */
+	private static int intersect(int[] values, int n, int[] positions, int shift) {
+		int kept = 0;
+		for (int i = 0, j = 0; i < n && j < positions.length; i++) {
+			j = PositionalOccurrence.gallop(positions, j, positions.length, values[i] + shift);
+			if (j < positions.length && positions[j] == values[i] + shift) {
+				values[kept++] = values[i];
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Returns the k documents with the highest scores, ties in favor of the earlier document.
+	 *
+	 * @param docs Documents
+	 * @param scores Scores, parallel to docs
+	 * @param k Maximum number of results
+	 * @return Documents in descending order of scores
+	 */
+	private static ArrayList<String> rank(ArrayList<String> docs, final ArrayList<Integer> scores, int k) {
+		Integer[] order = new Integer[docs.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int sa = scores.get(a);
+				int sb = scores.get(b);
+				return sa != sb ? sb - sa : a - b;
+			}
+		});
+		ArrayList<String> finals = new ArrayList<String>(Math.max(0, Math.min(k, order.length)));
+		for (int i = 0; i < order.length && finals.size() < k; i++) {
+			finals.add(docs.get(order[i]));
+		}
+		return finals;
+	}
+}
@@ -0,0 +1,365 @@
+package lse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+/**
+ * This class serves searches straight from an index written by IndexWriter. The index files
+ * are memory-mapped, so opening an index costs no more than validating its headers and
+ * checksums, and nothing is re-tokenized. Keywords are found by binary search in the term
+ * dictionary, and only the postings and document names a search actually needs are read.
+ *
+ * An index is rejected with an IOException if any file has the wrong magic number, format
+ * version or kind, if the files come from different builds, or if a checksum does not match.
+ *
+ * Each file is mapped as a single buffer, so no index file may exceed 2GB.
+ */
+public class MappedIndex {
+
+	/**
+	 * Document table.
+	 */
+	private final ByteBuffer documents;
+
+	/**
+	 * Term dictionary.
+	 */
+	private final ByteBuffer terms;
+
+	/**
+	 * Postings.
+	 */
+	private final ByteBuffer postings;
+
+	/**
+	 * Number of documents.
+	 */
+	private final int documentCount;
+
+	/**
+	 * Number of terms.
+	 */
+	private final int termCount;
+
+	/**
+	 * File offset of the document offset table.
+	 */
+	private final int documentTable;
+
+	/**
+	 * File offset of the term offset table.
+	 */
+	private final int termTable;
+
+	/**
+	 * Noise words of the index.
+	 */
+	private final HashSet<String> noiseWords;
+
+	/**
+	 * Maps and validates the files of an index.
+	 *
+	 * @param documents Document table
+	 * @param noise Noise words
+	 * @param terms Term dictionary
+	 * @param postings Postings
+	 * @throws IOException If the files do not form a valid index
+	 */
+	private MappedIndex(ByteBuffer documents, ByteBuffer noise, ByteBuffer terms, ByteBuffer postings)
+			throws IOException {
+		long buildId = documents.getLong(16);
+		ByteBuffer[] files = { null, documents, noise, terms, postings };
+		for (int kind = IndexWriter.DOCUMENTS; kind <= IndexWriter.POSTINGS; kind++) {
+			validate(files[kind], kind, buildId);
+		}
+		this.documents = documents;
+		this.terms = terms;
+		this.postings = postings;
+		documentCount = (int)documents.getLong(24);
+		documentTable = (int)documents.getLong(32);
+		termCount = (int)terms.getLong(24);
+		termTable = (int)terms.getLong(32);
+
+		noiseWords = new HashSet<String>();
+		int noiseCount = (int)noise.getLong(24);
+		int noiseTable = (int)noise.getLong(32);
+		for (int i = 0; i < noiseCount; i++) {
+			noiseWords.add(readString(noise, (int)noise.getLong(noiseTable + 8 * i)));
+		}
+	}
+
+	/**
+	 * Opens the index stored in the given directory.
+	 *
+	 * @param dir Index directory
+	 * @return Index ready for searching
+	 * @throws IOException If the index is missing, stale or corrupted
+	 */
+	public static MappedIndex open(File dir)
+			throws IOException {
+		return new MappedIndex(map(dir, IndexWriter.DOCUMENTS), map(dir, IndexWriter.NOISE),
+				map(dir, IndexWriter.TERMS), map(dir, IndexWriter.POSTINGS));
+	}
+
+	/**
+	 * Maps one file of an index.
+	 *
+	 * @param dir Index directory
+	 * @param kind File kind
+	 * @return Read-only buffer over the whole file
+	 * @throws IOException If the file cannot be mapped
+	 */
+	private static MappedByteBuffer map(File dir, int kind)
+			throws IOException {
+		File file = new File(dir, IndexWriter.FILE_NAMES[kind]);
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map");
+			}
+			if (channel.size() < IndexWriter.HEADER_BYTES) {
+				throw new IOException(file + " is truncated");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks the header and checksum of an index file.
+	 *
+	 * @param buf Mapped file
+	 * @param kind Expected file kind
+	 * @param buildId Expected build id
+	 * @throws IOException If the file is not valid
+	 */
+	private static void validate(ByteBuffer buf, int kind, long buildId)
+			throws IOException {
+		String name = IndexWriter.FILE_NAMES[kind];
+		if (buf.getInt(0) != IndexWriter.MAGIC) {
+			throw new IOException(name + " is not an index file");
+		}
+		if (buf.getInt(4) != IndexWriter.FORMAT_VERSION) {
+			throw new IOException(name + " has format version " + buf.getInt(4)
+					+ ", expected " + IndexWriter.FORMAT_VERSION);
+		}
+		if (buf.getInt(8) != kind) {
+			throw new IOException(name + " has the wrong file kind");
+		}
+		if (buf.getLong(16) != buildId) {
+			throw new IOException(name + " belongs to a different index build");
+		}
+		ByteBuffer body = buf.duplicate();
+		body.position(IndexWriter.HEADER_BYTES);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if (crc.getValue() != buf.getLong(40)) {
+			throw new IOException(name + " is corrupted (checksum mismatch)");
+		}
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string.
+	 *
+	 * @param buf Mapped file
+	 * @param offset File offset of the string
+	 * @return String
+	 */
+	private static String readString(ByteBuffer buf, int offset) {
+		byte[] bytes = new byte[buf.getInt(offset)];
+		ByteBuffer src = buf.duplicate();
+		src.position(offset + 4);
+		src.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the number of documents in the index.
+	 *
+	 * @return Number of documents
+	 */
+	public int documentCount() {
+		return documentCount;
+	}
+
+	/**
+	 * Returns the number of keywords in the index.
+	 *
+	 * @return Number of keywords
+	 */
+	public int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns the name of the document with the given id.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	public String documentName(int id) {
+		return readString(documents, (int)documents.getLong(documentTable + 8 * id));
+	}
+
+	/**
+	 * Returns the noise words the index was built with.
+	 *
+	 * @return Noise words
+	 */
+	public HashSet<String> noiseWords() {
+		return noiseWords;
+	}
+
+	/**
+	 * Finds a keyword in the term dictionary.
+	 *
+	 * @param keyword Keyword
+	 * @return Term number, -1 if the keyword is not indexed
+	 */
+	public int find(String keyword) {
+		if (keyword == null) {
+			return -1;
+		}
+		byte[] key = keyword.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = termCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compareTerm(termOffset(mid), key);
+			if (c < 0) {
+				lo = mid + 1;
+			}
+			else if (c > 0) {
+				hi = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the file offset of a term's dictionary entry.
+	 *
+	 * @param term Term number
+	 * @return File offset
+	 */
+	private int termOffset(int term) {
+		return (int)terms.getLong(termTable + 8 * term);
+	}
+
+	/**
+	 * Compares a dictionary term with a key, as unsigned bytes.
+	 *
+	 * @param offset File offset of the term's entry
+	 * @param key Key bytes
+	 * @return Negative, zero or positive, as the term is less than, equal to or greater than key
+	 */
+	private int compareTerm(int offset, byte[] key) {
+		int len = terms.getInt(offset);
+		int n = Math.min(len, key.length);
+		for (int i = 0; i < n; i++) {
+			int c = (terms.get(offset + 4 + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - key.length;
+	}
+
+	/**
+	 * Returns the number of postings of a term.
+	 *
+	 * @param term Term number
+	 * @return Number of postings
+	 */
+	public int postingCount(int term) {
+		int offset = termOffset(term);
+		return terms.getInt(offset + 4 + terms.getInt(offset) + 8);
+	}
+
+	/**
+	 * Returns the byte offset of a term's first posting in the postings file.
+	 *
+	 * @param term Term number
+	 * @return File offset
+	 */
+	int postingsStart(int term) {
+		int offset = termOffset(term);
+		return IndexWriter.HEADER_BYTES + 8 * (int)terms.getLong(offset + 4 + terms.getInt(offset));
+	}
+
+	/**
+	 * Returns the document id of a posting.
+	 *
+	 * @param start Byte offset of the term's first posting
+	 * @param i Index of the posting
+	 * @return Document id
+	 */
+	int document(int start, int i) {
+		return postings.getInt(start + 8 * i);
+	}
+
+	/**
+	 * Returns the frequency of a posting.
+	 *
+	 * @param start Byte offset of the term's first posting
+	 * @param i Index of the posting
+	 * @return Frequency
+	 */
+	int frequency(int start, int i) {
+		return postings.getInt(start + 8 * i + 4);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", with the same result as LittleSearchEngine.top5search
+	 * on the index that was written.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies, ties broken in favor of kw1. The result size is limited to 5 documents.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		int t1 = find(kw1);
+		int t2 = find(kw2);
+		int size1 = t1 < 0 ? 0 : postingCount(t1);
+		int size2 = t2 < 0 ? 0 : postingCount(t2);
+		int start1 = t1 < 0 ? 0 : postingsStart(t1);
+		int start2 = t2 < 0 ? 0 : postingsStart(t2);
+		ArrayList<String> finals = new ArrayList<String>(5);
+		int[] seen = new int[5];
+		int i = 0;
+		int j = 0;
+		while (finals.size() < 5 && (i < size1 || j < size2)) {
+			int doc;
+			if (j >= size2 || (i < size1 && frequency(start1, i) >= frequency(start2, j))) {
+				doc = document(start1, i++);
+			}
+			else {
+				doc = document(start2, j++);
+			}
+			boolean dup = false;
+			for (int s = 0; s < finals.size(); s++) {
+				if (seen[s] == doc) {
+					dup = true;
+					break;
+				}
+			}
+			if (!dup) {
+				seen[finals.size()] = doc;
+				finals.add(documentName(doc));
+			}
+		}
+		return finals;
+	}
+}
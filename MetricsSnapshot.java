@@ -0,0 +1,186 @@
+package lse;
+
+/**
+ * This class is a point-in-time copy of the counters, phase timers and query latency
+ * histogram of an IndexMetrics instance. All times are in nanoseconds.
+ */
+public class MetricsSnapshot {
+
+	/**
+	 * Counters.
+	 */
+	final long documents, tokens, noiseTokens, keywords, postings;
+
+	/**
+	 * Total time spent in each phase of indexing.
+	 */
+	final long tokenizeNanos, mergeNanos, noiseLoadNanos;
+
+	/**
+	 * Number of queries in each latency bucket, see IndexMetrics.bucketOf.
+	 */
+	final long[] latencyBuckets;
+
+	/**
+	 * Number of queries, sum and maximum of their latencies.
+	 */
+	final long queries, latencySum, latencyMax;
+
+	/**
+	 * Initializes a snapshot.
+	 */
+	MetricsSnapshot(long documents, long tokens, long noiseTokens, long keywords, long postings,
+			long tokenizeNanos, long mergeNanos, long noiseLoadNanos,
+			long[] latencyBuckets, long latencySum, long latencyMax) {
+		this.documents = documents;
+		this.tokens = tokens;
+		this.noiseTokens = noiseTokens;
+		this.keywords = keywords;
+		this.postings = postings;
+		this.tokenizeNanos = tokenizeNanos;
+		this.mergeNanos = mergeNanos;
+		this.noiseLoadNanos = noiseLoadNanos;
+		this.latencyBuckets = latencyBuckets;
+		long count = 0;
+		for (long c : latencyBuckets) {
+			count += c;
+		}
+		this.queries = count;
+		this.latencySum = latencySum;
+		this.latencyMax = latencyMax;
+	}
+
+	/**
+	 * Returns the number of documents scanned.
+	 *
+	 * @return Document count
+	 */
+	public long documents() {
+		return documents;
+	}
+
+	/**
+	 * Returns the number of words scanned, keywords or not.
+	 *
+	 * @return Token count
+	 */
+	public long tokens() {
+		return tokens;
+	}
+
+	/**
+	 * Returns the number of words dropped as noise words.
+	 *
+	 * @return Noise token count
+	 */
+	public long noiseTokens() {
+		return noiseTokens;
+	}
+
+	/**
+	 * Returns the number of distinct keywords found, summed over documents.
+	 *
+	 * @return Keyword count
+	 */
+	public long keywords() {
+		return keywords;
+	}
+
+	/**
+	 * Returns the number of occurrences merged into the index.
+	 *
+	 * @return Posting count
+	 */
+	public long postings() {
+		return postings;
+	}
+
+	/**
+	 * Returns the total time spent scanning documents.
+	 *
+	 * @return Nanoseconds
+	 */
+	public long tokenizeNanos() {
+		return tokenizeNanos;
+	}
+
+	/**
+	 * Returns the total time spent merging keywords into the index.
+	 *
+	 * @return Nanoseconds
+	 */
+	public long mergeNanos() {
+		return mergeNanos;
+	}
+
+	/**
+	 * Returns the total time spent loading noise-word files. The time spent dropping noise words
+	 * from documents is part of tokenizeNanos.
+	 *
+	 * @return Nanoseconds
+	 */
+	public long noiseLoadNanos() {
+		return noiseLoadNanos;
+	}
+
+	/**
+	 * Returns the number of queries timed.
+	 *
+	 * @return Query count
+	 */
+	public long queries() {
+		return queries;
+	}
+
+	/**
+	 * Returns the mean query latency.
+	 *
+	 * @return Nanoseconds, 0 if there were no queries
+	 */
+	public long latencyMean() {
+		return queries == 0 ? 0 : latencySum / queries;
+	}
+
+	/**
+	 * Returns the largest query latency.
+	 *
+	 * @return Nanoseconds
+	 */
+	public long latencyMax() {
+		return latencyMax;
+	}
+
+	/**
+	 * Returns a query latency percentile. The result is the upper bound of the histogram
+	 * bucket holding the percentile, so it is at most about 6% above the true value.
+	 *
+	 * @param percentile Percentile, between 0 and 100
+	 * @return Nanoseconds, 0 if there were no queries
+	 */
+	public long latencyPercentile(double percentile) {
+		if (queries == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(percentile / 100 * queries);
+		long seen = 0;
+		for (int b = 0; b < latencyBuckets.length; b++) {
+			seen += latencyBuckets[b];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(IndexMetrics.bucketLimit(b), latencyMax);
+			}
+		}
+		return latencyMax;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "documents=" + documents + " tokens=" + tokens + " noiseTokens=" + noiseTokens
+				+ " keywords=" + keywords + " postings=" + postings
+				+ " tokenizeMs=" + tokenizeNanos / 1000000 + " mergeMs=" + mergeNanos / 1000000
+				+ " noiseLoadMs=" + noiseLoadNanos / 1000000 + " queries=" + queries
+				+ " p50us=" + latencyPercentile(50) / 1000 + " p99us=" + latencyPercentile(99) / 1000
+				+ " maxUs=" + latencyMax / 1000;
+	}
+}
@@ -0,0 +1,307 @@
+package poly;
+
+import java.util.Arrays;
+
+/**
+ * This class evaluates a polynomial at many points, and interpolates a polynomial through
+ * many points, with subproduct and remainder trees.
+ *
+ * The subproduct tree over points x_0 .. x_n-1 holds, for each node, the product of (x - x_i)
+ * over the points of its range; it is built bottom-up with FastMultiply. Evaluation reduces the
+ * polynomial modulo the root, then modulo each child, down to blocks of LEAF_SIZE points where
+ * the remainders are short and are evaluated by Horner's rule. With the O(M(n)) division of
+ * PolynomialAlgebra, the tree costs O(M(n) log n) arithmetic operations for n points, against
+ * O(n^2) for one Horner evaluation per point; whether it is used, and so what a call costs,
+ * depends on the points, as below.
+ *
+ * Interpolation evaluates the derivative M' of the root product at every point, which gives
+ * the Lagrange weights 1 / M'(x_i), and sums y_i / M'(x_i) * M(x) / (x - x_i) up the tree.
+ *
+ * In floating point, remainder trees are only as well conditioned as the subproducts, whose
+ * coefficients grow quickly for many points spread along the real line; they work well when
+ * the points are small compared to 1; for a few hundred points spread over [-1, 1], the root
+ * product already overflows. evaluate therefore builds the subproducts first, and goes straight
+ * to Horner's rule if the root has a coefficient that is not finite or larger than
+ * MAX_PRODUCT. Otherwise it descends the tree, checks a sample of the results against Horner's
+ * rule, and falls back to Horner's rule at every point if any of them is off, which makes a
+ * call that gets past the first check but is still ill-conditioned cost the tree on top of
+ * Horner's rule. Interpolation has no
+ * such fallback: monomial coefficients through more than a dozen or so real points are
+ * ill-conditioned whatever the algorithm, so results should be checked by the caller.
+ */
+public class MultipointEvaluation {
+
+	/**
+	 * Blocks of at most this many points are handled directly.
+	 */
+	static final int LEAF_SIZE = 32;
+
+	/**
+	 * Fewer points, or polynomials of lower degree, are evaluated by Horner's rule.
+	 */
+	static final int TREE_THRESHOLD = 256;
+
+	/**
+	 * Number of results checked against Horner's rule.
+	 */
+	static final int SAMPLES = 16;
+
+	/**
+	 * Relative error allowed in a checked result.
+	 */
+	static final double TOLERANCE = 1e-6;
+
+	/**
+	 * Largest coefficient of the product of all points for which evaluate tries the remainder
+	 * tree; the tree's errors grow with it.
+	 */
+	static final double MAX_PRODUCT = 1e6;
+
+	/**
+	 * Points of the tree.
+	 */
+	final double[] points;
+
+	/**
+	 * Subproducts, in heap order: node 1 covers all points, node k has children 2k and 2k+1.
+	 */
+	final double[][] tree;
+
+	/**
+	 * Builds the subproduct tree over a set of points.
+	 *
+	 * @param points Points; the array is not copied, and must not be changed afterwards
+	 */
+	public MultipointEvaluation(double[] points) {
+		this.points = points;
+		int leaves = Math.max(1, (points.length + LEAF_SIZE - 1) / LEAF_SIZE);
+		tree = new double[4 * leaves][];
+		if (points.length > 0) {
+			build(1, 0, points.length);
+		}
+	}
+
+	/**
+	 * Builds the subtree of a node.
+	 *
+	 * @param node Node index
+	 * @param lo First point of the node
+	 * @param hi Last point of the node, exclusive
+	 */
+	private void build(int node, int lo, int hi) {
+		if (hi - lo <= LEAF_SIZE) {
+			double[] product = {1};
+			for (int i = lo; i < hi; i++) {
+				product = DensePolynomial.multiply(product, new double[] {-points[i], 1});
+			}
+			tree[node] = product;
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		build(2 * node, lo, mid);
+		build(2 * node + 1, mid, hi);
+		tree[node] = FastMultiply.multiply(tree[2 * node], tree[2 * node + 1]);
+	}
+
+	/**
+	 * Returns the product of (x - x_i) over all points.
+	 *
+	 * @return Coefficient array, monic of degree points.length
+	 */
+	public double[] product() {
+		return points.length == 0 ? new double[] {1} : tree[1];
+	}
+
+	/**
+	 * Tells whether the remainder tree is worth trying: whether the coefficients of the root
+	 * product are all finite and at most MAX_PRODUCT in absolute value.
+	 *
+	 * @return True if the root product is finite and small enough
+	 */
+	boolean conditioned() {
+		for (double c : product()) {
+			// false for NaN too
+			if (!(Math.abs(c) <= MAX_PRODUCT)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluates a polynomial at every point of the tree, by the remainder tree.
+	 * The results are not checked.
+	 *
+	 * @param coeffs Coefficient array, indexed by degree
+	 * @return Values, parallel to the points
+	 */
+	public double[] evaluate(double[] coeffs) {
+		double[] values = new double[points.length];
+		if (points.length > 0) {
+			coeffs = DensePolynomial.trim(coeffs);
+			if (coeffs.length > points.length) {
+				coeffs = PolynomialAlgebra.divide(coeffs, tree[1])[1];
+			}
+			descend(1, 0, points.length, coeffs, values);
+		}
+		return values;
+	}
+
+	/**
+	 * Reduces a polynomial down the subtree of a node, and evaluates it at the node's points.
+	 *
+	 * @param node Node index
+	 * @param lo First point of the node
+	 * @param hi Last point of the node, exclusive
+	 * @param rem Polynomial, already reduced modulo the node's subproduct
+	 * @param values Values, filled in
+	 */
+	private void descend(int node, int lo, int hi, double[] rem, double[] values) {
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++) {
+				values[i] = DensePolynomial.evaluate(rem, points[i]);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		descend(2 * node, lo, mid, reduce(rem, tree[2 * node]), values);
+		descend(2 * node + 1, mid, hi, reduce(rem, tree[2 * node + 1]), values);
+	}
+
+	/**
+	 * Returns a polynomial modulo another, or the polynomial itself if it is already shorter.
+	 *
+	 * @param a Polynomial
+	 * @param m Modulus
+	 * @return a mod m
+	 */
+	private static double[] reduce(double[] a, double[] m) {
+		return a.length < m.length ? a : PolynomialAlgebra.divide(a, m)[1];
+	}
+
+	/**
+	 * Returns the polynomial of degree below the number of points that takes the given values
+	 * at the points of the tree. The points must be distinct.
+	 *
+	 * @param values Values, parallel to the points
+	 * @return Coefficient array, indexed by degree
+	 * @throws IllegalArgumentException If there are not as many values as points, or two points
+	 *         are equal
+	 * @throws ArithmeticException If a Lagrange weight overflows or underflows
+	 */
+	public double[] interpolate(double[] values) {
+		if (values.length != points.length) {
+			throw new IllegalArgumentException(values.length + " values for " + points.length + " points");
+		}
+		if (points.length == 0) {
+			return new double[0];
+		}
+		double[] sorted = points.clone();
+		Arrays.sort(sorted);
+		for (int i = 1; i < sorted.length; i++) {
+			if (sorted[i] == sorted[i - 1]) {
+				throw new IllegalArgumentException("Repeated interpolation point " + sorted[i]);
+			}
+		}
+		double[] weights = evaluate(PolynomialAlgebra.derivative(tree[1]));
+		double[] scaled = new double[points.length];
+		for (int i = 0; i < points.length; i++) {
+			if (weights[i] == 0 || Double.isInfinite(weights[i])) {
+				throw new ArithmeticException("Lagrange weight out of range at point " + points[i]);
+			}
+			scaled[i] = values[i] / weights[i];
+		}
+		return DensePolynomial.trim(combine(1, 0, points.length, scaled));
+	}
+
+	/**
+	 * Returns the sum of c_i * M(x) / (x - x_i) over the points of a node, where M is the node's
+	 * subproduct.
+	 *
+	 * @param node Node index
+	 * @param lo First point of the node
+	 * @param hi Last point of the node, exclusive
+	 * @param c Coefficients c_i, parallel to the points
+	 * @return Sum, of degree below hi - lo
+	 */
+	private double[] combine(int node, int lo, int hi, double[] c) {
+		if (hi - lo <= LEAF_SIZE) {
+			// M / (x - x_i) by synthetic division, for each point of the block
+			double[] m = tree[node];
+			double[] sum = new double[hi - lo];
+			for (int i = lo; i < hi; i++) {
+				double carry = 0;
+				for (int d = m.length - 1; d >= 1; d--) {
+					carry = m[d] + carry * points[i];
+					sum[d - 1] += c[i] * carry;
+				}
+			}
+			return sum;
+		}
+		int mid = (lo + hi) >>> 1;
+		double[] left = FastMultiply.multiply(combine(2 * node, lo, mid, c), tree[2 * node + 1]);
+		double[] right = FastMultiply.multiply(combine(2 * node + 1, mid, hi, c), tree[2 * node]);
+		return DensePolynomial.add(left, right);
+	}
+
+	/**
+	 * Evaluates a polynomial at many points, by the remainder tree when there are enough points
+	 * and the degree is high enough, otherwise by Horner's rule. The tree is only descended if the
+	 * coefficients of the root product are finite and at most MAX_PRODUCT; its results are then
+	 * checked at SAMPLES points against Horner's rule, and recomputed by Horner's rule if any of
+	 * them is off by more than TOLERANCE relative to the polynomial of absolute coefficients.
+	 *
+	 * @param coeffs Coefficient array, indexed by degree
+	 * @param points Points
+	 * @return Values, parallel to the points
+	 */
+	public static double[] evaluate(double[] coeffs, double[] points) {
+		coeffs = DensePolynomial.trim(coeffs);
+		if (points.length >= TREE_THRESHOLD && coeffs.length >= TREE_THRESHOLD) {
+			MultipointEvaluation tree = new MultipointEvaluation(points);
+			if (tree.conditioned()) {
+				double[] values = tree.evaluate(coeffs);
+				double[] abs = new double[coeffs.length];
+				for (int i = 0; i < coeffs.length; i++) {
+					abs[i] = Math.abs(coeffs[i]);
+				}
+				boolean accurate = true;
+				for (int s = 0; s < SAMPLES && accurate; s++) {
+					int i = (int)((long)s * (points.length - 1) / (SAMPLES - 1));
+					double error = Math.abs(values[i] - DensePolynomial.evaluate(coeffs, points[i]));
+					accurate = error <= TOLERANCE * DensePolynomial.evaluate(abs, Math.abs(points[i]));
+				}
+				if (accurate) {
+					return values;
+				}
+			}
+		}
+		double[] values = new double[points.length];
+		for (int i = 0; i < points.length; i++) {
+			values[i] = DensePolynomial.evaluate(coeffs, points[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Evaluates a polynomial linked list at many points.
+	 *
+	 * @param poly Polynomial (front of linked list)
+	 * @param points Points
+	 * @return Values, parallel to the points
+	 */
+	public static double[] evaluate(Node poly, double[] points) {
+		return evaluate(DensePolynomial.fromNode(poly), points);
+	}
+
+	/**
+	 * Returns the polynomial of degree below points.length through the given points.
+	 *
+	 * @param points Distinct points
+	 * @param values Values, parallel to the points
+	 * @return Coefficient array, indexed by degree
+	 */
+	public static double[] interpolate(double[] points, double[] values) {
+		return new MultipointEvaluation(points).interpolate(values);
+	}
+}
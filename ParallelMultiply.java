@@ -0,0 +1,281 @@
+package poly;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class multiplies dense polynomials on all cores of a ForkJoinPool.
+ *
+ * Two algorithms are parallelized:
+ * <pre>
+ *     schoolbook   the product is split into ranges of output degrees; each task computes
+ *                  its coefficients completely, summing a[i] * b[k - i] in ascending i
+ *     Karatsuba    long operands are cut into chunks multiplied in parallel, each into a
+ *                  private buffer, and within a chunk the three sub-products of every large
+ *                  Karatsuba step are forked; buffers are then added up by a parallel reduction
+ * </pre>
+ * Every coefficient is computed by the same sequence of floating-point operations whatever the
+ * number of threads, since tasks are split at fixed sizes and partial results are always added
+ * in the same order. The schoolbook results are bit-for-bit those of DensePolynomial.multiply,
+ * and the Karatsuba results those of FastMultiply.karatsuba.
+ */
+public class ParallelMultiply {
+
+	/**
+	 * Karatsuba steps on slices at least this long fork their sub-products.
+	 */
+	static final int PARALLEL_KARATSUBA = 2048;
+
+	/**
+	 * Schoolbook ranges are split while they cost more than this many multiply-adds.
+	 */
+	static final int SCHOOLBOOK_GRAIN = 1 << 16;
+
+	/**
+	 * Reductions are split while they cover more than this many coefficients.
+	 */
+	static final int REDUCE_GRAIN = 1 << 14;
+
+	/**
+	 * Returns the product of two polynomial linked lists, computed on the common ForkJoinPool.
+	 * Neither input is changed, and the result has all new nodes, in ascending order of degrees.
+	 *
+	 * @param poly1 First input polynomial (front of polynomial linked list)
+	 * @param poly2 Second input polynomial (front of polynomial linked list)
+	 * @return Product (front of polynomial linked list)
+	 */
+	public static Node multiply(Node poly1, Node poly2) {
+		if (poly1 == null || poly2 == null) {
+			return null;
+		}
+		return DensePolynomial.toNode(multiply(DensePolynomial.fromNode(poly1), DensePolynomial.fromNode(poly2),
+				ForkJoinPool.commonPool()));
+	}
+
+	/**
+	 * Returns the product of two dense polynomials: by parallel Karatsuba if both are at least
+	 * FastMultiply.KARATSUBA_THRESHOLD long, otherwise by parallel schoolbook.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @param pool Pool to run on
+	 * @return Product
+	 */
+	public static double[] multiply(double[] a, double[] b, ForkJoinPool pool) {
+		if (Math.min(a.length, b.length) < FastMultiply.KARATSUBA_THRESHOLD) {
+			return schoolbook(a, b, pool);
+		}
+		return karatsuba(a, b, pool);
+	}
+
+	/**
+	 * Returns the product of two dense polynomials by the schoolbook method, split into ranges
+	 * of output degrees.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @param pool Pool to run on
+	 * @return Product, equal to DensePolynomial.multiply(a, b)
+	 */
+	public static double[] schoolbook(double[] a, double[] b, ForkJoinPool pool) {
+		if (a.length == 0 || b.length == 0) {
+			return new double[0];
+		}
+		double[] product = new double[a.length + b.length - 1];
+		pool.invoke(new Outputs(a, b, product, 0, product.length));
+		return DensePolynomial.trim(product);
+	}
+
+	/**
+	 * Returns the product of two dense polynomials by Karatsuba's method. Operands of unequal
+	 * length are multiplied in balanced chunks of the shorter length, as in FastMultiply.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @param pool Pool to run on
+	 * @return Product, equal to FastMultiply.karatsuba(a, b)
+	 */
+	public static double[] karatsuba(double[] a, double[] b, ForkJoinPool pool) {
+		if (a.length == 0 || b.length == 0) {
+			return new double[0];
+		}
+		if (a.length < b.length) {
+			double[] t = a;
+			a = b;
+			b = t;
+		}
+		final int n = b.length;
+		int chunks = (a.length + n - 1) / n;
+		final double[][] partials = new double[chunks][];
+		final Karatsuba[] tasks = new Karatsuba[chunks];
+		for (int c = 0; c < chunks; c++) {
+			int start = c * n;
+			double[] chunk = new double[n];
+			System.arraycopy(a, start, chunk, 0, Math.min(n, a.length - start));
+			partials[c] = new double[2 * n - 1];
+			tasks[c] = new Karatsuba(chunk, 0, b, 0, n, partials[c], 0);
+		}
+		double[] product = new double[a.length + n - 1];
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		pool.invoke(new Reduce(partials, n, product, 0, product.length));
+		return DensePolynomial.trim(product);
+	}
+
+	/**
+	 * Computes a range of product coefficients by the schoolbook method.
+	 */
+	private static class Outputs extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Input coefficients, indexed by degree, and the product being filled in.
+		 */
+		final double[] a, b, product;
+
+		/**
+		 * Range of product degrees to compute, from inclusive, to exclusive.
+		 */
+		final int from, to;
+
+		Outputs(double[] a, double[] b, double[] product, int from, int to) {
+			this.a = a;
+			this.b = b;
+			this.product = product;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > 1 && (long)(to - from) * Math.min(a.length, b.length) > SCHOOLBOOK_GRAIN) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Outputs(a, b, product, from, mid), new Outputs(a, b, product, mid, to));
+				return;
+			}
+			for (int k = from; k < to; k++) {
+				int lo = Math.max(0, k - b.length + 1);
+				int hi = Math.min(k, a.length - 1);
+				double sum = 0;
+				for (int i = lo; i <= hi; i++) {
+					// DensePolynomial.multiply skips zero a[i]; so does this, to match it bit for bit
+					if (a[i] != 0) {
+						sum += a[i] * b[k - i];
+					}
+				}
+				product[k] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Adds the product of two equal-length slices into a result slice, forking the three
+	 * sub-products of large Karatsuba steps. The arithmetic is that of FastMultiply.karatsuba.
+	 */
+	private static class Karatsuba extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Arrays holding the input slices, and the result the product is added into.
+		 */
+		final double[] a, b, r;
+
+		/**
+		 * Offsets of the slices of a, b and r, and length n of the input slices.
+		 */
+		final int ao, bo, n, ro;
+
+		Karatsuba(double[] a, int ao, double[] b, int bo, int n, double[] r, int ro) {
+			this.a = a;
+			this.ao = ao;
+			this.b = b;
+			this.bo = bo;
+			this.n = n;
+			this.r = r;
+			this.ro = ro;
+		}
+
+		protected void compute() {
+			if (n < PARALLEL_KARATSUBA) {
+				FastMultiply.karatsuba(a, ao, b, bo, n, r, ro);
+				return;
+			}
+			int m = n / 2;
+			int h = n - m;
+			double[] sumA = new double[h];
+			double[] sumB = new double[h];
+			for (int i = 0; i < h; i++) {
+				sumA[i] = a[ao + m + i] + (i < m ? a[ao + i] : 0);
+				sumB[i] = b[bo + m + i] + (i < m ? b[bo + i] : 0);
+			}
+			double[] low = new double[2 * m - 1];
+			double[] high = new double[2 * h - 1];
+			double[] mid = new double[2 * h - 1];
+			invokeAll(new Karatsuba(a, ao, b, bo, m, low, 0),
+					new Karatsuba(a, ao + m, b, bo + m, h, high, 0),
+					new Karatsuba(sumA, 0, sumB, 0, h, mid, 0));
+			FastMultiply.combine(low, high, mid, m, r, ro);
+		}
+	}
+
+	/**
+	 * Adds up chunk products into a range of the result. Chunk c starts at degree c * n and
+	 * covers 2n - 1 degrees, so a degree gets contributions from at most two chunks, added in
+	 * chunk order as FastMultiply.karatsuba does.
+	 */
+	private static class Reduce extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Product of each chunk, 2n - 1 coefficients.
+		 */
+		final double[][] partials;
+
+		/**
+		 * Chunk length.
+		 */
+		final int n;
+
+		/**
+		 * Result being filled in.
+		 */
+		final double[] product;
+
+		/**
+		 * Range of result degrees to compute, from inclusive, to exclusive.
+		 */
+		final int from, to;
+
+		Reduce(double[][] partials, int n, double[] product, int from, int to) {
+			this.partials = partials;
+			this.n = n;
+			this.product = product;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > REDUCE_GRAIN) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Reduce(partials, n, product, from, mid), new Reduce(partials, n, product, mid, to));
+				return;
+			}
+			for (int k = from; k < to; k++) {
+				int c = k / n;
+				double sum = 0;
+				if (c > 0 && k - (c - 1) * n < 2 * n - 1) {
+					sum += partials[c - 1][k - (c - 1) * n];
+				}
+				if (c < partials.length) {
+					sum += partials[c][k - c * n];
+				}
+				product[k] = sum;
+			}
+		}
+	}
+}
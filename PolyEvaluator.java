@@ -0,0 +1,253 @@
+package poly;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class evaluates polynomials by Horner's rule, in double precision, instead of summing
+ * coeff * Math.pow(x, degree) in float like Polynomial.evaluate.
+ *
+ * Sparse linked lists are evaluated by sparse Horner: from the highest term down, the running
+ * value is multiplied by x raised to the gap between consecutive degrees, so a term costs
+ * O(log gap) multiplications rather than a call to Math.pow.
+ *
+ * The batch methods evaluate one polynomial at many points. They allocate nothing per point,
+ * run Horner on four points at a time so that the four multiply-add chains can overlap in the
+ * CPU, and split batches of PARALLEL_THRESHOLD points or more across a ForkJoinPool.
+ */
+public class PolyEvaluator {
+
+	/**
+	 * Batches with at least this many points are evaluated in parallel.
+	 */
+	static final int PARALLEL_THRESHOLD = 1 << 15;
+
+	/**
+	 * Linked lists with at least this fraction of nonzero coefficients are evaluated densely.
+	 */
+	static final double DENSE_DENSITY = 0.25;
+
+	/**
+	 * Evaluates a polynomial at a given value.
+	 *
+	 * @param poly Polynomial (front of linked list), in any order of degrees
+	 * @param x Value at which evaluation is to be done
+	 * @return Value of polynomial at x
+	 */
+	public static double evaluate(Node poly, double x) {
+		int n = 0;
+		for (Node p = poly; p != null; p = p.next) {
+			n++;
+		}
+		int[] degrees = new int[n];
+		double[] coeffs = new double[n];
+		sparse(poly, degrees, coeffs);
+		return evaluate(degrees, coeffs, n, x);
+	}
+
+	/**
+	 * Evaluates a sparse polynomial at a given value, by sparse Horner.
+	 *
+	 * @param degrees Degrees, in ascending order
+	 * @param coeffs Coefficients, parallel to degrees
+	 * @param n Number of terms
+	 * @param x Value at which evaluation is to be done
+	 * @return Value of polynomial at x
+	 */
+	public static double evaluate(int[] degrees, double[] coeffs, int n, double x) {
+		if (n == 0) {
+			return 0;
+		}
+		double value = coeffs[n - 1];
+		for (int i = n - 2; i >= 0; i--) {
+			value = value * power(x, degrees[i + 1] - degrees[i]) + coeffs[i];
+		}
+		return value * power(x, degrees[0]);
+	}
+
+	/**
+	 * Evaluates a polynomial at many points.
+	 *
+	 * @param poly Polynomial (front of linked list), in any order of degrees
+	 * @param xs Points
+	 * @param out Values, out[i] = poly(xs[i]); may be the same array as xs
+	 */
+	public static void evaluate(Node poly, float[] xs, float[] out) {
+		if (FastMultiply.density(poly) >= DENSE_DENSITY) {
+			evaluate(DensePolynomial.fromNode(poly), xs, out);
+			return;
+		}
+		int n = 0;
+		for (Node p = poly; p != null; p = p.next) {
+			n++;
+		}
+		int[] degrees = new int[n];
+		double[] coeffs = new double[n];
+		sparse(poly, degrees, coeffs);
+		run(new Batch(null, degrees, coeffs, n, xs, out, 0, xs.length));
+	}
+
+	/**
+	 * Evaluates a dense polynomial at many points.
+	 *
+	 * @param coeffs Coefficient array, indexed by degree
+	 * @param xs Points
+	 * @param out Values, out[i] = poly(xs[i]); may be the same array as xs
+	 */
+	public static void evaluate(double[] coeffs, float[] xs, float[] out) {
+		run(new Batch(coeffs, null, null, 0, xs, out, 0, xs.length));
+	}
+
+	/**
+	 * Runs a batch on the calling thread if it is small, or on the common ForkJoinPool.
+	 *
+	 * @param batch Whole batch
+	 */
+	private static void run(Batch batch) {
+		if (batch.xs.length > batch.out.length) {
+			throw new IllegalArgumentException("Output array is shorter than input array");
+		}
+		if (batch.xs.length < PARALLEL_THRESHOLD) {
+			batch.compute();
+		}
+		else {
+			ForkJoinPool.commonPool().invoke(batch);
+		}
+	}
+
+	/**
+	 * Copies a linked list into parallel arrays sorted by ascending degree. Repeated degrees
+	 * are kept; sparse Horner handles them as gaps of 0.
+	 *
+	 * @param poly Polynomial (front of linked list)
+	 * @param degrees Degrees, filled in; its length is the number of terms
+	 * @param coeffs Coefficients, filled in
+	 */
+	private static void sparse(Node poly, int[] degrees, double[] coeffs) {
+		int n = 0;
+		boolean sorted = true;
+		for (Node p = poly; p != null; p = p.next) {
+			degrees[n] = p.term.degree;
+			coeffs[n] = p.term.coeff;
+			if (n > 0 && degrees[n] <= degrees[n - 1]) {
+				sorted = false;
+			}
+			n++;
+		}
+		if (!sorted) {
+			// insertion sort; lists from Polynomial are already ascending
+			for (int i = 1; i < n; i++) {
+				int d = degrees[i];
+				double c = coeffs[i];
+				int j = i - 1;
+				while (j >= 0 && degrees[j] > d) {
+					degrees[j + 1] = degrees[j];
+					coeffs[j + 1] = coeffs[j];
+					j--;
+				}
+				degrees[j + 1] = d;
+				coeffs[j + 1] = c;
+			}
+		}
+	}
+
+	/**
+	 * Raises x to a non-negative integer power by repeated squaring.
+	 *
+	 * @param x Base
+	 * @param e Exponent
+	 * @return x^e
+	 */
+	static double power(double x, int e) {
+		double result = 1;
+		while (e > 0) {
+			if ((e & 1) != 0) {
+				result *= x;
+			}
+			x *= x;
+			e >>>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * A range of points to evaluate, split in halves while it is larger than the threshold.
+	 */
+	private static class Batch extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Coefficients indexed by degree, or null if the polynomial is evaluated sparsely.
+		 */
+		final double[] dense;
+
+		/**
+		 * Degrees and coefficients of the nonzero terms, for sparse evaluation.
+		 */
+		final int[] degrees;
+		final double[] coeffs;
+
+		/**
+		 * Number of nonzero terms.
+		 */
+		final int terms;
+
+		/**
+		 * Points, and the values computed at them.
+		 */
+		final float[] xs;
+		final float[] out;
+
+		/**
+		 * Range of points to evaluate, from inclusive, to exclusive.
+		 */
+		final int from, to;
+
+		Batch(double[] dense, int[] degrees, double[] coeffs, int terms, float[] xs, float[] out, int from, int to) {
+			this.dense = dense;
+			this.degrees = degrees;
+			this.coeffs = coeffs;
+			this.terms = terms;
+			this.xs = xs;
+			this.out = out;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from >= PARALLEL_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Batch(dense, degrees, coeffs, terms, xs, out, from, mid),
+						new Batch(dense, degrees, coeffs, terms, xs, out, mid, to));
+				return;
+			}
+			if (dense == null) {
+				for (int i = from; i < to; i++) {
+					out[i] = (float)evaluate(degrees, coeffs, terms, xs[i]);
+				}
+				return;
+			}
+			int top = dense.length - 1;
+			int i = from;
+			for (; i + 4 <= to; i += 4) {
+				double x0 = xs[i], x1 = xs[i + 1], x2 = xs[i + 2], x3 = xs[i + 3];
+				double v0 = 0, v1 = 0, v2 = 0, v3 = 0;
+				for (int d = top; d >= 0; d--) {
+					double c = dense[d];
+					v0 = v0 * x0 + c;
+					v1 = v1 * x1 + c;
+					v2 = v2 * x2 + c;
+					v3 = v3 * x3 + c;
+				}
+				out[i] = (float)v0;
+				out[i + 1] = (float)v1;
+				out[i + 2] = (float)v2;
+				out[i + 3] = (float)v3;
+			}
+			for (; i < to; i++) {
+				out[i] = (float)DensePolynomial.evaluate(dense, xs[i]);
+			}
+		}
+	}
+}
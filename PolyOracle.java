@@ -0,0 +1,559 @@
+package poly;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ *
+ * Polynomial Oracle (PolyOracle)
+ * Randomized differential test of the fast polynomial paths against the linked-list code in
+ * Polynomial, which is taken as the reference
+ *
+ * Each trial generates two polynomials of random degree and density, with either small integer
+ * or arbitrary float coefficients, and checks every fast path against the reference:
+ *
+ *     read         PolynomialIO text and binary formats      same list, bit for bit
+ *     add          SparsePolynomial, DensePolynomial         same terms, bit for bit
+ *     multiply     FastMultiply, SparsePolynomial,           exact for integer coefficients,
+ *                  ParallelMultiply, DensePolynomial         otherwise within rounding error
+ *     divide       PolynomialAlgebra.divide                  b * q + r matches a within rounding
+ *                                                            error, and degree(r) < degree(b)
+ *     gcd          PolynomialAlgebra.gcd                     divides both inputs, and is divided
+ *                                                            by the factor they were built with
+ *     evaluate     PolyEvaluator, MultipointEvaluation       within rounding error
+ *     interpolate  MultipointEvaluation.interpolate          same coefficients, within rounding
+ *                                                            error, at Chebyshev points
+ *     toString     Polynomial.write                          same text as Term.toString
+ *
+ * Degrees are drawn log-uniformly up to maxDegree, so that most trials are quick, while the
+ * default maxDegree of 4096 still crosses the thresholds of FFT and NTT multiplication
+ * (FastMultiply.FFT_THRESHOLD), parallel Karatsuba (ParallelMultiply.PARALLEL_KARATSUBA),
+ * Newton division (PolynomialAlgebra.NEWTON_THRESHOLD) and remainder trees
+ * (MultipointEvaluation.TREE_THRESHOLD). The dividend of each division is built as a product
+ * plus a remainder, so that large divisions have a large quotient as well as a large divisor,
+ * and divisors have a dominant leading coefficient, which keeps the division well conditioned.
+ * GCD inputs are products of small integer polynomials with a common factor, and interpolation
+ * goes through at most MAX_INTERPOLATE points: both problems are ill-conditioned in floating
+ * point beyond small degrees, whatever the algorithm.
+ *
+ * Rounding error is bounded per coefficient by 2^-20 times the same computation on absolute
+ * values, which allows for the float arithmetic of the reference. Products also get a floor of
+ * 2^-40 times their largest such bound, for the cancellation noise that Karatsuba and FFT leave
+ * even in coefficients that have no partial products at all. Mismatches are printed with
+ * the trial number, and the exit status is 1 if there were any. Parameters are given as
+ * name=value arguments, for example:
+ *
+ *     java poly.PolyOracle trials=2000 maxDegree=8192 maxPoints=4096 seed=7
+ *
+ */
+public class PolyOracle {
+
+	/**
+	 * Oracle parameters, with their defaults.
+	 */
+	static int trials = 500, maxDegree = 4096, maxPoints = 1024;
+	static long seed = 1;
+
+	/**
+	 * Relative tolerance for inexact comparisons.
+	 */
+	static final double EPSILON = 0x1p-20;
+
+	/**
+	 * Tolerance for product coefficients, relative to the largest coefficient bound.
+	 */
+	static final double FLOOR = 0x1p-40;
+
+	/**
+	 * Densities to draw from, from very sparse to full.
+	 */
+	static final double[] DENSITIES = {0.002, 0.02, 0.2, 1};
+
+	/**
+	 * Largest degree of the factors GCD inputs are built from.
+	 */
+	static final int GCD_DEGREE = 3;
+
+	/**
+	 * Largest number of interpolation points.
+	 */
+	static final int MAX_INTERPOLATE = 12;
+
+	/**
+	 * Number of mismatches found so far.
+	 */
+	static int failures;
+
+	/**
+	 * Trial being run, for failure reports.
+	 */
+	static int trial;
+
+	public static void main(String[] args) throws IOException {
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			}
+			set(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+		Random random = new Random(seed);
+		for (trial = 0; trial < trials; trial++) {
+			boolean integers = random.nextBoolean();
+			Node poly1 = generate(random, integers);
+			Node poly2 = generate(random, integers);
+			checkRead(poly1);
+			checkAdd(poly1, poly2);
+			checkMultiply(poly1, poly2, integers);
+			checkDivide(poly1, poly2);
+			checkGcd(random);
+			checkEvaluate(poly1, (float)(2.2 * random.nextDouble() - 1.1));
+			checkMultipoint(poly2, random);
+			checkInterpolate(random);
+			checkToString(poly2);
+		}
+		System.out.println(trials + " trials, seed " + seed + ": " + failures + " mismatches");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Sets a parameter.
+	 *
+	 * @param name Parameter name
+	 * @param value Parameter value
+	 */
+	static void set(String name, String value) {
+		switch (name) {
+		case "trials": trials = Integer.parseInt(value); break;
+		case "maxDegree": maxDegree = Integer.parseInt(value); break;
+		case "maxPoints": maxPoints = Integer.parseInt(value); break;
+		case "seed": seed = Long.parseLong(value); break;
+		default: throw new IllegalArgumentException("Unknown parameter " + name);
+		}
+	}
+
+	/**
+	 * Generates a random polynomial, occasionally the zero polynomial.
+	 *
+	 * @param random Random source
+	 * @param integers True for small integer coefficients
+	 * @return Polynomial (front of linked list), in ascending order of degrees
+	 */
+	static Node generate(Random random, boolean integers) {
+		if (random.nextInt(50) == 0) {
+			return null;
+		}
+		double density = DENSITIES[random.nextInt(DENSITIES.length)];
+		return generate(random, logUniform(random, maxDegree), density, integers);
+	}
+
+	/**
+	 * Draws a number from 0 to max, log-uniformly, so that small numbers are as likely as large
+	 * ones at every scale.
+	 *
+	 * @param random Random source
+	 * @param max Largest number
+	 * @return Number from 0 to max
+	 */
+	static int logUniform(Random random, int max) {
+		return Math.min((int)Math.pow(max + 1, random.nextDouble()) - 1, max);
+	}
+
+	/**
+	 * Generates a random polynomial, in ascending order of degrees like Polynomial.read.
+	 * The top term is always present, so the degree is exact.
+	 *
+	 * @param random Random source
+	 * @param degree Degree
+	 * @param density Probability that each lower coefficient is nonzero
+	 * @param integers True for small integer coefficients, false for arbitrary floats
+	 * @return Polynomial (front of linked list)
+	 */
+	static Node generate(Random random, int degree, double density, boolean integers) {
+		Node poly = null;
+		for (int d = degree; d >= 0; d--) {
+			if (d == degree || random.nextDouble() < density) {
+				float coeff = 0;
+				while (coeff == 0) {
+					coeff = integers ? random.nextInt(19) - 9 : (float)random.nextGaussian();
+				}
+				poly = new Node(coeff, d, poly);
+			}
+		}
+		return poly;
+	}
+
+	/**
+	 * Returns a copy of a polynomial with its terms in reverse order.
+	 *
+	 * @param poly Polynomial (front of linked list)
+	 * @return Reversed copy
+	 */
+	static Node reverse(Node poly) {
+		Node reversed = null;
+		for (Node p = poly; p != null; p = p.next) {
+			reversed = new Node(p.term.coeff, p.term.degree, reversed);
+		}
+		return reversed;
+	}
+
+	/**
+	 * Checks the text and binary readers.
+	 *
+	 * @param poly Polynomial
+	 * @throws IOException Never, all input is in memory
+	 */
+	static void checkRead(Node poly) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (Node p = reverse(poly); p != null; p = p.next) {
+			text.append(p.term.coeff).append(' ').append(p.term.degree).append('\n');
+		}
+		Scanner sc = new Scanner(text.toString());
+		Node expected = Polynomial.read(sc);
+		sc.close();
+		byte[] bytes = text.toString().getBytes("US-ASCII");
+		sameList("read/PolynomialIO", expected, PolynomialIO.read(Channels.newChannel(new ByteArrayInputStream(bytes))));
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		PolynomialIO.write(expected, Channels.newChannel(binary));
+		sameList("read/PolynomialIO.binary", expected,
+				PolynomialIO.readBinary(Channels.newChannel(new ByteArrayInputStream(binary.toByteArray()))));
+	}
+
+	/**
+	 * Checks addition.
+	 *
+	 * @param poly1 First polynomial
+	 * @param poly2 Second polynomial
+	 */
+	static void checkAdd(Node poly1, Node poly2) {
+		SparsePolynomial expected = SparsePolynomial.fromNode(Polynomial.add(poly1, poly2));
+		compare("add/SparsePolynomial", expected,
+				SparsePolynomial.fromNode(SparsePolynomial.fromNode(poly1).add(SparsePolynomial.fromNode(poly2)).toNode()), null);
+		compare("add/DensePolynomial", expected, SparsePolynomial.fromNode(DensePolynomial.toNode(
+				DensePolynomial.add(DensePolynomial.fromNode(poly1), DensePolynomial.fromNode(poly2)))), null);
+	}
+
+	/**
+	 * Checks multiplication.
+	 *
+	 * @param poly1 First polynomial
+	 * @param poly2 Second polynomial
+	 * @param integers True if coefficients are integers, so that results must be exact
+	 */
+	static void checkMultiply(Node poly1, Node poly2, boolean integers) {
+		SparsePolynomial expected = SparsePolynomial.fromNode(Polynomial.multiply(poly1, poly2));
+		SparsePolynomial bound = integers ? null : abs(poly1).multiply(abs(poly2));
+		compare("multiply/FastMultiply", expected, SparsePolynomial.fromNode(FastMultiply.multiply(poly1, poly2)), bound);
+		compare("multiply/SparsePolynomial", expected,
+				SparsePolynomial.fromNode(SparsePolynomial.fromNode(poly1).multiply(SparsePolynomial.fromNode(poly2)).toNode()), bound);
+		compare("multiply/ParallelMultiply", expected, SparsePolynomial.fromNode(ParallelMultiply.multiply(poly1, poly2)), bound);
+		double[] a = DensePolynomial.fromNode(poly1);
+		double[] b = DensePolynomial.fromNode(poly2);
+		compare("multiply/DensePolynomial", expected, SparsePolynomial.fromNode(DensePolynomial.toNode(DensePolynomial.multiply(a, b))), bound);
+		compare("multiply/ParallelMultiply.schoolbook", expected,
+				SparsePolynomial.fromNode(DensePolynomial.toNode(ParallelMultiply.schoolbook(a, b, ForkJoinPool.commonPool()))), bound);
+	}
+
+	/**
+	 * Checks division, of c * b plus the terms of c below the degree of b, by b, where c is poly1
+	 * and b is poly2 with its leading coefficient made larger than the sum of the absolute values
+	 * of the others. That puts the roots of b inside the unit circle: the quotient by a divisor
+	 * with roots well outside it amplifies rounding error geometrically, whatever the method.
+	 * The quotient and remainder are checked by multiplying back, since the exact quotient is not
+	 * representable in general. Newton division is only checked by PolynomialAlgebra to
+	 * DIVISION_TOLERANCE, so errors of that size relative to the largest coefficients are allowed.
+	 *
+	 * @param poly1 Quotient the dividend is built from
+	 * @param poly2 Divisor, before its leading coefficient is raised
+	 */
+	static void checkDivide(Node poly1, Node poly2) {
+		double[] b = DensePolynomial.fromNode(poly2);
+		if (b.length == 0) {
+			return;
+		}
+		double sum = 1;
+		for (int i = 0; i < b.length - 1; i++) {
+			sum += Math.abs(b[i]);
+		}
+		b[b.length - 1] = Math.copySign(sum, b[b.length - 1]);
+		double[] c = DensePolynomial.fromNode(poly1);
+		double[] a = DensePolynomial.add(FastMultiply.multiply(c, b), Arrays.copyOf(c, Math.min(c.length, b.length - 1)));
+		double[][] qr = PolynomialAlgebra.divide(a, b);
+		if (qr[1].length >= b.length) {
+			fail("divide/PolynomialAlgebra", "remainder of degree " + (qr[1].length - 1) + " for divisor of degree " + (b.length - 1));
+			return;
+		}
+		double[] bound = DensePolynomial.add(DensePolynomial.multiply(absolute(b), absolute(qr[0])),
+				DensePolynomial.add(absolute(qr[1]), absolute(a)));
+		double[] actual = DensePolynomial.add(DensePolynomial.multiply(b, qr[0]), qr[1]);
+		double floor = PolynomialAlgebra.DIVISION_TOLERANCE * Math.max(maxAbs(a), maxAbs(b) * maxAbs(qr[0]));
+		for (int i = 0; i < bound.length; i++) {
+			double e = i < a.length ? a[i] : 0;
+			double x = i < actual.length ? actual[i] : 0;
+			if (!(Math.abs(e - x) <= EPSILON * bound[i] + floor)) {
+				fail("divide/PolynomialAlgebra", "degree " + i + ": " + e + " vs " + x);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks the GCD of two products of small integer polynomials with a common factor g. The
+	 * GCD must be divided by g, and divide both products, with remainders that are zero to within
+	 * PolynomialAlgebra.GCD_TOLERANCE.
+	 *
+	 * @param random Random source
+	 */
+	static void checkGcd(Random random) {
+		double[] g = DensePolynomial.fromNode(generate(random, 1 + random.nextInt(GCD_DEGREE), 1, true));
+		double[] a = DensePolynomial.multiply(g, DensePolynomial.fromNode(generate(random, random.nextInt(GCD_DEGREE + 1), 1, true)));
+		double[] b = DensePolynomial.multiply(g, DensePolynomial.fromNode(generate(random, random.nextInt(GCD_DEGREE + 1), 1, true)));
+		double[] gcd = PolynomialAlgebra.gcd(a, b, PolynomialAlgebra.GCD_TOLERANCE);
+		if (gcd.length < g.length) {
+			fail("gcd/PolynomialAlgebra", "degree " + (gcd.length - 1) + ", below the common factor's " + (g.length - 1));
+			return;
+		}
+		checkDivides("gcd/PolynomialAlgebra", gcd, a);
+		checkDivides("gcd/PolynomialAlgebra", gcd, b);
+		checkDivides("gcd/PolynomialAlgebra", g, gcd);
+	}
+
+	/**
+	 * Checks that one polynomial divides another, to within PolynomialAlgebra.GCD_TOLERANCE
+	 * relative to the largest coefficient of the dividend.
+	 *
+	 * @param what Name of the check
+	 * @param divisor Divisor
+	 * @param dividend Dividend
+	 */
+	static void checkDivides(String what, double[] divisor, double[] dividend) {
+		double[] r = PolynomialAlgebra.divide(dividend, divisor)[1];
+		double scale = maxAbs(dividend);
+		for (int i = 0; i < r.length; i++) {
+			if (!(Math.abs(r[i]) <= PolynomialAlgebra.GCD_TOLERANCE * scale)) {
+				fail(what, "remainder " + r[i] + " at degree " + i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks evaluation.
+	 *
+	 * @param poly Polynomial
+	 * @param x Value at which evaluation is to be done
+	 */
+	static void checkEvaluate(Node poly, float x) {
+		double expected = Polynomial.evaluate(poly, x);
+		double bound = Math.max(abs(poly).evaluate(Math.abs(x)), Float.MIN_NORMAL);
+		if (Double.isInfinite(expected) || Double.isInfinite(bound)) {
+			return;
+		}
+		double actual = PolyEvaluator.evaluate(poly, x);
+		if (Math.abs(expected - actual) > EPSILON * bound) {
+			fail("evaluate/PolyEvaluator", "x = " + x + ": " + expected + " vs " + actual);
+		}
+		float[] xs = {x};
+		PolyEvaluator.evaluate(poly, xs, xs);
+		if (Math.abs(expected - xs[0]) > EPSILON * bound) {
+			fail("evaluate/PolyEvaluator.batch", "x = " + x + ": " + expected + " vs " + xs[0]);
+		}
+	}
+
+	/**
+	 * Checks evaluation at many points, between -1 and 1, against Horner's rule in double
+	 * precision. The number of points is drawn log-uniformly up to maxPoints.
+	 *
+	 * @param poly Polynomial
+	 * @param random Random source
+	 */
+	static void checkMultipoint(Node poly, Random random) {
+		double[] coeffs = DensePolynomial.fromNode(poly);
+		double[] abs = absolute(coeffs);
+		double[] points = new double[logUniform(random, maxPoints)];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = 2 * random.nextDouble() - 1;
+		}
+		double[] values = MultipointEvaluation.evaluate(coeffs, points);
+		for (int i = 0; i < points.length; i++) {
+			double expected = DensePolynomial.evaluate(coeffs, points[i]);
+			double bound = Math.max(DensePolynomial.evaluate(abs, Math.abs(points[i])), Double.MIN_NORMAL);
+			if (Math.abs(expected - values[i]) > EPSILON * bound) {
+				fail("evaluate/MultipointEvaluation", points.length + " points, x = " + points[i] + ": " + expected + " vs " + values[i]);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks interpolation of a random polynomial through its values at Chebyshev points, where
+	 * interpolation is best conditioned. Coefficients must match within EPSILON times the largest.
+	 *
+	 * @param random Random source
+	 */
+	static void checkInterpolate(Random random) {
+		int n = 1 + random.nextInt(MAX_INTERPOLATE);
+		double[] coeffs = new double[n];
+		double[] points = new double[n];
+		double[] values = new double[n];
+		double scale = 0;
+		for (int i = 0; i < n; i++) {
+			coeffs[i] = random.nextGaussian();
+			scale = Math.max(scale, Math.abs(coeffs[i]));
+			points[i] = Math.cos(Math.PI * (2 * i + 1) / (2 * n));
+		}
+		for (int i = 0; i < n; i++) {
+			values[i] = DensePolynomial.evaluate(coeffs, points[i]);
+		}
+		double[] actual = MultipointEvaluation.interpolate(points, values);
+		for (int i = 0; i < n; i++) {
+			double a = i < actual.length ? actual[i] : 0;
+			if (!(Math.abs(coeffs[i] - a) <= EPSILON * scale)) {
+				fail("interpolate/MultipointEvaluation", n + " points, degree " + i + ": " + coeffs[i] + " vs " + a);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks the string representation against terms formatted by Term.toString.
+	 *
+	 * @param poly Polynomial
+	 */
+	static void checkToString(Node poly) {
+		String expected = poly == null ? "0" : "";
+		for (Node p = poly; p != null; p = p.next) {
+			expected = p == poly ? p.term.toString() : p.term.toString() + " + " + expected;
+		}
+		String actual = Polynomial.toString(poly);
+		if (!expected.equals(actual)) {
+			int i = 0;
+			while (i < Math.min(expected.length(), actual.length()) && expected.charAt(i) == actual.charAt(i)) {
+				i++;
+			}
+			fail("toString/Polynomial.write", "differs at character " + i);
+		}
+	}
+
+	/**
+	 * Returns a polynomial with the absolute values of the coefficients of another.
+	 *
+	 * @param poly Polynomial
+	 * @return Polynomial with nonnegative coefficients
+	 */
+	static SparsePolynomial abs(Node poly) {
+		SparsePolynomial sparse = SparsePolynomial.fromNode(poly);
+		int[] degrees = new int[sparse.size];
+		double[] coeffs = new double[sparse.size];
+		for (int i = 0; i < sparse.size; i++) {
+			degrees[i] = sparse.degrees[i];
+			coeffs[i] = Math.abs(sparse.coeffs[i]);
+		}
+		return SparsePolynomial.of(degrees, coeffs);
+	}
+
+	/**
+	 * Returns the absolute values of a coefficient array.
+	 *
+	 * @param coeffs Coefficient array
+	 * @return New array of nonnegative coefficients
+	 */
+	static double[] absolute(double[] coeffs) {
+		double[] abs = new double[coeffs.length];
+		for (int i = 0; i < coeffs.length; i++) {
+			abs[i] = Math.abs(coeffs[i]);
+		}
+		return abs;
+	}
+
+	/**
+	 * Returns the largest absolute value in a coefficient array.
+	 *
+	 * @param coeffs Coefficient array
+	 * @return Largest absolute value, 0 for an empty array
+	 */
+	static double maxAbs(double[] coeffs) {
+		double max = 0;
+		for (double coeff : coeffs) {
+			max = Math.max(max, Math.abs(coeff));
+		}
+		return max;
+	}
+
+	/**
+	 * Compares two polynomials term by term. A term missing on one side counts as zero.
+	 *
+	 * @param what Name of the check
+	 * @param expected Reference result
+	 * @param actual Result being checked
+	 * @param bound Error bound for each degree, scaled by EPSILON and with a floor scaled by
+	 *        FLOOR; null if results must be exact
+	 */
+	static void compare(String what, SparsePolynomial expected, SparsePolynomial actual, SparsePolynomial bound) {
+		double floor = 0;
+		if (bound != null) {
+			for (int k = 0; k < bound.size; k++) {
+				floor = Math.max(floor, FLOOR * bound.coeffs[k]);
+			}
+		}
+		int i = 0, j = 0, k = 0;
+		while (i < expected.size || j < actual.size) {
+			int degree = Math.min(i < expected.size ? expected.degrees[i] : Integer.MAX_VALUE,
+					j < actual.size ? actual.degrees[j] : Integer.MAX_VALUE);
+			double e = i < expected.size && expected.degrees[i] == degree ? expected.coeffs[i++] : 0;
+			double a = j < actual.size && actual.degrees[j] == degree ? actual.coeffs[j++] : 0;
+			double allowed = floor;
+			if (bound != null) {
+				while (k < bound.size && bound.degrees[k] < degree) {
+					k++;
+				}
+				allowed += k < bound.size && bound.degrees[k] == degree ? EPSILON * bound.coeffs[k] : 0;
+			}
+			if (Math.abs(e - a) > allowed) {
+				fail(what, "degree " + degree + ": " + e + " vs " + a);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks that two linked lists have the same terms in the same order, bit for bit.
+	 *
+	 * @param what Name of the check
+	 * @param expected Reference list
+	 * @param actual List being checked
+	 */
+	static void sameList(String what, Node expected, Node actual) {
+		int index = 0;
+		for (; expected != null && actual != null; expected = expected.next, actual = actual.next, index++) {
+			if (expected.term.degree != actual.term.degree
+					|| Float.floatToIntBits(expected.term.coeff) != Float.floatToIntBits(actual.term.coeff)) {
+				fail(what, "term " + index + ": " + expected.term + " vs " + actual.term);
+				return;
+			}
+		}
+		if (expected != null || actual != null) {
+			fail(what, "lengths differ after " + index + " terms");
+		}
+	}
+
+	/**
+	 * Reports a mismatch.
+	 *
+	 * @param what Name of the check
+	 * @param detail Description of the mismatch
+	 */
+	static void fail(String what, String detail) {
+		failures++;
+		System.out.println("trial " + trial + " (seed " + seed + "): " + what + " " + detail);
+	}
+}
@@ -204,16 +204,80 @@ public class Polynomial {
     * @return String representation, in descending order of degrees
     */
    public static String toString(Node poly) {
+       StringBuilder sb = new StringBuilder();
+       try {
+           write(poly, sb);
+       } catch (IOException e) {
+           // StringBuilder.append does not throw
+           throw new IllegalStateException(e);
+       }
+       return sb.toString();
+   }
+  
+   /**
+    * Writes the string representation of a polynomial, as returned by toString, in one pass.
+    * Terms are formatted as by Term.toString, into a buffer that is passed to the output every
+    * few kilobytes, or directly into the output if it is a StringBuilder. Integer coefficients
+    * are formatted without Float.toString.
+    *
+    * @param poly Polynomial (front of linked list), in ascending order of degrees
+    * @param out Output, for example a Writer or a StringBuilder
+    * @throws IOException If the output cannot be written
+    */
+   public static void write(Node poly, Appendable out)
+   throws IOException {
        if (poly == null) {
-           return "0";
+           out.append("0");
+           return;
        }
-      
-       String retval = poly.term.toString();
-       for (Node current = poly.next ; current != null ;
-       current = current.next) {
-           retval = current.term.toString() + " + " + retval;
+       int n = 0;
+       for (Node current = poly; current != null; current = current.next) {
+           n++;
+       }
+       // the list is singly linked and ascending, so collect it to print it backwards
+       Term[] terms = new Term[n];
+       int i = 0;
+       for (Node current = poly; current != null; current = current.next) {
+           terms[i++] = current.term;
+       }
+       StringBuilder sb = out instanceof StringBuilder ? (StringBuilder)out : new StringBuilder(8192);
+       for (i = n - 1; i >= 0; i--) {
+           appendCoeff(sb, terms[i].coeff);
+           if (terms[i].degree == 1) {
+               sb.append('x');
+           } else if (terms[i].degree != 0) {
+               sb.append("x^").append(terms[i].degree);
+           }
+           if (i > 0) {
+               sb.append(" + ");
+           }
+           if (sb != out && sb.length() >= 8000) {
+               out.append(sb);
+               sb.setLength(0);
+           }
+       }
+       if (sb != out) {
+           out.append(sb);
        }
-       return retval;
-   }  
+   }
+  
+   /**
+    * Appends a coefficient exactly as Float.toString formats it. Integers below 10^7 in
+    * magnitude, which Float.toString prints as digits followed by ".0", are formatted directly;
+    * anything else goes through StringBuilder.append(float).
+    *
+    * @param sb Buffer to append to
+    * @param coeff Coefficient
+    */
+   private static void appendCoeff(StringBuilder sb, float coeff) {
+       if (coeff == (int)coeff && Math.abs(coeff) < 1e7f) {
+           if (coeff == 0 && Float.floatToRawIntBits(coeff) != 0) {
+               sb.append('-');
+           }
+           sb.append((int)coeff).append(".0");
+       } else {
+           sb.append(coeff);
+       }
+   }
 }
 
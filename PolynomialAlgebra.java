@@ -0,0 +1,437 @@
+package poly;
+
+import java.util.Arrays;
+
+/**
+ * This class implements division with remainder, GCD, derivative, integral and composition,
+ * on the dense coefficient arrays of DensePolynomial, with Node versions of each.
+ *
+ * Division picks one of two methods:
+ * <pre>
+ *     long division   quotient or divisor shorter than NEWTON_THRESHOLD, O(n * m)
+ *     Newton          otherwise: the reversed divisor is inverted as a power series by Newton
+ *                     iteration, doubling the precision at each step, so the whole division
+ *                     costs a constant number of multiplications, O(M(n))
+ * </pre>
+ * Multiplications go through FastMultiply, so they are Karatsuba, FFT or NTT as sizes allow.
+ * Newton division is only as accurate as the power series inverse of the reversed divisor,
+ * whose coefficients grow geometrically when the divisor has roots outside the unit circle.
+ * divide therefore checks that b * q matches a in the degrees at or above deg b, to within
+ * DIVISION_TOLERANCE, and redoes the division by long division when it does not.
+ * Composition splits p in halves, p(q) = p_low(q) + q^h * p_high(q), with the powers q^h computed
+ * by repeated squaring, which also takes O(M(n) log n) rather than n multiplications.
+ *
+ * Coefficients are doubles, so results carry rounding error, and the GCD treats coefficients
+ * that are tiny relative to the operands as zero.
+ */
+public class PolynomialAlgebra {
+
+	/**
+	 * Divisions with a shorter quotient or divisor are done by long division.
+	 */
+	static final int NEWTON_THRESHOLD = 1024;
+
+	/**
+	 * Relative error allowed in the top coefficients of b * q before a Newton division is redone
+	 * by long division.
+	 */
+	static final double DIVISION_TOLERANCE = 1e-9;
+
+	/**
+	 * Relative size below which remainder coefficients count as zero in gcd(Node, Node).
+	 */
+	static final double GCD_TOLERANCE = 1e-6;
+
+	/**
+	 * Divides one polynomial by another.
+	 *
+	 * @param a Dividend
+	 * @param b Divisor, not zero
+	 * @return Quotient and remainder, {q, r} with a = b * q + r and degree(r) < degree(b)
+	 * @throws ArithmeticException If b is the zero polynomial
+	 */
+	public static double[][] divide(double[] a, double[] b) {
+		a = DensePolynomial.trim(a);
+		b = DensePolynomial.trim(b);
+		if (b.length == 0) {
+			throw new ArithmeticException("Division by the zero polynomial");
+		}
+		if (a.length < b.length) {
+			return new double[][] {new double[0], a};
+		}
+		if (b.length < NEWTON_THRESHOLD || a.length - b.length + 1 < NEWTON_THRESHOLD) {
+			return longDivide(a, b);
+		}
+		double[][] qr = newtonDivide(a, b, true);
+		return qr != null ? qr : longDivide(a, b);
+	}
+
+	/**
+	 * Divides one polynomial by another, by schoolbook long division.
+	 *
+	 * @param a Dividend
+	 * @param b Divisor, not zero
+	 * @return Quotient and remainder
+	 * @throws ArithmeticException If b is the zero polynomial
+	 */
+	public static double[][] longDivide(double[] a, double[] b) {
+		a = DensePolynomial.trim(a);
+		b = DensePolynomial.trim(b);
+		if (b.length == 0) {
+			throw new ArithmeticException("Division by the zero polynomial");
+		}
+		if (a.length < b.length) {
+			return new double[][] {new double[0], a};
+		}
+		int m = b.length - 1;
+		double lead = b[m];
+		double[] r = a.clone();
+		double[] q = new double[a.length - m];
+		for (int i = q.length - 1; i >= 0; i--) {
+			double c = r[i + m] / lead;
+			q[i] = c;
+			r[i + m] = 0;
+			if (c != 0) {
+				for (int j = 0; j < m; j++) {
+					r[i + j] -= c * b[j];
+				}
+			}
+		}
+		return new double[][] {DensePolynomial.trim(q), DensePolynomial.trim(Arrays.copyOf(r, m))};
+	}
+
+	/**
+	 * Divides one polynomial by another, by Newton inversion of the reversed divisor. The result
+	 * is not checked, and is inaccurate if the divisor has roots well outside the unit circle.
+	 *
+	 * @param a Dividend
+	 * @param b Divisor, not zero
+	 * @return Quotient and remainder
+	 * @throws ArithmeticException If b is the zero polynomial
+	 */
+	public static double[][] newtonDivide(double[] a, double[] b) {
+		return newtonDivide(a, b, false);
+	}
+
+	/**
+	 * Divides one polynomial by another, by Newton inversion of the reversed divisor.
+	 *
+	 * @param a Dividend
+	 * @param b Divisor, not zero
+	 * @param check True to check the top coefficients of b * q against a
+	 * @return Quotient and remainder; null if checked and found inaccurate
+	 * @throws ArithmeticException If b is the zero polynomial
+	 */
+	private static double[][] newtonDivide(double[] a, double[] b, boolean check) {
+		a = DensePolynomial.trim(a);
+		b = DensePolynomial.trim(b);
+		if (b.length == 0) {
+			throw new ArithmeticException("Division by the zero polynomial");
+		}
+		if (a.length < b.length) {
+			return new double[][] {new double[0], a};
+		}
+		// with rev_k(p) = x^k p(1/x): rev(q) = rev(a) / rev(b) mod x^k, where k = deg a - deg b + 1
+		int m = b.length - 1;
+		int k = a.length - m;
+		double[] inverse = inverse(reverse(b, b.length), k);
+		double[] q = reverse(truncate(FastMultiply.multiply(truncate(reverse(a, a.length), k), inverse), k), k);
+		double[] bq = FastMultiply.multiply(b, q);
+		if (check) {
+			double scale = Math.max(maxAbs(a), maxAbs(b) * maxAbs(q));
+			for (int i = m; i < a.length; i++) {
+				double error = Math.abs(a[i] - (i < bq.length ? bq[i] : 0));
+				if (!(error <= DIVISION_TOLERANCE * scale)) {
+					return null;
+				}
+			}
+		}
+		double[] r = new double[m];
+		for (int i = 0; i < m; i++) {
+			r[i] = a[i] - (i < bq.length ? bq[i] : 0);
+		}
+		return new double[][] {DensePolynomial.trim(q), DensePolynomial.trim(r)};
+	}
+
+	/**
+	 * Returns the power series inverse of a polynomial, by Newton iteration:
+	 * g' = g (2 - f g) mod x^2k doubles the number of correct coefficients of g.
+	 *
+	 * @param f Polynomial with a nonzero constant term
+	 * @param n Number of coefficients wanted
+	 * @return g with f * g = 1 mod x^n
+	 * @throws ArithmeticException If the constant term of f is zero
+	 */
+	public static double[] inverse(double[] f, int n) {
+		if (f.length == 0 || f[0] == 0) {
+			throw new ArithmeticException("Power series has no inverse: constant term is zero");
+		}
+		double[] g = {1 / f[0]};
+		for (int k = 1; k < n; ) {
+			int k2 = Math.min(2 * k, n);
+			double[] e = truncate(FastMultiply.multiply(truncate(f, k2), g), k2);
+			double[] twoMinus = new double[k2];
+			for (int i = 0; i < e.length; i++) {
+				twoMinus[i] = -e[i];
+			}
+			twoMinus[0] += 2;
+			g = truncate(FastMultiply.multiply(g, twoMinus), k2);
+			k = k2;
+		}
+		return g;
+	}
+
+	/**
+	 * Returns the monic greatest common divisor of two polynomials, by Euclid's algorithm.
+	 * Remainder coefficients no larger than tolerance times the largest coefficient of the
+	 * dividend are treated as zero, so that rounding error does not hide a common factor.
+	 *
+	 * @param a First polynomial
+	 * @param b Second polynomial
+	 * @param tolerance Relative size below which coefficients count as zero
+	 * @return Monic GCD; the zero polynomial if both inputs are zero
+	 */
+	public static double[] gcd(double[] a, double[] b, double tolerance) {
+		a = monic(DensePolynomial.trim(a));
+		b = monic(DensePolynomial.trim(b));
+		while (b.length > 0) {
+			double[] r = divide(a, b)[1];
+			double scale = maxAbs(a);
+			for (int i = 0; i < r.length; i++) {
+				if (Math.abs(r[i]) <= tolerance * scale) {
+					r[i] = 0;
+				}
+			}
+			a = b;
+			b = monic(DensePolynomial.trim(r));
+		}
+		return a;
+	}
+
+	/**
+	 * Returns the derivative of a polynomial.
+	 *
+	 * @param a Polynomial
+	 * @return Derivative
+	 */
+	public static double[] derivative(double[] a) {
+		if (a.length <= 1) {
+			return new double[0];
+		}
+		double[] d = new double[a.length - 1];
+		for (int i = 1; i < a.length; i++) {
+			d[i - 1] = i * a[i];
+		}
+		return DensePolynomial.trim(d);
+	}
+
+	/**
+	 * Returns the integral of a polynomial that is zero at x = 0.
+	 *
+	 * @param a Polynomial
+	 * @return Integral
+	 */
+	public static double[] integral(double[] a) {
+		a = DensePolynomial.trim(a);
+		double[] s = new double[a.length + 1];
+		for (int i = 0; i < a.length; i++) {
+			s[i + 1] = a[i] / (i + 1);
+		}
+		return DensePolynomial.trim(s);
+	}
+
+	/**
+	 * Returns the composition p(q(x)).
+	 *
+	 * @param p Outer polynomial
+	 * @param q Inner polynomial
+	 * @return Composition
+	 */
+	public static double[] compose(double[] p, double[] q) {
+		p = DensePolynomial.trim(p);
+		q = DensePolynomial.trim(q);
+		if (p.length <= 1 || q.length == 0) {
+			return p.length == 0 ? p : DensePolynomial.trim(new double[] {p[0]});
+		}
+		// powers[j] = q^(2^j), up to the first power of two covering p
+		int levels = 0;
+		while ((1 << levels) < p.length) {
+			levels++;
+		}
+		double[][] powers = new double[levels][];
+		powers[0] = q;
+		for (int j = 1; j < levels; j++) {
+			powers[j] = FastMultiply.multiply(powers[j - 1], powers[j - 1]);
+		}
+		return compose(p, 0, levels, powers);
+	}
+
+	/**
+	 * Composes a slice of p with q: sum of p[from + i] q^i for i below 2^level.
+	 *
+	 * @param p Outer polynomial
+	 * @param from First coefficient of the slice
+	 * @param level Log2 of the slice length
+	 * @param powers q^(2^j) for each j below level
+	 * @return Composition of the slice
+	 */
+	private static double[] compose(double[] p, int from, int level, double[][] powers) {
+		if (from >= p.length) {
+			return new double[0];
+		}
+		if (level == 0) {
+			return DensePolynomial.trim(new double[] {p[from]});
+		}
+		int half = 1 << (level - 1);
+		double[] low = compose(p, from, level - 1, powers);
+		double[] high = compose(p, from + half, level - 1, powers);
+		return DensePolynomial.add(low, FastMultiply.multiply(high, powers[level - 1]));
+	}
+
+	/**
+	 * Divides one polynomial linked list by another.
+	 *
+	 * @param poly1 Dividend (front of polynomial linked list)
+	 * @param poly2 Divisor (front of polynomial linked list), not zero
+	 * @return Quotient and remainder, in ascending order of degrees
+	 * @throws ArithmeticException If poly2 is the zero polynomial
+	 */
+	public static Node[] divide(Node poly1, Node poly2) {
+		double[][] qr = divide(DensePolynomial.fromNode(poly1), DensePolynomial.fromNode(poly2));
+		return new Node[] {DensePolynomial.toNode(qr[0]), DensePolynomial.toNode(qr[1])};
+	}
+
+	/**
+	 * Returns the monic GCD of two polynomial linked lists, with a tolerance of GCD_TOLERANCE.
+	 *
+	 * @param poly1 First polynomial (front of polynomial linked list)
+	 * @param poly2 Second polynomial (front of polynomial linked list)
+	 * @return GCD, in ascending order of degrees
+	 */
+	public static Node gcd(Node poly1, Node poly2) {
+		return DensePolynomial.toNode(gcd(DensePolynomial.fromNode(poly1), DensePolynomial.fromNode(poly2), GCD_TOLERANCE));
+	}
+
+	/**
+	 * Returns the derivative of a polynomial linked list. Works term by term, so sparse
+	 * polynomials of huge degree stay cheap.
+	 *
+	 * @param poly Polynomial (front of polynomial linked list)
+	 * @return Derivative, with all new nodes in the same order as poly
+	 */
+	public static Node derivative(Node poly) {
+		Node first = null, last = null;
+		for (Node p = poly; p != null; p = p.next) {
+			float coeff = p.term.coeff * p.term.degree;
+			if (p.term.degree == 0 || coeff == 0) {
+				continue;
+			}
+			Node node = new Node(coeff, p.term.degree - 1, null);
+			if (last == null) {
+				first = node;
+			}
+			else {
+				last.next = node;
+			}
+			last = node;
+		}
+		return first;
+	}
+
+	/**
+	 * Returns the integral of a polynomial linked list that is zero at x = 0. Works term by
+	 * term, so sparse polynomials of huge degree stay cheap.
+	 *
+	 * @param poly Polynomial (front of polynomial linked list)
+	 * @return Integral, with all new nodes in the same order as poly
+	 */
+	public static Node integral(Node poly) {
+		Node first = null, last = null;
+		for (Node p = poly; p != null; p = p.next) {
+			float coeff = (float)((double)p.term.coeff / (p.term.degree + 1.0));
+			if (coeff == 0) {
+				continue;
+			}
+			Node node = new Node(coeff, p.term.degree + 1, null);
+			if (last == null) {
+				first = node;
+			}
+			else {
+				last.next = node;
+			}
+			last = node;
+		}
+		return first;
+	}
+
+	/**
+	 * Returns the composition of two polynomial linked lists.
+	 *
+	 * @param poly1 Outer polynomial (front of polynomial linked list)
+	 * @param poly2 Inner polynomial (front of polynomial linked list)
+	 * @return poly1(poly2(x)), in ascending order of degrees
+	 */
+	public static Node compose(Node poly1, Node poly2) {
+		return DensePolynomial.toNode(compose(DensePolynomial.fromNode(poly1), DensePolynomial.fromNode(poly2)));
+	}
+
+	/**
+	 * Returns the largest absolute value of the coefficients of a polynomial.
+	 *
+	 * @param a Polynomial
+	 * @return Largest absolute coefficient, NaN if some coefficient is NaN
+	 */
+	static double maxAbs(double[] a) {
+		double max = 0;
+		for (double c : a) {
+			max = Math.max(max, Math.abs(c));
+		}
+		return max;
+	}
+
+	/**
+	 * Scales a polynomial so that its leading coefficient is 1.
+	 *
+	 * @param a Trimmed polynomial
+	 * @return Monic polynomial, or a itself if it is zero or already monic
+	 */
+	static double[] monic(double[] a) {
+		if (a.length == 0 || a[a.length - 1] == 1) {
+			return a;
+		}
+		double lead = a[a.length - 1];
+		double[] m = new double[a.length];
+		for (int i = 0; i < a.length; i++) {
+			m[i] = a[i] / lead;
+		}
+		m[a.length - 1] = 1;
+		return m;
+	}
+
+	/**
+	 * Returns the first n coefficients of a polynomial, reversed: x^(n-1) p(1/x) for p of degree
+	 * below n.
+	 *
+	 * @param a Polynomial
+	 * @param n Number of coefficients
+	 * @return Reversed coefficients, of length n
+	 */
+	static double[] reverse(double[] a, int n) {
+		double[] r = new double[n];
+		for (int i = 0; i < n && i < a.length; i++) {
+			r[n - 1 - i] = a[i];
+		}
+		return r;
+	}
+
+	/**
+	 * Returns a polynomial modulo x^n.
+	 *
+	 * @param a Polynomial
+	 * @param n Number of coefficients to keep
+	 * @return a itself if it is short enough, otherwise its first n coefficients
+	 */
+	static double[] truncate(double[] a, int n) {
+		return a.length <= n ? a : Arrays.copyOf(a, n);
+	}
+}
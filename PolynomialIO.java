@@ -0,0 +1,467 @@
+package poly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class reads and writes polynomials without going through Scanner.
+ *
+ * The text reader takes the format of Polynomial.read, one "coeff degree" pair per line, from
+ * a channel or a memory-mapped file. It parses numbers straight from the bytes, so no String
+ * is created per line or per number, and builds the same linked list as Polynomial.read,
+ * or a SparsePolynomial.
+ *
+ * A coefficient is parsed exactly when its decimal digits fit in 24 bits and its decimal
+ * exponent is at most 10 in magnitude: both are then exact floats, and a single float multiply
+ * or divide rounds correctly. Any other coefficient, "1.23456789" or "NaN" say, goes through
+ * Float.parseFloat, so results always equal those of Polynomial.read.
+ *
+ * The binary format is a 16-byte header followed by the terms, all big-endian:
+ * <pre>
+ *     int    magic      0x504F4C59 ("POLY")
+ *     int    version    1
+ *     long   count      number of terms
+ *     count * (int degree, double coeff)
+ * </pre>
+ * Terms are stored in the order of the linked list, or ascending for a SparsePolynomial.
+ */
+public class PolynomialIO {
+
+	/**
+	 * Binary file magic number, "POLY" in ASCII.
+	 */
+	static final int MAGIC = 0x504F4C59;
+
+	/**
+	 * Binary format version.
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Size of a binary term: int degree, double coefficient.
+	 */
+	static final int TERM_BYTES = 12;
+
+	/**
+	 * Size of the read and write buffers.
+	 */
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Exact float powers of ten, up to 10^10 = 2^10 * 5^10 with 5^10 < 2^24.
+	 */
+	private static final float[] POWERS_OF_TEN = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+	};
+
+	/**
+	 * Reads a text polynomial from a channel, as Polynomial.read does from a Scanner.
+	 *
+	 * @param channel Channel to read; it is not closed
+	 * @return The polynomial linked list (front node), in reverse order of the input lines
+	 * @throws IOException If the input cannot be read or is not a list of coeff degree pairs
+	 */
+	public static Node read(ReadableByteChannel channel) throws IOException {
+		TextParser parser = new TextParser(channel, ByteBuffer.allocate(BUFFER_SIZE));
+		Node poly = null;
+		while (parser.nextToken()) {
+			float coeff = parser.parseFloat();
+			poly = new Node(coeff, parser.parseDegree(), poly);
+		}
+		return poly;
+	}
+
+	/**
+	 * Reads a text polynomial file through a memory mapping.
+	 *
+	 * @param file File to read
+	 * @return The polynomial linked list (front node), in reverse order of the input lines
+	 * @throws IOException If the file cannot be read or is not a list of coeff degree pairs
+	 */
+	public static Node read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return read(channel);
+			}
+			TextParser parser = new TextParser(null, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			Node poly = null;
+			while (parser.nextToken()) {
+				float coeff = parser.parseFloat();
+				poly = new Node(coeff, parser.parseDegree(), poly);
+			}
+			return poly;
+		}
+	}
+
+	/**
+	 * Reads a text polynomial from a channel into a sparse polynomial. Coefficients of repeated
+	 * degrees are added up.
+	 *
+	 * @param channel Channel to read; it is not closed
+	 * @return Sparse polynomial
+	 * @throws IOException If the input cannot be read or is not a list of coeff degree pairs
+	 */
+	public static SparsePolynomial readSparse(ReadableByteChannel channel) throws IOException {
+		TextParser parser = new TextParser(channel, ByteBuffer.allocate(BUFFER_SIZE));
+		int[] degrees = new int[1024];
+		double[] coeffs = new double[1024];
+		int n = 0;
+		while (parser.nextToken()) {
+			if (n == degrees.length) {
+				degrees = Arrays.copyOf(degrees, 2 * n);
+				coeffs = Arrays.copyOf(coeffs, 2 * n);
+			}
+			coeffs[n] = parser.parseFloat();
+			degrees[n++] = parser.parseDegree();
+		}
+		return SparsePolynomial.of(Arrays.copyOf(degrees, n), Arrays.copyOf(coeffs, n));
+	}
+
+	/**
+	 * Writes a polynomial in the binary format.
+	 *
+	 * @param poly Polynomial (front of linked list)
+	 * @param channel Channel to write to; it is not closed
+	 * @throws IOException If the polynomial cannot be written
+	 */
+	public static void write(Node poly, WritableByteChannel channel) throws IOException {
+		long count = 0;
+		for (Node p = poly; p != null; p = p.next) {
+			count++;
+		}
+		ByteBuffer buf = header(count);
+		for (Node p = poly; p != null; p = p.next) {
+			if (buf.remaining() < TERM_BYTES) {
+				drain(buf, channel);
+			}
+			buf.putInt(p.term.degree).putDouble(p.term.coeff);
+		}
+		drain(buf, channel);
+	}
+
+	/**
+	 * Writes a sparse polynomial in the binary format.
+	 *
+	 * @param poly Sparse polynomial
+	 * @param channel Channel to write to; it is not closed
+	 * @throws IOException If the polynomial cannot be written
+	 */
+	public static void write(SparsePolynomial poly, WritableByteChannel channel) throws IOException {
+		ByteBuffer buf = header(poly.size);
+		for (int i = 0; i < poly.size; i++) {
+			if (buf.remaining() < TERM_BYTES) {
+				drain(buf, channel);
+			}
+			buf.putInt(poly.degrees[i]).putDouble(poly.coeffs[i]);
+		}
+		drain(buf, channel);
+	}
+
+	/**
+	 * Reads a polynomial in the binary format.
+	 *
+	 * @param channel Channel to read; it is not closed
+	 * @return The polynomial linked list (front node), in the order the terms were written
+	 * @throws IOException If the input cannot be read or is not a binary polynomial
+	 */
+	public static Node readBinary(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		long count = readHeader(buf, channel);
+		Node first = null, last = null;
+		for (long i = 0; i < count; i++) {
+			fill(buf, channel, TERM_BYTES);
+			int degree = buf.getInt();
+			Node node = new Node((float)buf.getDouble(), degree, null);
+			if (last == null) {
+				first = node;
+			}
+			else {
+				last.next = node;
+			}
+			last = node;
+		}
+		return first;
+	}
+
+	/**
+	 * Reads a polynomial in the binary format into a sparse polynomial.
+	 *
+	 * @param channel Channel to read; it is not closed
+	 * @return Sparse polynomial
+	 * @throws IOException If the input cannot be read or is not a binary polynomial
+	 */
+	public static SparsePolynomial readBinarySparse(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		long count = readHeader(buf, channel);
+		if (count > Integer.MAX_VALUE - 8) {
+			throw new IOException("Too many terms: " + count);
+		}
+		int[] degrees = new int[(int)count];
+		double[] coeffs = new double[(int)count];
+		for (int i = 0; i < count; i++) {
+			fill(buf, channel, TERM_BYTES);
+			degrees[i] = buf.getInt();
+			coeffs[i] = buf.getDouble();
+		}
+		return SparsePolynomial.of(degrees, coeffs);
+	}
+
+	/**
+	 * Starts a write buffer with the binary header.
+	 *
+	 * @param count Number of terms
+	 * @return Buffer in write mode
+	 */
+	private static ByteBuffer header(long count) {
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		buf.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(count);
+		return buf;
+	}
+
+	/**
+	 * Reads and checks the binary header.
+	 *
+	 * @param buf Empty read buffer
+	 * @param channel Channel to read
+	 * @return Number of terms
+	 * @throws IOException If the header is missing or wrong
+	 */
+	private static long readHeader(ByteBuffer buf, ReadableByteChannel channel) throws IOException {
+		buf.flip();
+		fill(buf, channel, 16);
+		if (buf.getInt() != MAGIC) {
+			throw new IOException("Not a binary polynomial");
+		}
+		int version = buf.getInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unsupported binary polynomial version " + version);
+		}
+		long count = buf.getLong();
+		if (count < 0) {
+			throw new IOException("Bad term count " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes out the contents of a buffer and clears it.
+	 *
+	 * @param buf Buffer in write mode
+	 * @param channel Channel to write to
+	 * @throws IOException If the channel cannot be written
+	 */
+	private static void drain(ByteBuffer buf, WritableByteChannel channel) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Makes sure a buffer in read mode has at least some bytes remaining, reading more if needed.
+	 *
+	 * @param buf Buffer in read mode
+	 * @param channel Channel to read
+	 * @param bytes Number of bytes needed
+	 * @throws IOException If the channel ends first
+	 */
+	private static void fill(ByteBuffer buf, ReadableByteChannel channel, int bytes) throws IOException {
+		if (buf.remaining() >= bytes) {
+			return;
+		}
+		buf.compact();
+		while (buf.position() < bytes) {
+			if (channel.read(buf) < 0) {
+				throw new IOException("Binary polynomial is truncated");
+			}
+		}
+		buf.flip();
+	}
+
+	/**
+	 * Splits text input into whitespace-separated tokens, and parses them as numbers.
+	 */
+	private static class TextParser {
+
+		/**
+		 * Channel to read more input from, null if the buffer holds all of it.
+		 */
+		final ReadableByteChannel channel;
+
+		/**
+		 * Input buffer, in read mode.
+		 */
+		final ByteBuffer buf;
+
+		/**
+		 * Current token, in token[0..length).
+		 */
+		byte[] token = new byte[64];
+		int length;
+
+		/**
+		 * Line of the current token, for error messages.
+		 */
+		long line = 1;
+
+		/**
+		 * Initializes a parser.
+		 *
+		 * @param channel Channel to read, null if buf holds all of the input
+		 * @param buf Buffer; if channel is not null it is empty and is used to read the channel
+		 */
+		TextParser(ReadableByteChannel channel, ByteBuffer buf) {
+			this.channel = channel;
+			this.buf = buf;
+			if (channel != null) {
+				buf.flip();
+			}
+		}
+
+		/**
+		 * Reads the next byte.
+		 *
+		 * @return Byte, 0..255, or -1 at the end of the input
+		 * @throws IOException If the channel cannot be read
+		 */
+		int read() throws IOException {
+			if (!buf.hasRemaining()) {
+				if (channel == null) {
+					return -1;
+				}
+				buf.clear();
+				int n;
+				do {
+					n = channel.read(buf);
+				} while (n == 0);
+				buf.flip();
+				if (n < 0) {
+					return -1;
+				}
+			}
+			return buf.get() & 0xff;
+		}
+
+		/**
+		 * Reads the next token into token[0..length).
+		 *
+		 * @return False at the end of the input
+		 * @throws IOException If the channel cannot be read
+		 */
+		boolean nextToken() throws IOException {
+			int b = read();
+			while (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+				if (b == '\n') {
+					line++;
+				}
+				b = read();
+			}
+			length = 0;
+			while (b != -1 && b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				if (length == token.length) {
+					token = Arrays.copyOf(token, 2 * length);
+				}
+				token[length++] = (byte)b;
+				b = read();
+			}
+			if (b == '\n') {
+				line++;
+			}
+			return length > 0;
+		}
+
+		/**
+		 * Parses the current token as a float, and moves to the next token.
+		 *
+		 * @return Value
+		 * @throws IOException If the token is not a number, or the input ends first
+		 */
+		float parseFloat() throws IOException {
+			int i = 0;
+			boolean negative = false;
+			if (length > 0 && (token[0] == '-' || token[0] == '+')) {
+				negative = token[0] == '-';
+				i++;
+			}
+			long mantissa = 0;
+			int digits = 0, exp10 = 0;
+			boolean exact = i < length;
+			for (; i < length && token[i] >= '0' && token[i] <= '9'; i++, digits++) {
+				mantissa = mantissa * 10 + (token[i] - '0');
+				exact &= mantissa < (1 << 24);
+			}
+			if (i < length && token[i] == '.') {
+				for (i++; i < length && token[i] >= '0' && token[i] <= '9'; i++, digits++) {
+					mantissa = mantissa * 10 + (token[i] - '0');
+					exact &= mantissa < (1 << 24);
+					exp10--;
+				}
+			}
+			if (i < length && (token[i] == 'e' || token[i] == 'E')) {
+				i++;
+				boolean negExp = false;
+				if (i < length && (token[i] == '-' || token[i] == '+')) {
+					negExp = token[i] == '-';
+					i++;
+				}
+				int e = 0;
+				exact &= i < length;
+				for (; i < length && token[i] >= '0' && token[i] <= '9'; i++) {
+					e = Math.min(e * 10 + (token[i] - '0'), 1000);
+				}
+				exp10 += negExp ? -e : e;
+			}
+			float value;
+			if (exact && digits > 0 && i == length && exp10 >= -10 && exp10 <= 10) {
+				value = exp10 >= 0 ? mantissa * POWERS_OF_TEN[exp10] : mantissa / POWERS_OF_TEN[-exp10];
+				value = negative ? -value : value;
+			}
+			else {
+				try {
+					value = Float.parseFloat(new String(token, 0, length, "US-ASCII"));
+				} catch (NumberFormatException e) {
+					throw new IOException("Bad coefficient on line " + line + ": " + new String(token, 0, length, "UTF-8"));
+				}
+			}
+			if (!nextToken()) {
+				throw new IOException("Missing degree on line " + line);
+			}
+			return value;
+		}
+
+		/**
+		 * Parses the current token as a degree.
+		 *
+		 * @return Degree
+		 * @throws IOException If the token is not an int
+		 */
+		int parseDegree() throws IOException {
+			int i = 0;
+			boolean negative = false;
+			if (length > 1 && (token[0] == '-' || token[0] == '+')) {
+				negative = token[0] == '-';
+				i++;
+			}
+			long value = 0;
+			for (; i < length; i++) {
+				if (token[i] < '0' || token[i] > '9' || value > Integer.MAX_VALUE + 1L) {
+					throw new IOException("Bad degree on line " + line + ": " + new String(token, 0, length, "UTF-8"));
+				}
+				value = value * 10 + (token[i] - '0');
+			}
+			value = negative ? -value : value;
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				throw new IOException("Degree out of range on line " + line + ": " + value);
+			}
+			return (int)value;
+		}
+	}
+}
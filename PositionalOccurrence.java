@@ -0,0 +1,124 @@
+package lse;
+
+import java.util.Arrays;
+
+/**
+ * This class is an Occurrence that also records where in the document the keyword occurs.
+ * Positions are token ordinals: the n-th whitespace-separated word of the document, counting
+ * noise words and words that are not keywords, is at position n, starting at 0.
+ *
+ * Positions are stored in ascending order as a compact byte string: each position is coded as
+ * its gap from the previous one (the first as itself), and each gap as a varint, 7 bits per
+ * byte with the high bit set on all bytes but the last. Gaps between repeats of a keyword are
+ * mostly small, so a position usually takes one or two bytes instead of four.
+ */
+public class PositionalOccurrence extends Occurrence {
+
+	/**
+	 * Varint-coded position gaps.
+	 */
+	byte[] positions;
+
+	/**
+	 * Initializes this occurrence with the given document and positions. The frequency is the
+	 * number of positions.
+	 *
+	 * @param doc Document name
+	 * @param positions Positions, in ascending order
+	 * @param count Number of positions
+	 */
+	public PositionalOccurrence(String doc, int[] positions, int count) {
+		super(doc, count);
+		this.positions = encode(positions, count);
+	}
+
+	/**
+	 * Returns the positions of the keyword in the document.
+	 *
+	 * @return Positions, in ascending order; frequency of them
+	 */
+	public int[] positions() {
+		int[] decoded = new int[frequency];
+		int pos = 0;
+		for (int i = 0, b = 0; i < frequency; i++) {
+			int gap = 0;
+			int shift = 0;
+			byte v;
+			do {
+				v = positions[b++];
+				gap |= (v & 0x7f) << shift;
+				shift += 7;
+			} while (v < 0);
+			pos += gap;
+			decoded[i] = pos;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Codes ascending positions as varint gaps.
+	 *
+	 * @param positions Positions, in ascending order
+	 * @param count Number of positions
+	 * @return Coded positions
+	 */
+	static byte[] encode(int[] positions, int count) {
+		byte[] bytes = new byte[count + 4];
+		int n = 0;
+		int last = 0;
+		for (int i = 0; i < count; i++) {
+			int gap = positions[i] - last;
+			last = positions[i];
+			if (n + 5 > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(n + 5, 2 * bytes.length));
+			}
+			while ((gap & ~0x7f) != 0) {
+				bytes[n++] = (byte)(gap | 0x80);
+				gap >>>= 7;
+			}
+			bytes[n++] = (byte)gap;
+		}
+		return Arrays.copyOf(bytes, n);
+	}
+
+	/**
+	 * Finds the first element of a sorted range that is not less than a key, by galloping:
+	 * the step doubles until the key is passed, then binary search narrows it down. The cost
+	 * is O(log d), where d is the distance from the start of the range to the result, so a
+	 * sweep through a long list by increasing keys costs far less than a binary search per key.
+	 *
+	 * @param a Sorted array
+	 * @param from First index of the range
+	 * @param to Index just past the range
+	 * @param key Key
+	 * @return Index of the first element not less than key, to if there is none
+	 */
+	static int gallop(int[] a, int from, int to, int key) {
+		int step = 1;
+		int lo = from;
+		int hi = from;
+		while (hi < to && a[hi] < key) {
+			lo = hi + 1;
+			hi = from + step;
+			step <<= 1;
+		}
+		hi = Math.min(hi, to);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < key) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "(" + document + "," + frequency + "," + Arrays.toString(positions()) + ")";
+	}
+}
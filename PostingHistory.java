@@ -0,0 +1,285 @@
+package lse;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * This class keeps the history of the postings of one keyword in a shard of a
+ * ShardedSearchEngine: for every frequency, the stamps at which postings with that frequency
+ * were inserted and removed, and the place of each posting in its run of equal frequencies as of
+ * the last settlement. Stamps only grow, so the stamp arrays stay sorted by appending to them,
+ * and the number of postings in the keyword's list at any stamp is found by binary search.
+ *
+ * Removed postings are kept until the keyword is settled, which records the place of every
+ * posting still in the index and drops all the removed ones; see ShardedSearchEngine.
+ */
+class PostingHistory {
+
+	/**
+	 * Postings of the keyword with one frequency, in order of insertion.
+	 */
+	static class Run {
+
+		/**
+		 * Insertion stamps, ascending.
+		 */
+		long[] inserted = new long[2];
+
+		/**
+		 * Removal stamp of each posting, Long.MAX_VALUE if it is in the index; null if no
+		 * posting has been removed.
+		 */
+		long[] removed;
+
+		/**
+		 * Place of each posting in the run at the last settlement, -1 if it was inserted since;
+		 * null if the run has not been settled.
+		 */
+		int[] ranks;
+
+		/**
+		 * Number of postings.
+		 */
+		int size;
+
+		/**
+		 * Removal stamps, ascending.
+		 */
+		long[] removals = new long[0];
+
+		/**
+		 * Number of removal stamps.
+		 */
+		int removalCount;
+
+		/**
+		 * Returns the number of postings in the index at a stamp: those inserted before it and not
+		 * removed at or before it.
+		 *
+		 * @param stamp Stamp
+		 * @return Number of postings
+		 */
+		int alive(long stamp) {
+			return below(inserted, size, stamp) - below(removals, removalCount, stamp + 1);
+		}
+
+		/**
+		 * Returns the index of a posting.
+		 *
+		 * @param stamp Insertion stamp of the posting
+		 * @return Index of the posting
+		 * @throws IllegalStateException If there is no such posting
+		 */
+		int indexOf(long stamp) {
+			int i = Arrays.binarySearch(inserted, 0, size, stamp);
+			if (i < 0) {
+				throw new IllegalStateException("No posting inserted at " + stamp);
+			}
+			return i;
+		}
+
+		/**
+		 * Returns the removal stamp of a posting.
+		 *
+		 * @param i Index of the posting
+		 * @return Removal stamp, Long.MAX_VALUE if the posting is in the index
+		 */
+		long removed(int i) {
+			return removed == null ? Long.MAX_VALUE : removed[i];
+		}
+
+		/**
+		 * Returns the place of a posting at the last settlement.
+		 *
+		 * @param i Index of the posting
+		 * @return Place, -1 if the posting was inserted since
+		 */
+		int rank(int i) {
+			return ranks == null ? -1 : ranks[i];
+		}
+	}
+
+	/**
+	 * Runs, by frequency.
+	 */
+	final TreeMap<Integer,Run> runs = new TreeMap<Integer,Run>();
+
+	/**
+	 * Number of postings in the index.
+	 */
+	int live;
+
+	/**
+	 * Number of removed postings kept.
+	 */
+	int dead;
+
+	/**
+	 * Records the insertion of a posting.
+	 *
+	 * @param frequency Frequency of the posting
+	 * @param stamp Stamp of the insertion, greater than those of all postings recorded so far
+	 */
+	void insert(int frequency, long stamp) {
+		Run run = runs.get(frequency);
+		if (run == null) {
+			run = new Run();
+			runs.put(frequency, run);
+		}
+		if (run.size == run.inserted.length) {
+			int capacity = 2 * run.size;
+			run.inserted = Arrays.copyOf(run.inserted, capacity);
+			if (run.removed != null) {
+				run.removed = Arrays.copyOf(run.removed, capacity);
+			}
+			if (run.ranks != null) {
+				run.ranks = Arrays.copyOf(run.ranks, capacity);
+			}
+		}
+		run.inserted[run.size] = stamp;
+		if (run.removed != null) {
+			run.removed[run.size] = Long.MAX_VALUE;
+		}
+		if (run.ranks != null) {
+			run.ranks[run.size] = -1;
+		}
+		run.size++;
+		live++;
+	}
+
+	/**
+	 * Records the removal of a posting.
+	 *
+	 * @param frequency Frequency of the posting
+	 * @param inserted Stamp of its insertion
+	 * @param stamp Stamp of the removal, greater than those of all removals recorded so far
+	 */
+	void remove(int frequency, long inserted, long stamp) {
+		Run run = runs.get(frequency);
+		if (run == null) {
+			throw new IllegalStateException("No posting with frequency " + frequency);
+		}
+		int i = run.indexOf(inserted);
+		if (run.removed == null) {
+			run.removed = new long[run.inserted.length];
+			Arrays.fill(run.removed, Long.MAX_VALUE);
+		}
+		run.removed[i] = stamp;
+		if (run.removalCount == run.removals.length) {
+			run.removals = Arrays.copyOf(run.removals, Math.max(2, 2 * run.removalCount));
+		}
+		run.removals[run.removalCount++] = stamp;
+		live--;
+		dead++;
+	}
+
+	/**
+	 * Tells whether removed postings outnumber those in the index, by enough to be worth a
+	 * settlement.
+	 *
+	 * @param minimum Least number of removed postings worth a settlement
+	 * @return True if the keyword should be settled
+	 */
+	boolean crowded(int minimum) {
+		return dead >= minimum && dead > live;
+	}
+
+	/**
+	 * Counts the postings with greater and with smaller frequencies than a given one that were
+	 * in the index at each of the given stamps.
+	 *
+	 * @param frequency Frequency
+	 * @param stamps Stamps
+	 * @return For each stamp, the number of postings with greater frequencies and the number with
+	 *         smaller frequencies, interleaved
+	 */
+	int[] counts(int frequency, long[] stamps) {
+		int[] counts = new int[2 * stamps.length];
+		for (Entry<Integer,Run> e : runs.entrySet()) {
+			if (e.getKey() == frequency) {
+				continue;
+			}
+			int slot = e.getKey() > frequency ? 0 : 1;
+			Run run = e.getValue();
+			for (int i = 0; i < stamps.length; i++) {
+				counts[2 * i + slot] += run.alive(stamps[i]);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the place of a posting at the last settlement.
+	 *
+	 * @param frequency Frequency of the posting
+	 * @param inserted Stamp of its insertion
+	 * @return Place, -1 if the posting was inserted since
+	 */
+	int rank(int frequency, long inserted) {
+		Run run = runs.get(frequency);
+		return run.rank(run.indexOf(inserted));
+	}
+
+	/**
+	 * Settles the keyword: drops all removed postings, and records the place of each posting in
+	 * the index. Only stamps after the settlement may be recorded from then on.
+	 *
+	 * @param places Postings in the index, with their places as ranks; every posting in the index
+	 *        must be there
+	 */
+	void settle(List<ShardedSearchEngine.Insertion> places) {
+		for (Iterator<Run> it = runs.values().iterator(); it.hasNext(); ) {
+			Run run = it.next();
+			int n = 0;
+			for (int i = 0; i < run.size; i++) {
+				if (run.removed(i) == Long.MAX_VALUE) {
+					run.inserted[n++] = run.inserted[i];
+				}
+			}
+			if (n == 0) {
+				it.remove();
+				continue;
+			}
+			run.size = n;
+			run.removed = null;
+			run.removals = new long[0];
+			run.removalCount = 0;
+			run.ranks = new int[run.inserted.length];
+			Arrays.fill(run.ranks, -1);
+		}
+		dead = 0;
+		for (ShardedSearchEngine.Insertion place : places) {
+			Run run = runs.get(place.frequency);
+			if (run == null) {
+				throw new IllegalStateException("No posting with frequency " + place.frequency);
+			}
+			run.ranks[run.indexOf(place.inserted)] = place.rank;
+		}
+	}
+
+	/**
+	 * Returns the number of elements of a sorted range that are less than a key.
+	 *
+	 * @param a Sorted array
+	 * @param n Length of the range, from index 0
+	 * @param key Key
+	 * @return Number of elements less than key
+	 */
+	static int below(long[] a, int n, long key) {
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < key) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,210 @@
+package lse;
+
+import java.util.Arrays;
+
+/**
+ * This class is a compact list of (document id, frequency) postings for one keyword, kept in
+ * DESCENDING order of frequencies, like the Occurrence lists of LittleSearchEngine.
+ *
+ * Document ids are stored in a plain int array. Since the list is sorted by frequency,
+ * postings with the same frequency are contiguous, so frequencies are stored once per run
+ * of equal frequencies rather than once per posting. A posting therefore costs 4 bytes plus
+ * a small share of its run, instead of an Occurrence object and an ArrayList slot.
+ */
+public class PostingList {
+
+	/**
+	 * Document ids, in list order.
+	 */
+	int[] docs;
+
+	/**
+	 * Number of postings in the list.
+	 */
+	int size;
+
+	/**
+	 * Frequency of each run, in descending order.
+	 */
+	int[] runFreqs;
+
+	/**
+	 * Index just past the last posting of each run.
+	 */
+	int[] runEnds;
+
+	/**
+	 * Number of runs.
+	 */
+	int runs;
+
+	/**
+	 * Creates an empty posting list.
+	 */
+	public PostingList() {
+		docs = new int[2];
+		runFreqs = new int[1];
+		runEnds = new int[1];
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return Number of postings
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the document id of a posting.
+	 *
+	 * @param i Index of the posting
+	 * @return Document id
+	 */
+	public int document(int i) {
+		return docs[i];
+	}
+
+	/**
+	 * Returns the frequency of a posting.
+	 *
+	 * @param i Index of the posting
+	 * @return Frequency
+	 */
+	public int frequency(int i) {
+		return runFreqs[runOf(i)];
+	}
+
+	/**
+	 * Returns the run that holds the posting at the given index.
+	 *
+	 * @param i Index of the posting
+	 * @return Run number
+	 */
+	int runOf(int i) {
+		int lo = 0;
+		int hi = runs - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (runEnds[mid] > i) {
+				hi = mid;
+			}
+			else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Appends a posting at the end of the list. The frequency must not be greater than
+	 * the frequency of the current last posting.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	public void append(int doc, int freq) {
+		if (runs > 0 && freq > runFreqs[runs - 1]) {
+			throw new IllegalArgumentException("Frequency " + freq + " breaks descending order");
+		}
+		insertAt(size, doc, freq);
+	}
+
+	/**
+	 * Inserts a posting at the place LittleSearchEngine.insertLastOccurrence would put it, if
+	 * it were appended to the equivalent Occurrence list. This keeps ties in the same order as
+	 * in the Occurrence lists.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 * @return Index at which the posting was inserted
+	 */
+	public int insertLast(int doc, int freq) {
+		int pos = 0;
+		int first = 0;
+		int last = size - 1;
+		while (first <= last) {
+			int center = (first + last) / 2;
+			int f = frequency(center);
+			if (first == last) {
+				pos = freq >= f ? center : center + 1;
+				break;
+			}
+			else if (freq == f) {
+				pos = center;
+				break;
+			}
+			else if (freq > f) {
+				last = center;
+			}
+			else {
+				first = center + 1;
+			}
+		}
+		insertAt(pos, doc, freq);
+		return pos;
+	}
+
+	/**
+	 * Inserts a posting at the given index, which must respect the descending order.
+	 *
+	 * @param pos Index of the new posting
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	private void insertAt(int pos, int doc, int freq) {
+		if (size == docs.length) {
+			docs = Arrays.copyOf(docs, size + (size >> 1) + 1);
+		}
+		System.arraycopy(docs, pos, docs, pos + 1, size - pos);
+		docs[pos] = doc;
+		size++;
+
+		// runs are in descending order of frequency; find the run for freq, or where it goes
+		int r = 0;
+		int hi = runs;
+		while (r < hi) {
+			int mid = (r + hi) >>> 1;
+			if (runFreqs[mid] > freq) {
+				r = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		if (r == runs || runFreqs[r] != freq) {
+			if (runs == runFreqs.length) {
+				runFreqs = Arrays.copyOf(runFreqs, 2 * runs);
+				runEnds = Arrays.copyOf(runEnds, 2 * runs);
+			}
+			System.arraycopy(runFreqs, r, runFreqs, r + 1, runs - r);
+			System.arraycopy(runEnds, r, runEnds, r + 1, runs - r);
+			runFreqs[r] = freq;
+			runEnds[r] = pos;
+			runs++;
+		}
+		for (int i = r; i < runs; i++) {
+			runEnds[i]++;
+		}
+	}
+
+	/**
+	 * Releases unused capacity.
+	 */
+	public void trimToSize() {
+		docs = Arrays.copyOf(docs, size);
+		runFreqs = Arrays.copyOf(runFreqs, Math.max(1, runs));
+		runEnds = Arrays.copyOf(runEnds, Math.max(1, runs));
+	}
+
+	/**
+	 * Returns an estimate of the heap bytes held by this list: the object itself, and its
+	 * three arrays with their headers.
+	 *
+	 * @return Estimated bytes
+	 */
+	public long heapBytes() {
+		return 32L + 3 * 16L + 4L * docs.length + 8L * runFreqs.length;
+	}
+}
@@ -0,0 +1,264 @@
+package lse;
+
+import java.util.*;
+
+/**
+ * This class is a bounded cache of search results, keyed on the keywords of a query (in order,
+ * since the order breaks ties) and the number of results asked for.
+ *
+ * Entries are evicted in least-recently-used order once the cache is full, and expire once they
+ * are older than the time-to-live. The cache also keeps, for every keyword, the set of cached
+ * queries that use it, so that when a keyword's occurrences change only those queries are dropped.
+ *
+ * Hit, miss, eviction and invalidation counts are kept to help size the cache.
+ * All methods are synchronized.
+ */
+public class QueryCache {
+
+	/**
+	 * A cached query: keywords in order, plus the result limit.
+	 */
+	private static final class Key {
+
+		/**
+		 * Keywords of the query.
+		 */
+		final List<String> keywords;
+
+		/**
+		 * Maximum number of results.
+		 */
+		final int k;
+
+		/**
+		 * Initializes a key.
+		 *
+		 * @param keywords Keywords of the query
+		 * @param k Maximum number of results
+		 */
+		Key(List<String> keywords, int k) {
+			this.keywords = keywords;
+			this.k = k;
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Key && k == ((Key)other).k && keywords.equals(((Key)other).keywords);
+		}
+
+		public int hashCode() {
+			return 31 * keywords.hashCode() + k;
+		}
+	}
+
+	/**
+	 * A cached result.
+	 */
+	private static final class Result {
+
+		/**
+		 * Documents found.
+		 */
+		final ArrayList<String> documents;
+
+		/**
+		 * System.nanoTime when the result was cached.
+		 */
+		final long created;
+
+		/**
+		 * Initializes a result.
+		 *
+		 * @param documents Documents found
+		 * @param created Time the result was cached
+		 */
+		Result(ArrayList<String> documents, long created) {
+			this.documents = documents;
+			this.created = created;
+		}
+	}
+
+	/**
+	 * Maximum number of cached queries.
+	 */
+	private final int maxEntries;
+
+	/**
+	 * Time-to-live of an entry, in nanoseconds. 0 means entries do not expire.
+	 */
+	private final long ttlNanos;
+
+	/**
+	 * Cached results, in least-recently-used order.
+	 */
+	private final LinkedHashMap<Key,Result> results;
+
+	/**
+	 * Cached queries that use each keyword.
+	 */
+	private final HashMap<String,HashSet<Key>> queriesByKeyword;
+
+	/**
+	 * Counters.
+	 */
+	private long hits, misses, evictions, invalidations;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxEntries Maximum number of cached queries
+	 * @param ttlMillis Time-to-live of an entry in milliseconds, 0 for no expiry
+	 */
+	public QueryCache(int maxEntries, long ttlMillis) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		ttlNanos = ttlMillis * 1000000L;
+		results = new LinkedHashMap<Key,Result>(16, 0.75f, true);
+		queriesByKeyword = new HashMap<String,HashSet<Key>>();
+	}
+
+	/**
+	 * Returns the cached result of a query.
+	 *
+	 * @param keywords Keywords of the query
+	 * @param k Maximum number of results
+	 * @return Copy of the cached documents, null on a miss
+	 */
+	public synchronized ArrayList<String> get(List<String> keywords, int k) {
+		Key key = new Key(keywords, k);
+		Result result = results.get(key);
+		if (result != null && ttlNanos > 0 && System.nanoTime() - result.created > ttlNanos) {
+			remove(key);
+			evictions++;
+			result = null;
+		}
+		if (result == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<String>(result.documents);
+	}
+
+	/**
+	 * Caches the result of a query, evicting the least recently used entry if the cache is full.
+	 *
+	 * @param keywords Keywords of the query
+	 * @param k Maximum number of results
+	 * @param documents Documents found; a copy is cached
+	 */
+	public synchronized void put(List<String> keywords, int k, ArrayList<String> documents) {
+		Key key = new Key(new ArrayList<String>(keywords), k);
+		if (results.put(key, new Result(new ArrayList<String>(documents), System.nanoTime())) == null) {
+			for (String keyword : key.keywords) {
+				HashSet<Key> queries = queriesByKeyword.get(keyword);
+				if (queries == null) {
+					queries = new HashSet<Key>();
+					queriesByKeyword.put(keyword, queries);
+				}
+				queries.add(key);
+			}
+		}
+		while (results.size() > maxEntries) {
+			remove(results.keySet().iterator().next());
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every cached query that uses the given keyword.
+	 *
+	 * @param keyword Keyword whose occurrences have changed
+	 */
+	public synchronized void invalidate(String keyword) {
+		HashSet<Key> queries = queriesByKeyword.get(keyword);
+		if (queries == null) {
+			return;
+		}
+		for (Key key : new ArrayList<Key>(queries)) {
+			remove(key);
+			invalidations++;
+		}
+	}
+
+	/**
+	 * Drops every cached query.
+	 */
+	public synchronized void clear() {
+		invalidations += results.size();
+		results.clear();
+		queriesByKeyword.clear();
+	}
+
+	/**
+	 * Removes a cached query and its keyword links.
+	 *
+	 * @param key Query
+	 */
+	private void remove(Key key) {
+		results.remove(key);
+		for (String keyword : key.keywords) {
+			HashSet<Key> queries = queriesByKeyword.get(keyword);
+			if (queries != null) {
+				queries.remove(key);
+				if (queries.isEmpty()) {
+					queriesByKeyword.remove(keyword);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached queries.
+	 *
+	 * @return Number of entries
+	 */
+	public synchronized int size() {
+		return results.size();
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 *
+	 * @return Hit count
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups not answered from the cache.
+	 *
+	 * @return Miss count
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of entries dropped because the cache was full or they had expired.
+	 *
+	 * @return Eviction count
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of entries dropped because a keyword they use changed.
+	 *
+	 * @return Invalidation count
+	 */
+	public synchronized long invalidations() {
+		return invalidations;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "QueryCache(size=" + results.size() + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + ", invalidations=" + invalidations + ")";
+	}
+}
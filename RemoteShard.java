@@ -0,0 +1,182 @@
+package lse;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a shard of a ShardedSearchEngine served by a ShardServer, possibly in another
+ * JVM, over one connection on the loopback address. See ShardServer for the protocol. Requests
+ * are sent one at a time; errors reported by the server are thrown as IOExceptions.
+ */
+public class RemoteShard implements ShardedSearchEngine.Shard {
+
+	/**
+	 * Connection to the server.
+	 */
+	private final Socket socket;
+
+	/**
+	 * Responses from the server.
+	 */
+	private final BufferedReader in;
+
+	/**
+	 * Requests to the server.
+	 */
+	private final Writer out;
+
+	/**
+	 * Connects to a shard server on this machine.
+	 *
+	 * @param port Port of the server
+	 * @throws IOException If the server cannot be reached
+	 */
+	public RemoteShard(int port)
+			throws IOException {
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		socket.setTcpNoDelay(true);
+		in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+	}
+
+	public synchronized void makeIndex(String docsFile, String noiseWordsFile)
+			throws IOException {
+		request("MAKEINDEX\t" + docsFile + "\t" + noiseWordsFile);
+	}
+
+	public synchronized void addDocument(String docFile, long stamp)
+			throws IOException {
+		request("ADD\t" + stamp + "\t" + docFile);
+	}
+
+	public synchronized boolean removeDocument(String docFile, long stamp)
+			throws IOException {
+		return Boolean.parseBoolean(request("REMOVE\t" + stamp + "\t" + docFile));
+	}
+
+	public synchronized ArrayList<ShardedSearchEngine.Hit> topK(List<String> keywords, int k)
+			throws IOException {
+		StringBuilder line = new StringBuilder("TOPK\t").append(k);
+		for (String keyword : keywords) {
+			line.append('\t').append(keyword);
+		}
+		int n = Integer.parseInt(request(line.toString()));
+		ArrayList<ShardedSearchEngine.Hit> hits = new ArrayList<ShardedSearchEngine.Hit>(n);
+		for (int i = 0; i < n; i++) {
+			String[] fields = readLine().split("\t");
+			hits.add(new ShardedSearchEngine.Hit(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+		}
+		return hits;
+	}
+
+	public synchronized ArrayList<ShardedSearchEngine.Insertion> run(String keyword, int frequency)
+			throws IOException {
+		int n = Integer.parseInt(request("RUN\t" + keyword + "\t" + frequency));
+		ArrayList<ShardedSearchEngine.Insertion> run = new ArrayList<ShardedSearchEngine.Insertion>(n);
+		for (int i = 0; i < n; i++) {
+			String[] fields = readLine().split("\t", -1);
+			run.add(new ShardedSearchEngine.Insertion(fields[3].isEmpty() ? null : fields[3], frequency,
+					Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2])));
+		}
+		return run;
+	}
+
+	public synchronized int[] counts(String keyword, int frequency, long[] stamps)
+			throws IOException {
+		StringBuilder line = new StringBuilder("COUNTS\t").append(keyword).append('\t').append(frequency);
+		for (long stamp : stamps) {
+			line.append('\t').append(stamp);
+		}
+		int n = Integer.parseInt(request(line.toString()));
+		int[] counts = new int[2 * n];
+		for (int i = 0; i < n; i++) {
+			String[] fields = readLine().split("\t");
+			counts[2 * i] = Integer.parseInt(fields[0]);
+			counts[2 * i + 1] = Integer.parseInt(fields[1]);
+		}
+		return counts;
+	}
+
+	public synchronized ArrayList<String> crowded()
+			throws IOException {
+		int n = Integer.parseInt(request("CROWDED"));
+		ArrayList<String> keywords = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++) {
+			keywords.add(readLine());
+		}
+		return keywords;
+	}
+
+	public synchronized ArrayList<ArrayList<ShardedSearchEngine.Insertion>> history(List<String> keywords)
+			throws IOException {
+		StringBuilder line = new StringBuilder("HISTORY");
+		ArrayList<ArrayList<ShardedSearchEngine.Insertion>> history = new ArrayList<ArrayList<ShardedSearchEngine.Insertion>>(keywords.size());
+		for (String keyword : keywords) {
+			line.append('\t').append(keyword);
+			history.add(new ArrayList<ShardedSearchEngine.Insertion>());
+		}
+		int n = Integer.parseInt(request(line.toString()));
+		for (int i = 0; i < n; i++) {
+			String[] fields = readLine().split("\t");
+			history.get(Integer.parseInt(fields[0])).add(new ShardedSearchEngine.Insertion(null, Integer.parseInt(fields[1]),
+					Long.parseLong(fields[2]), Long.parseLong(fields[3]), Integer.parseInt(fields[4])));
+		}
+		return history;
+	}
+
+	public synchronized void settle(List<String> keywords, List<ArrayList<ShardedSearchEngine.Insertion>> places)
+			throws IOException {
+		StringBuilder line = new StringBuilder("SETTLE");
+		for (int w = 0; w < keywords.size(); w++) {
+			line.append('\t').append(keywords.get(w)).append('\t').append(places.get(w).size());
+			for (ShardedSearchEngine.Insertion place : places.get(w)) {
+				line.append('\t').append(place.frequency).append('\t').append(place.inserted).append('\t').append(place.rank);
+			}
+		}
+		request(line.toString());
+	}
+
+	/**
+	 * Sends a request and reads the first line of its response.
+	 *
+	 * @param line Request line
+	 * @return Message after "OK", empty if there is none
+	 * @throws IOException If the server reports an error, or cannot be reached
+	 */
+	private String request(String line)
+			throws IOException {
+		out.write(line);
+		out.write('\n');
+		out.flush();
+		String response = readLine();
+		if (response.startsWith("OK")) {
+			return response.length() > 3 ? response.substring(3) : "";
+		}
+		throw new IOException("Shard on port " + socket.getPort() + ": "
+				+ (response.startsWith("ERR ") ? response.substring(4) : response));
+	}
+
+	/**
+	 * Reads a response line.
+	 *
+	 * @return Line
+	 * @throws IOException If the connection is closed or broken
+	 */
+	private String readLine()
+			throws IOException {
+		String line = in.readLine();
+		if (line == null) {
+			throw new EOFException("Shard on port " + socket.getPort() + " closed the connection");
+		}
+		return line;
+	}
+
+	public synchronized void close()
+			throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,247 @@
+package lse;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class serves one shard of a ShardedSearchEngine over a local socket, so that the shard
+ * can live in a JVM, and a heap, of its own. A RemoteShard is the client side.
+ *
+ * The protocol is line based, in UTF-8. Every request is one line, its fields separated by
+ * tabs, and gets a response that starts with "OK" or "ERR" and a message:
+ * <pre>
+ *     MAKEINDEX docsFile noiseWordsFile   OK
+ *     ADD stamp docFile                   OK
+ *     REMOVE stamp docFile                OK true|false
+ *     TOPK k keyword...                   OK n, then n lines: document frequency keywordIndex
+ *     RUN keyword frequency               OK n, then n lines: inserted removed rank document
+ *     COUNTS keyword frequency stamp...   OK n, then n lines: greater less
+ *     CROWDED                             OK n, then n lines: keyword
+ *     HISTORY keyword...                  OK n, then n lines: keywordIndex frequency inserted
+ *                                                             removed rank
+ *     SETTLE (keyword n (frequency inserted rank)*n)...   OK
+ * </pre>
+ * The lines of a docs file are a stamp and a document file name, and RUN leaves the document
+ * empty for removed postings; see ShardedSearchEngine.Shard for what the requests do.
+ * File names are resolved by the server, so the server must see the same files as the client;
+ * names and keywords must not contain tabs or line breaks. Each connection is served by its own
+ * thread, and requests on the shard are run one at a time.
+ *
+ * The server only listens on the loopback address, since the protocol has no authentication.
+ * To run a shard on its own:
+ *
+ *     java lse.ShardServer port
+ *
+ * which prints the port it listens on (useful with port 0, for any free port).
+ */
+public class ShardServer implements Closeable {
+
+	/**
+	 * Shard served.
+	 */
+	private final ShardedSearchEngine.LocalShard shard;
+
+	/**
+	 * Listening socket.
+	 */
+	private final ServerSocket server;
+
+	/**
+	 * Starts listening for connections on the loopback address. Connections are only accepted
+	 * once serve is running.
+	 *
+	 * @param engine Engine to serve as a shard, empty
+	 * @param port Port, 0 for any free port
+	 * @throws IOException If the port cannot be opened
+	 */
+	public ShardServer(LittleSearchEngine engine, int port)
+			throws IOException {
+		shard = new ShardedSearchEngine.LocalShard(engine);
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 *
+	 * @return Port
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the server is closed, serving each on a new thread.
+	 */
+	public void serve() {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				// closed, or a failed connection; the loop condition tells which
+				continue;
+			}
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					handle(socket);
+				}
+			}, "shard-connection");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Serves the requests of one connection until the client closes it.
+	 *
+	 * @param socket Connection
+	 */
+	void handle(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				try {
+					respond(line.split("\t", -1), out);
+				} catch (IOException | RuntimeException e) {
+					out.write("ERR " + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n");
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			// the client went away; nothing to answer
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * Runs one request and writes its response.
+	 *
+	 * @param fields Fields of the request line
+	 * @param out Response stream
+	 * @throws IOException If the request fails, or the response cannot be written
+	 */
+	private void respond(String[] fields, Writer out)
+			throws IOException {
+		String command = fields[0];
+		if (command.equals("MAKEINDEX") && fields.length == 3) {
+			shard.makeIndex(fields[1], fields[2]);
+			out.write("OK\n");
+		}
+		else if (command.equals("ADD") && fields.length == 3) {
+			shard.addDocument(fields[2], Long.parseLong(fields[1]));
+			out.write("OK\n");
+		}
+		else if (command.equals("REMOVE") && fields.length == 3) {
+			out.write("OK " + shard.removeDocument(fields[2], Long.parseLong(fields[1])) + "\n");
+		}
+		else if (command.equals("TOPK") && fields.length >= 2) {
+			List<String> keywords = Arrays.asList(fields).subList(2, fields.length);
+			ArrayList<ShardedSearchEngine.Hit> hits = shard.topK(keywords, Integer.parseInt(fields[1]));
+			StringBuilder response = new StringBuilder();
+			response.append("OK ").append(hits.size()).append('\n');
+			for (ShardedSearchEngine.Hit hit : hits) {
+				response.append(hit.document).append('\t').append(hit.frequency).append('\t').append(hit.keyword).append('\n');
+			}
+			out.write(response.toString());
+		}
+		else if (command.equals("RUN") && fields.length == 3) {
+			ArrayList<ShardedSearchEngine.Insertion> run = shard.run(fields[1], Integer.parseInt(fields[2]));
+			StringBuilder response = new StringBuilder();
+			response.append("OK ").append(run.size()).append('\n');
+			for (ShardedSearchEngine.Insertion posting : run) {
+				response.append(posting.inserted).append('\t').append(posting.removed).append('\t').append(posting.rank).append('\t')
+						.append(posting.document == null ? "" : posting.document).append('\n');
+			}
+			out.write(response.toString());
+		}
+		else if (command.equals("COUNTS") && fields.length >= 3) {
+			long[] stamps = new long[fields.length - 3];
+			for (int i = 0; i < stamps.length; i++) {
+				stamps[i] = Long.parseLong(fields[i + 3]);
+			}
+			int[] counts = shard.counts(fields[1], Integer.parseInt(fields[2]), stamps);
+			StringBuilder response = new StringBuilder();
+			response.append("OK ").append(stamps.length).append('\n');
+			for (int i = 0; i < stamps.length; i++) {
+				response.append(counts[2 * i]).append('\t').append(counts[2 * i + 1]).append('\n');
+			}
+			out.write(response.toString());
+		}
+		else if (command.equals("CROWDED") && fields.length == 1) {
+			ArrayList<String> keywords = shard.crowded();
+			StringBuilder response = new StringBuilder();
+			response.append("OK ").append(keywords.size()).append('\n');
+			for (String keyword : keywords) {
+				response.append(keyword).append('\n');
+			}
+			out.write(response.toString());
+		}
+		else if (command.equals("HISTORY")) {
+			List<String> keywords = Arrays.asList(fields).subList(1, fields.length);
+			ArrayList<ArrayList<ShardedSearchEngine.Insertion>> history = shard.history(keywords);
+			StringBuilder lines = new StringBuilder();
+			int n = 0;
+			for (int w = 0; w < history.size(); w++) {
+				for (ShardedSearchEngine.Insertion posting : history.get(w)) {
+					lines.append(w).append('\t').append(posting.frequency).append('\t').append(posting.inserted).append('\t')
+							.append(posting.removed).append('\t').append(posting.rank).append('\n');
+					n++;
+				}
+			}
+			out.write("OK " + n + "\n" + lines);
+		}
+		else if (command.equals("SETTLE")) {
+			ArrayList<String> keywords = new ArrayList<String>();
+			ArrayList<ArrayList<ShardedSearchEngine.Insertion>> places = new ArrayList<ArrayList<ShardedSearchEngine.Insertion>>();
+			for (int i = 1; i < fields.length; ) {
+				keywords.add(fields[i]);
+				int n = Integer.parseInt(fields[i + 1]);
+				i += 2;
+				ArrayList<ShardedSearchEngine.Insertion> list = new ArrayList<ShardedSearchEngine.Insertion>(n);
+				for (int j = 0; j < n; j++, i += 3) {
+					list.add(new ShardedSearchEngine.Insertion(null, Integer.parseInt(fields[i]), Long.parseLong(fields[i + 1]),
+							Long.MAX_VALUE, Integer.parseInt(fields[i + 2])));
+				}
+				places.add(list);
+			}
+			shard.settle(keywords, places);
+			out.write("OK\n");
+		}
+		else {
+			throw new IllegalArgumentException("Bad request " + command + " with " + (fields.length - 1) + " fields");
+		}
+	}
+
+	/**
+	 * Stops accepting connections. Connections already open are served until they close.
+	 *
+	 * @throws IOException If the socket cannot be closed
+	 */
+	public void close()
+			throws IOException {
+		server.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java lse.ShardServer port");
+			System.exit(2);
+		}
+		ShardServer server = new ShardServer(new LittleSearchEngine(), Integer.parseInt(args[0]));
+		System.out.println("Shard listening on port " + server.getPort());
+		server.serve();
+	}
+}
@@ -0,0 +1,1291 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class is a keyword index split by document across several shards. Each document
+ * belongs to exactly one shard, chosen from the hash of its name, and each shard is an index
+ * of its own: a LittleSearchEngine in this JVM, or one served by a ShardServer in another JVM
+ * and reached through a RemoteShard. The corpus is then limited by the heaps of all shards
+ * together, and building and searching use one thread per shard.
+ *
+ * makeIndex splits the docs file into one list per shard, and all shards index their lists at
+ * the same time. A topK query is sent to every shard at once (scatter), and the partial results
+ * are merged (gather). Since a document is in only one shard, its best frequency over the
+ * keywords is known to that shard alone, and any document in the overall top k is, in its shard,
+ * either in the top k or tied with the k-th; each shard returns both, so the gather has every
+ * document that can be in the result, and sorts them in descending order of frequency and then
+ * in favor of the earlier keyword.
+ *
+ * That leaves ties, documents with the same frequency for the same keyword. insertLastOccurrence
+ * places a document by binary search over the whole occurrence list as it was when the document
+ * was added, so a single index orders ties by the history of the list, which no shard knows on
+ * its own. Every change is therefore given a stamp, in the order changes are made, and each shard
+ * keeps, for every keyword and frequency, the stamps at which its postings were inserted and
+ * removed (see PostingHistory), in arrays that stay sorted as changes are appended. For each
+ * group of tied results, the gather asks the shards for the postings, past and present, with
+ * that keyword and frequency, and then for the numbers of postings with greater and with smaller
+ * frequencies in the keyword's list when each of them was inserted. That is all the binary search
+ * looks at, so replaying the insertions and removals in stamp order, into a tree that inserts at
+ * an index in O(log n), gives the group the order a single LittleSearchEngine that made the same
+ * changes would give it.
+ *
+ * Removed postings are only needed to replay the insertions made while they were in the index.
+ * Once removed postings of a keyword outnumber those in the index, the keyword is settled: the
+ * coordinator replays the whole history of the keyword, tells the shards the place of each of
+ * their postings in its run of equal frequencies, and the shards drop the removed postings. Later
+ * replays start from those places. Shards are asked for keywords to settle every SETTLE_INTERVAL
+ * changes, so removed postings never take much more room than the postings in the index.
+ *
+ * The results are therefore the same documents in the same order as those of a single index,
+ * ties included; each group of ties costs two more requests to every shard. Changes take a write
+ * lock and queries a read lock, so a query never sees a change half made.
+ */
+public class ShardedSearchEngine implements Closeable {
+
+	/**
+	 * One partition of the index. Changes come with stamps, which increase in the order the
+	 * changes are made; see the class comment for what they are for.
+	 */
+	public interface Shard extends Closeable {
+
+		/**
+		 * Indexes the documents listed in a docs file, as LittleSearchEngine.makeIndex does.
+		 *
+		 * @param docsFile Name of file that has a list of the shard's documents, one per line: the
+		 *        stamp of the document, whitespace, and the document file name
+		 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+		 * @throws IOException If an input file cannot be read, or the shard cannot be reached
+		 */
+		void makeIndex(String docsFile, String noiseWordsFile) throws IOException;
+
+		/**
+		 * Adds or replaces a single document, as LittleSearchEngine.addDocument does.
+		 *
+		 * @param docFile Name of the document file
+		 * @param stamp Stamp of the change
+		 * @throws IOException If the document cannot be read, or the shard cannot be reached
+		 */
+		void addDocument(String docFile, long stamp) throws IOException;
+
+		/**
+		 * Removes a document, as LittleSearchEngine.removeDocument does.
+		 *
+		 * @param docFile Name of the document file
+		 * @param stamp Stamp of the change
+		 * @return True if the document was indexed, false otherwise
+		 * @throws IOException If the shard cannot be reached
+		 */
+		boolean removeDocument(String docFile, long stamp) throws IOException;
+
+		/**
+		 * Runs a topK query on the shard, and adds the other documents that tie with the k-th.
+		 *
+		 * @param keywords Keywords, in order of precedence
+		 * @param k Maximum number of results
+		 * @return The shard's topK result, each document with its best frequency and keyword,
+		 *         followed by every other document with the same frequency and keyword as the k-th
+		 * @throws IOException If the shard cannot be reached
+		 */
+		ArrayList<Hit> topK(List<String> keywords, int k) throws IOException;
+
+		/**
+		 * Returns the postings of a keyword with a given frequency, those in the index and those
+		 * removed from it since the keyword was last settled.
+		 *
+		 * @param keyword Keyword
+		 * @param frequency Frequency
+		 * @return Postings, in no particular order
+		 * @throws IOException If the shard cannot be reached
+		 */
+		ArrayList<Insertion> run(String keyword, int frequency) throws IOException;
+
+		/**
+		 * Counts the postings of a keyword with greater and with smaller frequencies than a given
+		 * one, in the keyword's list as it was at each of the given stamps: the postings inserted
+		 * before the stamp and not removed at or before it.
+		 *
+		 * @param keyword Keyword
+		 * @param frequency Frequency
+		 * @param stamps Stamps
+		 * @return For each stamp, the number of postings with greater frequencies and the number
+		 *         with smaller frequencies, interleaved
+		 * @throws IOException If the shard cannot be reached
+		 */
+		int[] counts(String keyword, int frequency, long[] stamps) throws IOException;
+
+		/**
+		 * Returns the keywords whose removed postings have come to outnumber their postings in
+		 * the index since the last call, so that they can be settled.
+		 *
+		 * @return Keywords to settle
+		 * @throws IOException If the shard cannot be reached
+		 */
+		ArrayList<String> crowded() throws IOException;
+
+		/**
+		 * Returns all postings of some keywords, of all frequencies, those in the index and those
+		 * removed from it since the keyword was last settled. Document names are left out.
+		 *
+		 * @param keywords Keywords
+		 * @return Postings of each keyword, in no particular order
+		 * @throws IOException If the shard cannot be reached
+		 */
+		ArrayList<ArrayList<Insertion>> history(List<String> keywords) throws IOException;
+
+		/**
+		 * Settles some keywords: drops all their removed postings, and records the place of each
+		 * of their postings in the index in its run of equal frequencies.
+		 *
+		 * @param keywords Keywords
+		 * @param places For each keyword, its postings in the index in this shard, with their
+		 *        places as ranks
+		 * @throws IOException If the shard cannot be reached
+		 */
+		void settle(List<String> keywords, List<ArrayList<Insertion>> places) throws IOException;
+	}
+
+	/**
+	 * A document in the result of a shard, with the frequency that ranked it.
+	 */
+	public static class Hit {
+
+		/**
+		 * Document name.
+		 */
+		final String document;
+
+		/**
+		 * Highest frequency of any of the query keywords in the document.
+		 */
+		final int frequency;
+
+		/**
+		 * Index of the first query keyword with that frequency.
+		 */
+		final int keyword;
+
+		/**
+		 * Initializes a hit.
+		 *
+		 * @param document Document name
+		 * @param frequency Highest frequency of any query keyword in the document
+		 * @param keyword Index of the first query keyword with that frequency
+		 */
+		public Hit(String document, int frequency, int keyword) {
+			this.document = document;
+			this.frequency = frequency;
+			this.keyword = keyword;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return "(" + document + "," + frequency + "," + keyword + ")";
+		}
+	}
+
+	/**
+	 * A posting of a keyword, in the index or removed from it, with the stamps of its insertion
+	 * and removal, and its place at the last settlement of the keyword.
+	 */
+	public static class Insertion {
+
+		/**
+		 * Document name; null once the posting is removed, or if it is not needed.
+		 */
+		final String document;
+
+		/**
+		 * Frequency of the keyword in the document.
+		 */
+		final int frequency;
+
+		/**
+		 * Stamp of the change that inserted the posting.
+		 */
+		final long inserted;
+
+		/**
+		 * Stamp of the change that removed the posting, Long.MAX_VALUE if it is in the index.
+		 */
+		final long removed;
+
+		/**
+		 * Place of the posting in its run of equal frequencies at the last settlement, -1 if it
+		 * was inserted since.
+		 */
+		final int rank;
+
+		/**
+		 * Initializes a posting.
+		 *
+		 * @param document Document name, null if the posting is removed
+		 * @param frequency Frequency of the keyword in the document
+		 * @param inserted Stamp of the insertion
+		 * @param removed Stamp of the removal, Long.MAX_VALUE if there is none
+		 * @param rank Place at the last settlement, -1 if there is none
+		 */
+		public Insertion(String document, int frequency, long inserted, long removed, int rank) {
+			this.document = document;
+			this.frequency = frequency;
+			this.inserted = inserted;
+			this.removed = removed;
+			this.rank = rank;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return "(" + document + "," + frequency + "," + inserted + "," + removed + "," + rank + ")";
+		}
+	}
+
+	/**
+	 * A shard held in this JVM. Its engine must be empty to start with, since the stamps of
+	 * documents indexed without the shard are not known.
+	 */
+	static class LocalShard implements Shard {
+
+		/**
+		 * Index of the shard.
+		 */
+		final LittleSearchEngine engine;
+
+		/**
+		 * Stamp of each indexed document.
+		 */
+		private final HashMap<String,Long> stamps = new HashMap<String,Long>();
+
+		/**
+		 * History of the postings of each keyword.
+		 */
+		private final HashMap<String,PostingHistory> histories = new HashMap<String,PostingHistory>();
+
+		/**
+		 * Keywords to settle, see crowded.
+		 */
+		private final HashSet<String> crowded = new HashSet<String>();
+
+		LocalShard(LittleSearchEngine engine) {
+			this.engine = engine;
+		}
+
+		public synchronized void makeIndex(String docsFile, String noiseWordsFile)
+				throws IOException {
+			Scanner sc = new Scanner(new File(noiseWordsFile));
+			while (sc.hasNext()) {
+				engine.noiseWords.add(sc.next());
+			}
+			sc.close();
+			sc = new Scanner(new File(docsFile));
+			try {
+				while (sc.hasNext()) {
+					long stamp = sc.nextLong();
+					addDocument(sc.next(), stamp);
+				}
+			} finally {
+				sc.close();
+			}
+		}
+
+		public synchronized void addDocument(String docFile, long stamp)
+				throws IOException {
+			// read first, so that a document that cannot be read leaves the index as it was
+			HashMap<String,Occurrence> kws = engine.loadKeywordsFromDocument(docFile);
+			remove(docFile, stamp);
+			engine.merge(docFile, kws);
+			stamps.put(docFile, stamp);
+			for (Entry<String,Occurrence> e : kws.entrySet()) {
+				PostingHistory history = histories.get(e.getKey());
+				if (history == null) {
+					history = new PostingHistory();
+					histories.put(e.getKey(), history);
+				}
+				history.insert(e.getValue().frequency, stamp);
+			}
+		}
+
+		public synchronized boolean removeDocument(String docFile, long stamp) {
+			return remove(docFile, stamp);
+		}
+
+		/**
+		 * Removes a document, and records the removal of its postings.
+		 *
+		 * @param docFile Name of the document file
+		 * @param stamp Stamp of the change
+		 * @return True if the document was indexed, false otherwise
+		 */
+		private boolean remove(String docFile, long stamp) {
+			HashMap<String,Occurrence> kws = engine.remove(docFile);
+			if (kws == null) {
+				return false;
+			}
+			long inserted = stamps.remove(docFile);
+			for (Entry<String,Occurrence> e : kws.entrySet()) {
+				PostingHistory history = histories.get(e.getKey());
+				history.remove(e.getValue().frequency, inserted, stamp);
+				if (history.crowded(SETTLE_MINIMUM)) {
+					crowded.add(e.getKey());
+				}
+			}
+			return true;
+		}
+
+		public synchronized ArrayList<Hit> topK(List<String> keywords, int k) {
+			ArrayList<Integer> keywordOf = new ArrayList<Integer>();
+			ArrayList<Occurrence> occs = engine.topOccurrences(keywords, k, true, keywordOf);
+			ArrayList<Hit> hits = new ArrayList<Hit>(occs.size());
+			for (int i = 0; i < occs.size(); i++) {
+				hits.add(new Hit(occs.get(i).document, occs.get(i).frequency, keywordOf.get(i)));
+			}
+			return hits;
+		}
+
+		public synchronized ArrayList<Insertion> run(String keyword, int frequency) {
+			ArrayList<Insertion> run = new ArrayList<Insertion>();
+			PostingHistory history = histories.get(keyword);
+			if (history == null) {
+				return run;
+			}
+			for (Occurrence occ : sameFrequency(engine.keywordsIndex.get(keyword), frequency)) {
+				long inserted = stamps.get(occ.document);
+				run.add(new Insertion(occ.document, frequency, inserted, Long.MAX_VALUE, history.rank(frequency, inserted)));
+			}
+			PostingHistory.Run postings = history.runs.get(frequency);
+			for (int i = 0; postings != null && i < postings.size; i++) {
+				if (postings.removed(i) != Long.MAX_VALUE) {
+					run.add(new Insertion(null, frequency, postings.inserted[i], postings.removed(i), postings.rank(i)));
+				}
+			}
+			return run;
+		}
+
+		public synchronized int[] counts(String keyword, int frequency, long[] at) {
+			PostingHistory history = histories.get(keyword);
+			return history == null ? new int[2 * at.length] : history.counts(frequency, at);
+		}
+
+		public synchronized ArrayList<String> crowded() {
+			ArrayList<String> keywords = new ArrayList<String>(crowded);
+			crowded.clear();
+			return keywords;
+		}
+
+		public synchronized ArrayList<ArrayList<Insertion>> history(List<String> keywords) {
+			ArrayList<ArrayList<Insertion>> result = new ArrayList<ArrayList<Insertion>>(keywords.size());
+			for (String keyword : keywords) {
+				ArrayList<Insertion> postings = new ArrayList<Insertion>();
+				PostingHistory history = histories.get(keyword);
+				if (history != null) {
+					for (Entry<Integer,PostingHistory.Run> e : history.runs.entrySet()) {
+						PostingHistory.Run run = e.getValue();
+						for (int i = 0; i < run.size; i++) {
+							postings.add(new Insertion(null, e.getKey(), run.inserted[i], run.removed(i), run.rank(i)));
+						}
+					}
+				}
+				result.add(postings);
+			}
+			return result;
+		}
+
+		public synchronized void settle(List<String> keywords, List<ArrayList<Insertion>> places) {
+			for (int w = 0; w < keywords.size(); w++) {
+				PostingHistory history = histories.get(keywords.get(w));
+				if (history == null) {
+					continue;
+				}
+				history.settle(places.get(w));
+				if (history.live == 0) {
+					histories.remove(keywords.get(w));
+				}
+				crowded.remove(keywords.get(w));
+			}
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * Least number of removed postings of a keyword in a shard worth settling the keyword.
+	 */
+	static final int SETTLE_MINIMUM = 16;
+
+	/**
+	 * Number of changes between two requests for keywords to settle.
+	 */
+	static final int SETTLE_INTERVAL = 256;
+
+	/**
+	 * Shards, indexed by shard number.
+	 */
+	private final List<Shard> shards;
+
+	/**
+	 * Runs the requests to the shards, one thread per shard.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Taken for writing by changes, and for reading by queries.
+	 */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Stamp of the last change.
+	 */
+	private long clock;
+
+	/**
+	 * Changes since keywords to settle were last asked for.
+	 */
+	private int changes;
+
+	/**
+	 * Creates an engine with the given number of empty shards in this JVM.
+	 *
+	 * @param count Number of shards
+	 */
+	public ShardedSearchEngine(int count) {
+		this(localShards(count));
+	}
+
+	/**
+	 * Creates an engine over the given shards, which may be local or remote. Documents are
+	 * assigned to shards by their position in the list, so an index must always be opened with
+	 * its shards in the same order.
+	 *
+	 * @param shards Shards
+	 */
+	public ShardedSearchEngine(List<Shard> shards) {
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is needed");
+		}
+		this.shards = new ArrayList<Shard>(shards);
+		executor = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "shard-worker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Creates empty shards in this JVM.
+	 *
+	 * @param count Number of shards
+	 * @return Shards
+	 */
+	private static List<Shard> localShards(int count) {
+		ArrayList<Shard> shards = new ArrayList<Shard>(count);
+		for (int s = 0; s < count; s++) {
+			shards.add(new LocalShard(new LittleSearchEngine()));
+		}
+		return shards;
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return Number of shards
+	 */
+	public int shardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * Returns the shard that owns a document.
+	 *
+	 * @param docFile Document name
+	 * @return Shard number, 0..shardCount()-1
+	 */
+	public int shardOf(String docFile) {
+		return (docFile.hashCode() & 0x7fffffff) % shards.size();
+	}
+
+	/**
+	 * Indexes all the documents listed in a docs file. Each document is a change of its own, with
+	 * a stamp of its own, in the order the documents are listed. Each shard gets a temporary docs
+	 * file with its own documents and their stamps, and all shards index them in parallel.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws IOException If there is a problem reading any of the input files, or reaching a shard
+	 */
+	public void makeIndex(String docsFile, final String noiseWordsFile)
+			throws IOException {
+		final File[] lists = new File[shards.size()];
+		PrintWriter[] writers = new PrintWriter[shards.size()];
+		lock.writeLock().lock();
+		try {
+			for (int s = 0; s < lists.length; s++) {
+				lists[s] = File.createTempFile("lse-shard" + s, ".txt");
+				writers[s] = new PrintWriter(new BufferedWriter(new FileWriter(lists[s])));
+			}
+			Scanner sc = new Scanner(new File(docsFile));
+			while (sc.hasNext()) {
+				String docFile = sc.next();
+				writers[shardOf(docFile)].println(++clock + " " + docFile);
+			}
+			sc.close();
+			for (PrintWriter writer : writers) {
+				writer.close();
+			}
+			ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(shards.size());
+			for (int s = 0; s < shards.size(); s++) {
+				final Shard shard = shards.get(s);
+				final String list = lists[s].getAbsolutePath();
+				tasks.add(new Callable<Void>() {
+					public Void call() throws IOException {
+						shard.makeIndex(list, noiseWordsFile);
+						return null;
+					}
+				});
+			}
+			invokeAll(tasks);
+			// documents listed twice, or already indexed, were replaced
+			changes = 0;
+			settle();
+		} finally {
+			lock.writeLock().unlock();
+			for (int s = 0; s < lists.length; s++) {
+				if (writers[s] != null) {
+					writers[s].close();
+				}
+				if (lists[s] != null) {
+					lists[s].delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a single document to its shard, replacing it if it is already indexed.
+	 *
+	 * @param docFile Name of the document file to be scanned and indexed
+	 * @throws IOException If the document cannot be read, or the shard cannot be reached
+	 */
+	public void addDocument(String docFile)
+			throws IOException {
+		lock.writeLock().lock();
+		try {
+			shards.get(shardOf(docFile)).addDocument(docFile, ++clock);
+			changed();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all occurrences of a document from its shard.
+	 *
+	 * @param docFile Name of the document file
+	 * @return True if the document was indexed, false otherwise
+	 * @throws IOException If the shard cannot be reached
+	 */
+	public boolean removeDocument(String docFile)
+			throws IOException {
+		lock.writeLock().lock();
+		try {
+			boolean removed = shards.get(shardOf(docFile)).removeDocument(docFile, ++clock);
+			changed();
+			return removed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", limited to 5 documents. See topK.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to 5 documents.
+	 * @throws IOException If a shard cannot be reached
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2)
+			throws IOException {
+		return topK(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwN", limited to k documents, with the ranking of
+	 * LittleSearchEngine.topK, ties included. The query is run on all shards in parallel, their
+	 * results are merged, and each group of tied results is put in order as in the class comment.
+	 *
+	 * @param keywords Keywords, in order of precedence
+	 * @param k Maximum number of results
+	 * @return List of documents in which any keyword occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to k documents. If there are no matches,
+	 *         returns an empty array list.
+	 * @throws IOException If a shard cannot be reached
+	 */
+	public ArrayList<String> topK(final List<String> keywords, final int k)
+			throws IOException {
+		ArrayList<String> finals = new ArrayList<String>(Math.max(0, Math.min(k, 128)));
+		if (k <= 0) {
+			return finals;
+		}
+		lock.readLock().lock();
+		try {
+			ArrayList<Callable<ArrayList<Hit>>> tasks = new ArrayList<Callable<ArrayList<Hit>>>(shards.size());
+			for (final Shard shard : shards) {
+				tasks.add(new Callable<ArrayList<Hit>>() {
+					public ArrayList<Hit> call() throws IOException {
+						return shard.topK(keywords, k);
+					}
+				});
+			}
+			ArrayList<Hit> hits = new ArrayList<Hit>();
+			for (ArrayList<Hit> partial : invokeAll(tasks)) {
+				hits.addAll(partial);
+			}
+			Collections.sort(hits, new Comparator<Hit>() {
+				public int compare(Hit a, Hit b) {
+					return a.frequency != b.frequency ? b.frequency - a.frequency : a.keyword - b.keyword;
+				}
+			});
+			// documents tied with the k-th are all there, and may all be needed to order the ties
+			int end = Math.min(k, hits.size());
+			while (end < hits.size() && tied(hits.get(end), hits.get(k - 1))) {
+				end++;
+			}
+			for (int i = 0; i < end; ) {
+				int j = i + 1;
+				while (j < end && tied(hits.get(j), hits.get(i))) {
+					j++;
+				}
+				if (j - i > 1) {
+					order(hits.subList(i, j), keywords.get(hits.get(i).keyword));
+				}
+				i = j;
+			}
+			for (int i = 0; i < Math.min(k, end); i++) {
+				finals.add(hits.get(i).document);
+			}
+			return finals;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Tells whether two hits have the same frequency for the same keyword.
+	 *
+	 * @param a First hit
+	 * @param b Second hit
+	 * @return True if the hits are tied
+	 */
+	private static boolean tied(Hit a, Hit b) {
+		return a.frequency == b.frequency && a.keyword == b.keyword;
+	}
+
+	/**
+	 * Puts a group of tied hits in the order of their keyword's occurrence list in a single
+	 * index, by replaying the history of the list's postings with their frequency.
+	 *
+	 * @param group Hits with the same frequency for the same keyword, sorted in place
+	 * @param keyword Keyword
+	 * @throws IOException If a shard cannot be reached
+	 */
+	private void order(List<Hit> group, final String keyword)
+			throws IOException {
+		final int frequency = group.get(0).frequency;
+		ArrayList<Callable<ArrayList<Insertion>>> runTasks = new ArrayList<Callable<ArrayList<Insertion>>>(shards.size());
+		for (final Shard shard : shards) {
+			runTasks.add(new Callable<ArrayList<Insertion>>() {
+				public ArrayList<Insertion> call() throws IOException {
+					return shard.run(keyword, frequency);
+				}
+			});
+		}
+		ArrayList<Insertion> postings = new ArrayList<Insertion>();
+		for (ArrayList<Insertion> run : invokeAll(runTasks)) {
+			postings.addAll(run);
+		}
+		// only the postings inserted since the last settlement need counts
+		int[] unsettled = new int[postings.size()];
+		int n = 0;
+		for (int i = 0; i < postings.size(); i++) {
+			if (postings.get(i).rank < 0) {
+				unsettled[n++] = i;
+			}
+		}
+		final long[] stamps = new long[n];
+		for (int j = 0; j < n; j++) {
+			stamps[j] = postings.get(unsettled[j]).inserted;
+		}
+		int[] greater = new int[postings.size()];
+		int[] less = new int[postings.size()];
+		if (n > 0) {
+			ArrayList<Callable<int[]>> countTasks = new ArrayList<Callable<int[]>>(shards.size());
+			for (final Shard shard : shards) {
+				countTasks.add(new Callable<int[]>() {
+					public int[] call() throws IOException {
+						return shard.counts(keyword, frequency, stamps);
+					}
+				});
+			}
+			for (int[] c : invokeAll(countTasks)) {
+				for (int j = 0; j < n; j++) {
+					greater[unsettled[j]] += c[2 * j];
+					less[unsettled[j]] += c[2 * j + 1];
+				}
+			}
+		}
+		int[] places = replay(postings, greater, less);
+		final HashMap<String,Integer> positions = new HashMap<String,Integer>(2 * group.size());
+		for (int i = 0; i < postings.size(); i++) {
+			if (postings.get(i).document != null) {
+				positions.put(postings.get(i).document, places[i]);
+			}
+		}
+		Collections.sort(group, new Comparator<Hit>() {
+			public int compare(Hit a, Hit b) {
+				return positions.get(a.document) - positions.get(b.document);
+			}
+		});
+	}
+
+	/**
+	 * Replays the insertions and removals of the postings of one keyword with one frequency, in
+	 * stamp order, removals first at equal stamps, as an updateDocument removes before it merges.
+	 * The postings placed at the last settlement start in their places; each later insertion goes
+	 * where insertLastOccurrence would put it, given the numbers of postings with greater and with
+	 * smaller frequencies in the whole list at the time.
+	 *
+	 * @param postings Postings, from all shards
+	 * @param greater Number of postings with greater frequencies at the insertion of each posting
+	 *        inserted since the last settlement
+	 * @param less Number of postings with smaller frequencies at the same stamps
+	 * @return Position of each posting still in the index among those still in the index, -1 for
+	 *         removed postings
+	 */
+	static int[] replay(final List<Insertion> postings, int[] greater, int[] less) {
+		OrderTree tree = new OrderTree(postings.size());
+		ArrayList<Integer> settled = new ArrayList<Integer>();
+		// event 2i inserts posting i, event 2i + 1 removes it
+		ArrayList<Integer> events = new ArrayList<Integer>(2 * postings.size());
+		for (int i = 0; i < postings.size(); i++) {
+			if (postings.get(i).rank >= 0) {
+				settled.add(i);
+			}
+			else {
+				events.add(2 * i);
+			}
+			if (postings.get(i).removed != Long.MAX_VALUE) {
+				events.add(2 * i + 1);
+			}
+		}
+		Collections.sort(settled, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return postings.get(a).rank - postings.get(b).rank;
+			}
+		});
+		for (int i : settled) {
+			tree.add(i, tree.size());
+		}
+		Collections.sort(events, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long sa = a % 2 == 0 ? postings.get(a / 2).inserted : postings.get(a / 2).removed;
+				long sb = b % 2 == 0 ? postings.get(b / 2).inserted : postings.get(b / 2).removed;
+				if (sa != sb) {
+					return sa < sb ? -1 : 1;
+				}
+				return b % 2 - a % 2;
+			}
+		});
+		for (int event : events) {
+			int i = event / 2;
+			if (event % 2 == 1) {
+				tree.remove(i);
+			}
+			else {
+				tree.add(i, insertionPoint(greater[i], tree.size(), less[i]) - greater[i]);
+			}
+		}
+		int[] places = new int[postings.size()];
+		Arrays.fill(places, -1);
+		int[] order = tree.elements();
+		for (int j = 0; j < order.length; j++) {
+			places[order[j]] = j;
+		}
+		return places;
+	}
+
+	/**
+	 * Asks the shards for the keywords to settle, replays the whole history of each of them, and
+	 * gives every shard the places of its postings. Called with the write lock held.
+	 *
+	 * @throws IOException If a shard cannot be reached
+	 */
+	private void settle()
+			throws IOException {
+		ArrayList<Callable<ArrayList<String>>> crowdedTasks = new ArrayList<Callable<ArrayList<String>>>(shards.size());
+		for (final Shard shard : shards) {
+			crowdedTasks.add(new Callable<ArrayList<String>>() {
+				public ArrayList<String> call() throws IOException {
+					return shard.crowded();
+				}
+			});
+		}
+		TreeSet<String> crowded = new TreeSet<String>();
+		for (ArrayList<String> partial : invokeAll(crowdedTasks)) {
+			crowded.addAll(partial);
+		}
+		if (crowded.isEmpty()) {
+			return;
+		}
+		final ArrayList<String> keywords = new ArrayList<String>(crowded);
+		ArrayList<Callable<ArrayList<ArrayList<Insertion>>>> historyTasks = new ArrayList<Callable<ArrayList<ArrayList<Insertion>>>>(shards.size());
+		for (final Shard shard : shards) {
+			historyTasks.add(new Callable<ArrayList<ArrayList<Insertion>>>() {
+				public ArrayList<ArrayList<Insertion>> call() throws IOException {
+					return shard.history(keywords);
+				}
+			});
+		}
+		List<ArrayList<ArrayList<Insertion>>> histories = invokeAll(historyTasks);
+		final ArrayList<ArrayList<ArrayList<Insertion>>> places = new ArrayList<ArrayList<ArrayList<Insertion>>>(shards.size());
+		for (int s = 0; s < shards.size(); s++) {
+			places.add(new ArrayList<ArrayList<Insertion>>(keywords.size()));
+		}
+		for (int w = 0; w < keywords.size(); w++) {
+			// postings of the keyword from all shards, with the shard of each
+			ArrayList<Insertion> postings = new ArrayList<Insertion>();
+			ArrayList<Integer> owners = new ArrayList<Integer>();
+			for (int s = 0; s < shards.size(); s++) {
+				places.get(s).add(new ArrayList<Insertion>());
+				for (Insertion posting : histories.get(s).get(w)) {
+					postings.add(posting);
+					owners.add(s);
+				}
+			}
+			PostingHistory history = merge(postings);
+			TreeMap<Integer,ArrayList<Integer>> runs = new TreeMap<Integer,ArrayList<Integer>>();
+			for (int i = 0; i < postings.size(); i++) {
+				ArrayList<Integer> run = runs.get(postings.get(i).frequency);
+				if (run == null) {
+					run = new ArrayList<Integer>();
+					runs.put(postings.get(i).frequency, run);
+				}
+				run.add(i);
+			}
+			for (Entry<Integer,ArrayList<Integer>> e : runs.entrySet()) {
+				ArrayList<Insertion> run = new ArrayList<Insertion>(e.getValue().size());
+				for (int i : e.getValue()) {
+					run.add(postings.get(i));
+				}
+				long[] stamps = new long[run.size()];
+				for (int j = 0; j < stamps.length; j++) {
+					stamps[j] = run.get(j).inserted;
+				}
+				int[] counts = history.counts(e.getKey(), stamps);
+				int[] greater = new int[run.size()];
+				int[] less = new int[run.size()];
+				for (int j = 0; j < stamps.length; j++) {
+					greater[j] = counts[2 * j];
+					less[j] = counts[2 * j + 1];
+				}
+				int[] ranks = replay(run, greater, less);
+				for (int j = 0; j < run.size(); j++) {
+					Insertion posting = run.get(j);
+					if (posting.removed == Long.MAX_VALUE) {
+						places.get(owners.get(e.getValue().get(j))).get(w).add(
+								new Insertion(null, posting.frequency, posting.inserted, Long.MAX_VALUE, ranks[j]));
+					}
+				}
+			}
+		}
+		ArrayList<Callable<Void>> settleTasks = new ArrayList<Callable<Void>>(shards.size());
+		for (int s = 0; s < shards.size(); s++) {
+			final Shard shard = shards.get(s);
+			final ArrayList<ArrayList<Insertion>> shardPlaces = places.get(s);
+			settleTasks.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					shard.settle(keywords, shardPlaces);
+					return null;
+				}
+			});
+		}
+		invokeAll(settleTasks);
+	}
+
+	/**
+	 * Counts a change, and settles the keywords that need it every SETTLE_INTERVAL changes.
+	 * Called with the write lock held.
+	 *
+	 * @throws IOException If a shard cannot be reached
+	 */
+	private void changed()
+			throws IOException {
+		if (++changes >= SETTLE_INTERVAL) {
+			changes = 0;
+			settle();
+		}
+	}
+
+	/**
+	 * Rebuilds the history of a keyword from its postings in all shards.
+	 *
+	 * @param postings Postings of the keyword
+	 * @return History of the keyword
+	 */
+	private static PostingHistory merge(List<Insertion> postings) {
+		ArrayList<Insertion> sorted = new ArrayList<Insertion>(postings);
+		Collections.sort(sorted, new Comparator<Insertion>() {
+			public int compare(Insertion a, Insertion b) {
+				return a.inserted < b.inserted ? -1 : a.inserted == b.inserted ? 0 : 1;
+			}
+		});
+		PostingHistory history = new PostingHistory();
+		for (Insertion posting : sorted) {
+			history.insert(posting.frequency, posting.inserted);
+		}
+		Collections.sort(sorted, new Comparator<Insertion>() {
+			public int compare(Insertion a, Insertion b) {
+				return a.removed < b.removed ? -1 : a.removed == b.removed ? 0 : 1;
+			}
+		});
+		for (Insertion posting : sorted) {
+			if (posting.removed == Long.MAX_VALUE) {
+				break;
+			}
+			history.remove(posting.frequency, posting.inserted, posting.removed);
+		}
+		return history;
+	}
+
+	/**
+	 * Returns the index at which insertLastOccurrence puts an occurrence appended to a list with
+	 * the given numbers of occurrences with greater, equal and smaller frequencies. Its binary
+	 * search only compares frequencies, so these numbers are all the index depends on.
+	 *
+	 * @param greater Number of occurrences with greater frequencies
+	 * @param equal Number of occurrences with the same frequency
+	 * @param less Number of occurrences with smaller frequencies
+	 * @return Index of the new occurrence, from greater to greater + equal
+	 */
+	static int insertionPoint(int greater, int equal, int less) {
+		int pos = 0;
+		int first = 0;
+		int last = greater + equal + less - 1;
+		while (first <= last) {
+			int center = (first + last) / 2;
+			// compares the frequency at center with the new one
+			int c = center < greater ? 1 : center < greater + equal ? 0 : -1;
+			if (first == last) {
+				pos = c <= 0 ? center : center + 1;
+				break;
+			}
+			else if (c == 0) {
+				pos = center;
+				break;
+			}
+			else if (c < 0) {
+				last = center;
+			}
+			else {
+				first = center + 1;
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Closes all shards, and stops the worker threads.
+	 *
+	 * @throws IOException If a shard cannot be closed
+	 */
+	public void close()
+			throws IOException {
+		executor.shutdown();
+		IOException failure = null;
+		for (Shard shard : shards) {
+			try {
+				shard.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Runs one task per shard, and waits for all of them.
+	 *
+	 * @param tasks Tasks
+	 * @return Task results, in task order
+	 * @throws IOException If a task failed with an IOException
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks)
+			throws IOException {
+		ArrayList<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (Future<T> f : executor.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for shards");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the occurrences with a given frequency in an occurrence list.
+	 *
+	 * @param occs Occurrences, in DESCENDING order of frequencies, or null
+	 * @param frequency Frequency
+	 * @return Run of occurrences with that frequency, empty if there are none
+	 */
+	static List<Occurrence> sameFrequency(ArrayList<Occurrence> occs, int frequency) {
+		if (occs == null) {
+			return Collections.emptyList();
+		}
+		int first = below(occs, frequency + 1);
+		return occs.subList(first, below(occs, frequency));
+	}
+
+	/**
+	 * Returns the number of occurrences at the start of a list with a frequency of at least
+	 * the given one.
+	 *
+	 * @param occs Occurrences, in DESCENDING order of frequencies
+	 * @param frequency Frequency
+	 * @return Index of the first occurrence with a smaller frequency
+	 */
+	private static int below(ArrayList<Occurrence> occs, int frequency) {
+		int lo = 0;
+		int hi = occs.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (occs.get(mid).frequency >= frequency) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+
+	/**
+	 * A list of postings, numbered 0 to n - 1, kept as a treap ordered by position, so that a
+	 * posting is inserted at an index, or removed, in O(log n) expected time. Removed postings
+	 * stay in the tree, marked absent, and are not counted.
+	 */
+	static class OrderTree {
+
+		/**
+		 * Left and right child, and parent, of each node; -1 if there is none.
+		 */
+		private final int[] left, right, parent;
+
+		/**
+		 * Heap priority of each node.
+		 */
+		private final int[] priority;
+
+		/**
+		 * Number of present nodes in the subtree of each node.
+		 */
+		private final int[] count;
+
+		/**
+		 * Whether each node is in the list.
+		 */
+		private final boolean[] present;
+
+		/**
+		 * Root, -1 if the tree is empty.
+		 */
+		private int root = -1;
+
+		/**
+		 * Roots of the two parts left by split.
+		 */
+		private int low, high;
+
+		/**
+		 * Initializes an empty list.
+		 *
+		 * @param capacity Number of postings that may be inserted
+		 */
+		OrderTree(int capacity) {
+			left = new int[capacity];
+			right = new int[capacity];
+			parent = new int[capacity];
+			priority = new int[capacity];
+			count = new int[capacity];
+			present = new boolean[capacity];
+			Random random = new Random(capacity);
+			for (int i = 0; i < capacity; i++) {
+				priority[i] = random.nextInt();
+			}
+		}
+
+		/**
+		 * Returns the number of postings in the list.
+		 *
+		 * @return Number of postings
+		 */
+		int size() {
+			return count(root);
+		}
+
+		/**
+		 * Inserts a posting.
+		 *
+		 * @param element Posting, not inserted before
+		 * @param index Index of the posting in the list once inserted
+		 */
+		void add(int element, int index) {
+			left[element] = right[element] = -1;
+			present[element] = true;
+			count[element] = 1;
+			split(root, index);
+			int rest = high;
+			root = merge(merge(low, element), rest);
+			parent[root] = -1;
+		}
+
+		/**
+		 * Removes a posting.
+		 *
+		 * @param element Posting in the list
+		 */
+		void remove(int element) {
+			present[element] = false;
+			for (int t = element; t >= 0; t = parent[t]) {
+				count[t]--;
+			}
+		}
+
+		/**
+		 * Returns the postings in the list.
+		 *
+		 * @return Postings, in order
+		 */
+		int[] elements() {
+			int[] elements = new int[size()];
+			int n = 0;
+			// iterative in-order walk
+			int[] stack = new int[left.length];
+			int depth = 0;
+			int t = root;
+			while (t >= 0 || depth > 0) {
+				while (t >= 0) {
+					stack[depth++] = t;
+					t = left[t];
+				}
+				t = stack[--depth];
+				if (present[t]) {
+					elements[n++] = t;
+				}
+				t = right[t];
+			}
+			return elements;
+		}
+
+		/**
+		 * Returns the number of present nodes in a subtree.
+		 *
+		 * @param t Root of the subtree, -1 if it is empty
+		 * @return Number of present nodes
+		 */
+		private int count(int t) {
+			return t < 0 ? 0 : count[t];
+		}
+
+		/**
+		 * Recomputes the count of a node, and points its children back at it.
+		 *
+		 * @param t Node
+		 */
+		private void update(int t) {
+			count[t] = count(left[t]) + count(right[t]) + (present[t] ? 1 : 0);
+			if (left[t] >= 0) {
+				parent[left[t]] = t;
+			}
+			if (right[t] >= 0) {
+				parent[right[t]] = t;
+			}
+		}
+
+		/**
+		 * Splits a subtree into the first k present nodes, in low, and the rest, in high.
+		 *
+		 * @param t Root of the subtree, -1 if it is empty
+		 * @param k Number of present nodes to put in low
+		 */
+		private void split(int t, int k) {
+			if (t < 0) {
+				low = high = -1;
+				return;
+			}
+			if (k <= count(left[t])) {
+				split(left[t], k);
+				left[t] = high;
+				update(t);
+				high = t;
+			}
+			else {
+				split(right[t], k - count(left[t]) - (present[t] ? 1 : 0));
+				right[t] = low;
+				update(t);
+				low = t;
+			}
+		}
+
+		/**
+		 * Joins two subtrees, all of whose nodes in a come before those in b.
+		 *
+		 * @param a Root of the first subtree, -1 if it is empty
+		 * @param b Root of the second subtree, -1 if it is empty
+		 * @return Root of the joined tree
+		 */
+		private int merge(int a, int b) {
+			if (a < 0) {
+				return b;
+			}
+			if (b < 0) {
+				return a;
+			}
+			if (priority[a] > priority[b]) {
+				right[a] = merge(right[a], b);
+				update(a);
+				return a;
+			}
+			left[b] = merge(a, left[b]);
+			update(b);
+			return b;
+		}
+	}
+}
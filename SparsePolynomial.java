@@ -0,0 +1,406 @@
+package poly;
+
+import java.util.Arrays;
+
+/**
+ * This class is an immutable sparse polynomial: parallel arrays of degrees and coefficients,
+ * sorted by ascending degree, holding only the nonzero terms. Memory and running time depend
+ * on the number of terms, not on the degree, so x^1000000 + 1 takes two entries where a
+ * DensePolynomial would take a million.
+ *
+ * Products are computed by a k-way merge of partial products on a binary heap: for every term
+ * of the shorter operand there is one sorted stream of its products with the other operand, and
+ * the heap hands out terms of the product in ascending order of degree. That takes
+ * O(m * n * log(min(m, n))) time for operands of m and n terms and allocates only the heap and
+ * the result, instead of one linked list per partial product as in Polynomial.multiply.
+ *
+ * Like Polynomial.add, every operation drops terms whose coefficient cancels to zero.
+ */
+public class SparsePolynomial {
+
+	/**
+	 * The zero polynomial.
+	 */
+	public static final SparsePolynomial ZERO = new SparsePolynomial(new int[0], new double[0], 0);
+
+	/**
+	 * Degrees, in strictly ascending order.
+	 */
+	final int[] degrees;
+
+	/**
+	 * Coefficients, parallel to degrees; none is zero.
+	 */
+	final double[] coeffs;
+
+	/**
+	 * Number of terms.
+	 */
+	final int size;
+
+	/**
+	 * Initializes a polynomial. The arrays are not copied, and must not be changed afterwards.
+	 *
+	 * @param degrees Degrees, in strictly ascending order
+	 * @param coeffs Nonzero coefficients, parallel to degrees
+	 * @param size Number of terms used from the arrays
+	 */
+	private SparsePolynomial(int[] degrees, double[] coeffs, int size) {
+		this.degrees = degrees;
+		this.coeffs = coeffs;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a polynomial from parallel arrays of degrees and coefficients, in any order.
+	 * Coefficients of repeated degrees are added up, and zero coefficients are dropped.
+	 * The arrays are copied.
+	 *
+	 * @param degrees Degrees, none negative
+	 * @param coeffs Coefficients, parallel to degrees
+	 * @return Polynomial
+	 */
+	public static SparsePolynomial of(int[] degrees, double[] coeffs) {
+		if (degrees.length != coeffs.length) {
+			throw new IllegalArgumentException("Degree and coefficient arrays differ in length");
+		}
+		int n = degrees.length;
+		int[] d = degrees.clone();
+		double[] c = coeffs.clone();
+		boolean sorted = true;
+		for (int i = 1; i < n && sorted; i++) {
+			sorted = d[i - 1] < d[i];
+		}
+		if (!sorted) {
+			sort(d, c, 0, n);
+		}
+		return normalize(d, c, n);
+	}
+
+	/**
+	 * Converts a polynomial linked list, in any order of degrees.
+	 *
+	 * @param poly Polynomial (front of linked list)
+	 * @return Sparse polynomial
+	 */
+	public static SparsePolynomial fromNode(Node poly) {
+		int n = 0;
+		for (Node p = poly; p != null; p = p.next) {
+			n++;
+		}
+		int[] d = new int[n];
+		double[] c = new double[n];
+		boolean sorted = true;
+		int i = 0;
+		for (Node p = poly; p != null; p = p.next, i++) {
+			d[i] = p.term.degree;
+			c[i] = p.term.coeff;
+			if (i > 0 && d[i] <= d[i - 1]) {
+				sorted = false;
+			}
+		}
+		if (!sorted) {
+			sort(d, c, 0, n);
+		}
+		return normalize(d, c, n);
+	}
+
+	/**
+	 * Converts this polynomial to a linked list, in ascending order of degrees like the lists
+	 * built by Polynomial.read. Terms whose coefficient rounds to zero as a float are left out.
+	 *
+	 * @return Polynomial (front of linked list), null for the zero polynomial
+	 */
+	public Node toNode() {
+		Node poly = null;
+		for (int i = size - 1; i >= 0; i--) {
+			if ((float)coeffs[i] != 0) {
+				poly = new Node((float)coeffs[i], degrees[i], poly);
+			}
+		}
+		return poly;
+	}
+
+	/**
+	 * Returns the number of nonzero terms.
+	 *
+	 * @return Number of terms
+	 */
+	public int terms() {
+		return size;
+	}
+
+	/**
+	 * Returns the degree of this polynomial.
+	 *
+	 * @return Degree, -1 for the zero polynomial
+	 */
+	public int degree() {
+		return size == 0 ? -1 : degrees[size - 1];
+	}
+
+	/**
+	 * Returns the degree of a term.
+	 *
+	 * @param i Term index, 0 for the lowest degree
+	 * @return Degree
+	 */
+	public int degree(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Term " + i + " of " + size);
+		}
+		return degrees[i];
+	}
+
+	/**
+	 * Returns the coefficient of a term.
+	 *
+	 * @param i Term index, 0 for the lowest degree
+	 * @return Coefficient
+	 */
+	public double coeff(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Term " + i + " of " + size);
+		}
+		return coeffs[i];
+	}
+
+	/**
+	 * Returns the sum of this polynomial and another, by merging the two term arrays.
+	 *
+	 * @param other Other polynomial
+	 * @return Sum
+	 */
+	public SparsePolynomial add(SparsePolynomial other) {
+		if (other.size == 0) {
+			return this;
+		}
+		if (size == 0) {
+			return other;
+		}
+		int[] d = new int[size + other.size];
+		double[] c = new double[d.length];
+		int i = 0, j = 0, n = 0;
+		while (i < size && j < other.size) {
+			if (degrees[i] < other.degrees[j]) {
+				d[n] = degrees[i];
+				c[n++] = coeffs[i++];
+			}
+			else if (other.degrees[j] < degrees[i]) {
+				d[n] = other.degrees[j];
+				c[n++] = other.coeffs[j++];
+			}
+			else {
+				double sum = coeffs[i++] + other.coeffs[j++];
+				if (sum != 0) {
+					d[n] = other.degrees[j - 1];
+					c[n++] = sum;
+				}
+			}
+		}
+		for (; i < size; i++, n++) {
+			d[n] = degrees[i];
+			c[n] = coeffs[i];
+		}
+		for (; j < other.size; j++, n++) {
+			d[n] = other.degrees[j];
+			c[n] = other.coeffs[j];
+		}
+		return new SparsePolynomial(d, c, n);
+	}
+
+	/**
+	 * Returns the product of this polynomial and another, by a heap merge of partial products.
+	 *
+	 * @param other Other polynomial
+	 * @return Product
+	 */
+	public SparsePolynomial multiply(SparsePolynomial other) {
+		if (size == 0 || other.size == 0) {
+			return ZERO;
+		}
+		// a drives the streams, one per term; b is walked by each stream
+		SparsePolynomial a = size <= other.size ? this : other;
+		SparsePolynomial b = a == this ? other : this;
+		int streams = a.size;
+		int[] next = new int[streams];
+		int[] heap = new int[streams];
+		long[] keys = new long[streams];
+		for (int s = 0; s < streams; s++) {
+			heap[s] = s;
+			keys[s] = (long)a.degrees[s] + b.degrees[0];
+		}
+		// keys are already ascending because a.degrees is, so the array is a valid heap
+		int heapSize = streams;
+
+		int capacity = (int)Math.min((long)a.size * b.size, 1 << 20);
+		int[] d = new int[capacity];
+		double[] c = new double[capacity];
+		int n = 0;
+		while (heapSize > 0) {
+			int s = heap[0];
+			long degree = keys[0];
+			double product = a.coeffs[s] * b.coeffs[next[s]];
+			if (n > 0 && d[n - 1] == degree) {
+				c[n - 1] += product;
+			}
+			else {
+				if (n > 0 && c[n - 1] == 0) {
+					n--;
+				}
+				if (degree > Integer.MAX_VALUE) {
+					throw new ArithmeticException("Degree overflow: " + degree);
+				}
+				if (n == d.length) {
+					int grown = (int)Math.min((long)a.size * b.size, 2L * d.length);
+					d = Arrays.copyOf(d, grown);
+					c = Arrays.copyOf(c, grown);
+				}
+				d[n] = (int)degree;
+				c[n++] = product;
+			}
+			if (++next[s] < b.size) {
+				keys[0] = (long)a.degrees[s] + b.degrees[next[s]];
+			}
+			else {
+				heapSize--;
+				heap[0] = heap[heapSize];
+				keys[0] = keys[heapSize];
+			}
+			siftDown(heap, keys, heapSize);
+		}
+		if (n > 0 && c[n - 1] == 0) {
+			n--;
+		}
+		return new SparsePolynomial(d, c, n);
+	}
+
+	/**
+	 * Evaluates this polynomial at a given value, by sparse Horner.
+	 *
+	 * @param x Value at which evaluation is to be done
+	 * @return Value of the polynomial at x
+	 */
+	public double evaluate(double x) {
+		return PolyEvaluator.evaluate(degrees, coeffs, size, x);
+	}
+
+	/**
+	 * Moves the root of a heap down to its place. The heap is ordered on keys, then on stream
+	 * number, so that equal degrees come out in a fixed order.
+	 *
+	 * @param heap Stream numbers
+	 * @param keys Degree of the next product of each heap entry, parallel to heap
+	 * @param heapSize Number of heap entries
+	 */
+	private static void siftDown(int[] heap, long[] keys, int heapSize) {
+		int i = 0;
+		int s = heap[0];
+		long key = keys[0];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && less(keys[child + 1], heap[child + 1], keys[child], heap[child])) {
+				child++;
+			}
+			if (!less(keys[child], heap[child], key, s)) {
+				break;
+			}
+			heap[i] = heap[child];
+			keys[i] = keys[child];
+			i = child;
+		}
+		heap[i] = s;
+		keys[i] = key;
+	}
+
+	/**
+	 * Compares two heap entries.
+	 *
+	 * @param key1 Degree of the first entry
+	 * @param s1 Stream of the first entry
+	 * @param key2 Degree of the second entry
+	 * @param s2 Stream of the second entry
+	 * @return True if the first entry comes out of the heap before the second
+	 */
+	private static boolean less(long key1, int s1, long key2, int s2) {
+		return key1 < key2 || (key1 == key2 && s1 < s2);
+	}
+
+	/**
+	 * Sorts parallel arrays by degree, by merge sort so that repeated degrees keep their order.
+	 *
+	 * @param d Degrees
+	 * @param c Coefficients, parallel to d
+	 * @param from First index, inclusive
+	 * @param to Last index, exclusive
+	 */
+	private static void sort(int[] d, double[] c, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(d, c, from, mid);
+		sort(d, c, mid, to);
+		if (d[mid - 1] <= d[mid]) {
+			return;
+		}
+		int[] dl = Arrays.copyOfRange(d, from, mid);
+		double[] cl = Arrays.copyOfRange(c, from, mid);
+		int i = 0, j = mid, k = from;
+		while (i < dl.length && j < to) {
+			if (d[j] < dl[i]) {
+				d[k] = d[j];
+				c[k++] = c[j++];
+			}
+			else {
+				d[k] = dl[i];
+				c[k++] = cl[i++];
+			}
+		}
+		while (i < dl.length) {
+			d[k] = dl[i];
+			c[k++] = cl[i++];
+		}
+	}
+
+	/**
+	 * Adds up coefficients of repeated degrees in place and drops zero coefficients.
+	 *
+	 * @param d Degrees, in ascending order
+	 * @param c Coefficients, parallel to d
+	 * @param n Number of entries
+	 * @return Polynomial over the compacted arrays
+	 */
+	private static SparsePolynomial normalize(int[] d, double[] c, int n) {
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (d[i] < 0) {
+				throw new IllegalArgumentException("Negative degree: " + d[i]);
+			}
+			if (m > 0 && d[m - 1] == d[i]) {
+				c[m - 1] += c[i];
+			}
+			else {
+				if (m > 0 && c[m - 1] == 0) {
+					m--;
+				}
+				d[m] = d[i];
+				c[m++] = c[i];
+			}
+		}
+		if (m > 0 && c[m - 1] == 0) {
+			m--;
+		}
+		return new SparsePolynomial(d, c, m);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return Polynomial.toString(toNode());
+	}
+}
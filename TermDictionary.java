@@ -0,0 +1,284 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * This class is a sorted dictionary of keywords, for prefix and wildcard lookups that a hash
+ * table cannot answer. The keywords are kept in a sorted array, so all keywords that start with a
+ * given prefix are next to each other: a binary search finds the first of them, and the rest
+ * follow until one no longer has the prefix. Expanding a prefix therefore costs O(log V) plus the
+ * number of matches, whatever the vocabulary size V, and the dictionary takes one reference per
+ * keyword.
+ *
+ * Wildcard patterns may use '*', for any sequence of characters, and '?', for any single
+ * character. A pattern is matched against the keywords that start with its literal prefix, the
+ * part before the first wildcard; a pattern that starts with a wildcard has an empty prefix, and
+ * scans the whole dictionary. Expansion stops after a given number of matches, so a short
+ * pattern cannot turn into a query over the whole vocabulary.
+ *
+ * LittleSearchEngine keeps its dictionary up to date as documents are merged and removed,
+ * instead of building a new one. Keywords added and removed since the array was last rebuilt are
+ * kept in two small sorted sets, which lookups merge with the array as they go; once the sets
+ * hold more than an eighth of the array, at least MIN_BATCH keywords, they are merged into a new
+ * array in one pass. An update therefore costs O(log V) plus O(1) amortized copying.
+ */
+public class TermDictionary {
+
+	/**
+	 * Least number of pending changes merged into the array at once.
+	 */
+	static final int MIN_BATCH = 64;
+
+	/**
+	 * Keywords as of the last merge, in ascending order.
+	 */
+	String[] terms;
+
+	/**
+	 * Keywords added since the last merge, none of them in terms.
+	 */
+	final TreeSet<String> added = new TreeSet<String>();
+
+	/**
+	 * Keywords of terms removed since the last merge.
+	 */
+	final TreeSet<String> removed = new TreeSet<String>();
+
+	/**
+	 * Builds a dictionary of the given keywords.
+	 *
+	 * @param keywords Distinct keywords, in any order
+	 */
+	public TermDictionary(Collection<String> keywords) {
+		terms = keywords.toArray(new String[keywords.size()]);
+		Arrays.sort(terms);
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	public int size() {
+		return terms.length - removed.size() + added.size();
+	}
+
+	/**
+	 * Adds a keyword, if it is not in the dictionary already.
+	 *
+	 * @param keyword Keyword
+	 */
+	public void add(String keyword) {
+		if (Arrays.binarySearch(terms, keyword) >= 0) {
+			removed.remove(keyword);
+			return;
+		}
+		if (added.add(keyword)) {
+			mergeIfFull();
+		}
+	}
+
+	/**
+	 * Removes a keyword, if it is in the dictionary.
+	 *
+	 * @param keyword Keyword
+	 */
+	public void remove(String keyword) {
+		if (added.remove(keyword)) {
+			return;
+		}
+		if (Arrays.binarySearch(terms, keyword) >= 0 && removed.add(keyword)) {
+			mergeIfFull();
+		}
+	}
+
+	/**
+	 * Tells whether a keyword is in the dictionary.
+	 *
+	 * @param keyword Keyword
+	 * @return True if the keyword is in the dictionary
+	 */
+	public boolean contains(String keyword) {
+		return added.contains(keyword)
+				|| (Arrays.binarySearch(terms, keyword) >= 0 && !removed.contains(keyword));
+	}
+
+	/**
+	 * Merges the pending changes into a new array, if there are enough of them.
+	 */
+	private void mergeIfFull() {
+		if (added.size() + removed.size() <= Math.max(MIN_BATCH, terms.length / 8)) {
+			return;
+		}
+		String[] merged = new String[size()];
+		int n = 0;
+		Iterator<String> it = new Cursor("");
+		while (it.hasNext()) {
+			merged[n++] = it.next();
+		}
+		terms = merged;
+		added.clear();
+		removed.clear();
+	}
+
+	/**
+	 * Walks the keywords from a given one on, in ascending order, merging the array with the
+	 * pending changes.
+	 */
+	private class Cursor implements Iterator<String> {
+
+		/**
+		 * Next index in terms.
+		 */
+		private int i;
+
+		/**
+		 * Remaining added keywords.
+		 */
+		private final Iterator<String> more;
+
+		/**
+		 * Next added keyword, null if there are no more.
+		 */
+		private String pending;
+
+		/**
+		 * Starts at a keyword.
+		 *
+		 * @param from Least keyword returned
+		 */
+		Cursor(String from) {
+			i = Arrays.binarySearch(terms, from);
+			if (i < 0) {
+				i = -i - 1;
+			}
+			more = added.tailSet(from).iterator();
+			pending = more.hasNext() ? more.next() : null;
+			skipRemoved();
+		}
+
+		/**
+		 * Moves past removed keywords of the array.
+		 */
+		private void skipRemoved() {
+			while (i < terms.length && !removed.isEmpty() && removed.contains(terms[i])) {
+				i++;
+			}
+		}
+
+		public boolean hasNext() {
+			return i < terms.length || pending != null;
+		}
+
+		public String next() {
+			String term;
+			if (pending != null && (i == terms.length || pending.compareTo(terms[i]) < 0)) {
+				term = pending;
+				pending = more.hasNext() ? more.next() : null;
+			}
+			else {
+				term = terms[i++];
+				skipRemoved();
+			}
+			return term;
+		}
+	}
+
+	/**
+	 * Returns the keywords that start with a prefix, in ascending order.
+	 *
+	 * @param prefix Prefix
+	 * @param maxExpansions Maximum number of keywords returned
+	 * @return Matching keywords, at most maxExpansions of them
+	 */
+	public ArrayList<String> prefix(String prefix, int maxExpansions) {
+		ArrayList<String> matches = new ArrayList<String>(Math.max(0, Math.min(maxExpansions, 64)));
+		for (Iterator<String> it = new Cursor(prefix); it.hasNext(); ) {
+			String term = it.next();
+			if (matches.size() >= maxExpansions || !term.startsWith(prefix)) {
+				break;
+			}
+			matches.add(term);
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the keywords that match a wildcard pattern, in ascending order. A pattern without
+	 * wildcards matches only itself.
+	 *
+	 * @param pattern Pattern, where '*' matches any sequence of characters and '?' any one character
+	 * @param maxExpansions Maximum number of keywords returned
+	 * @return Matching keywords, at most maxExpansions of them
+	 */
+	public ArrayList<String> expand(String pattern, int maxExpansions) {
+		int wild = 0;
+		while (wild < pattern.length() && pattern.charAt(wild) != '*' && pattern.charAt(wild) != '?') {
+			wild++;
+		}
+		if (wild == pattern.length()) {
+			ArrayList<String> matches = new ArrayList<String>(1);
+			if (maxExpansions > 0 && contains(pattern)) {
+				matches.add(pattern);
+			}
+			return matches;
+		}
+		if (wild == pattern.length() - 1 && pattern.charAt(wild) == '*') {
+			return prefix(pattern.substring(0, wild), maxExpansions);
+		}
+		String prefix = pattern.substring(0, wild);
+		ArrayList<String> matches = new ArrayList<String>(Math.max(0, Math.min(maxExpansions, 64)));
+		for (Iterator<String> it = new Cursor(prefix); it.hasNext(); ) {
+			String term = it.next();
+			if (matches.size() >= maxExpansions || !term.startsWith(prefix)) {
+				break;
+			}
+			if (matches(pattern, wild, term, wild)) {
+				matches.add(term);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Tells whether the rest of a keyword matches the rest of a pattern. Runs of characters
+	 * after a '*' are matched greedily, backtracking only to the last '*', so a match costs
+	 * O(pattern length * keyword length) at worst.
+	 *
+	 * @param pattern Pattern
+	 * @param p Index in the pattern
+	 * @param word Keyword
+	 * @param w Index in the keyword
+	 * @return True if word[w..] matches pattern[p..]
+	 */
+	static boolean matches(String pattern, int p, String word, int w) {
+		int star = -1;
+		int resume = 0;
+		while (w < word.length()) {
+			char c = p < pattern.length() ? pattern.charAt(p) : 0;
+			if (p < pattern.length() && (c == '?' || (c != '*' && c == word.charAt(w)))) {
+				p++;
+				w++;
+			}
+			else if (p < pattern.length() && c == '*') {
+				star = p++;
+				resume = w;
+			}
+			else if (star >= 0) {
+				p = star + 1;
+				w = ++resume;
+			}
+			else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+}
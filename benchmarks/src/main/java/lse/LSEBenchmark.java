@@ -0,0 +1,284 @@
+package lse;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ *
+ * Little Search Engine Benchmark (LSEBenchmark)
+ * JMH benchmarks of the hot paths of LSE on a synthetic corpus
+ *
+ * The corpus has a Zipf-distributed vocabulary of made-up words, some capitalized or
+ * followed by punctuation, and the most frequent words are the noise words. It is written
+ * once per fork, by the trial setup. Corpus parameters are JMH parameters, for example:
+ *
+ *     java -jar benchmarks/target/benchmarks.jar LSEBenchmark -p docs=500 -p vocab=20000 -rf json
+ *
+ * getKeyword, loadKeywordsFromDocument and top5search time one call each, cycling through
+ * the tokens, documents and queries; mergeKeywords and makeIndex build a whole new index.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LSEBenchmark {
+
+	/**
+	 * Corpus parameters.
+	 */
+	@Param("200")
+	int docs;
+
+	@Param("5000")
+	int vocab;
+
+	@Param("2000")
+	int words;
+
+	@Param("10")
+	int noise;
+
+	@Param("1.1")
+	double zipf;
+
+	@Param("42")
+	long seed;
+
+	/**
+	 * Number of distinct top5search queries cycled through.
+	 */
+	static final int QUERIES = 10000;
+
+	/**
+	 * Directory holding the corpus.
+	 */
+	File dir;
+
+	/**
+	 * Docs file and noise words file of the corpus.
+	 */
+	String docsFile, noiseFile;
+
+	/**
+	 * Document files of the corpus.
+	 */
+	ArrayList<String> docFiles;
+
+	/**
+	 * Index of the whole corpus.
+	 */
+	LittleSearchEngine lse;
+
+	/**
+	 * Keywords of every document, ready to merge.
+	 */
+	ArrayList<HashMap<String,Occurrence>> loaded;
+
+	/**
+	 * Words as they appear in documents, for getKeyword.
+	 */
+	String[] tokens;
+
+	/**
+	 * Keyword pairs for top5search, two entries per query.
+	 */
+	String[] pairs;
+
+	/**
+	 * Next token, document and query to use.
+	 */
+	int nextToken, nextDoc, nextQuery;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = makeCorpus();
+		docsFile = new File(dir, "docs.txt").getPath();
+		noiseFile = new File(dir, "noisewords.txt").getPath();
+		docFiles = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docFiles.add(sc.next());
+		}
+		sc.close();
+
+		lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseFile);
+		loaded = new ArrayList<HashMap<String,Occurrence>>();
+		for (String docFile : docFiles) {
+			loaded.add(lse.loadKeywordsFromDocument(docFile));
+		}
+		Random random = new Random(seed);
+		double[] cdf = zipfCdf();
+		tokens = new String[words];
+		for (int i = 0; i < tokens.length; i++) {
+			tokens[i] = decorate(word(sample(cdf, random)), random);
+		}
+		pairs = new String[2 * QUERIES];
+		for (int i = 0; i < pairs.length; i++) {
+			pairs[i] = word(sample(cdf, random));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public String getKeyword() {
+		if (nextToken == tokens.length) {
+			nextToken = 0;
+		}
+		return lse.getKeyword(tokens[nextToken++]);
+	}
+
+	@Benchmark
+	public HashMap<String,Occurrence> loadKeywordsFromDocument() throws FileNotFoundException {
+		if (nextDoc == docFiles.size()) {
+			nextDoc = 0;
+		}
+		return lse.loadKeywordsFromDocument(docFiles.get(nextDoc++));
+	}
+
+	@Benchmark
+	public LittleSearchEngine mergeKeywords() {
+		LittleSearchEngine fresh = new LittleSearchEngine();
+		for (HashMap<String,Occurrence> kws : loaded) {
+			fresh.mergeKeywords(kws);
+		}
+		return fresh;
+	}
+
+	@Benchmark
+	public LittleSearchEngine makeIndex() throws FileNotFoundException {
+		LittleSearchEngine fresh = new LittleSearchEngine();
+		fresh.makeIndex(docsFile, noiseFile);
+		return fresh;
+	}
+
+	@Benchmark
+	public LittleSearchEngine makeIndexParallel() throws FileNotFoundException {
+		LittleSearchEngine fresh = new LittleSearchEngine();
+		fresh.makeIndex(docsFile, noiseFile, ForkJoinPool.commonPool());
+		return fresh;
+	}
+
+	@Benchmark
+	public ArrayList<String> top5search() {
+		if (nextQuery == pairs.length) {
+			nextQuery = 0;
+		}
+		nextQuery += 2;
+		return lse.top5search(pairs[nextQuery - 2], pairs[nextQuery - 1]);
+	}
+
+	/**
+	 * Writes the synthetic corpus: documents, docs file and noise words file.
+	 *
+	 * @return Directory holding the corpus
+	 * @throws IOException If the files cannot be written
+	 */
+	File makeCorpus() throws IOException {
+		File dir = File.createTempFile("lse-bench", "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		Random random = new Random(seed);
+		double[] cdf = zipfCdf();
+
+		PrintWriter noiseOut = new PrintWriter(new FileWriter(new File(dir, "noisewords.txt")));
+		for (int i = 0; i < noise; i++) {
+			noiseOut.println(word(i));
+		}
+		noiseOut.close();
+		PrintWriter docsOut = new PrintWriter(new FileWriter(new File(dir, "docs.txt")));
+		for (int d = 0; d < docs; d++) {
+			File doc = new File(dir, "doc" + d + ".txt");
+			docsOut.println(doc.getPath());
+			PrintWriter docOut = new PrintWriter(new BufferedWriter(new FileWriter(doc)));
+			for (int w = 0; w < words; w++) {
+				docOut.print(decorate(word(sample(cdf, random)), random));
+				docOut.print(w % 12 == 11 ? '\n' : ' ');
+			}
+			docOut.close();
+		}
+		docsOut.close();
+		return dir;
+	}
+
+	/**
+	 * Builds the cumulative distribution of word ranks, Zipf-distributed with exponent zipf.
+	 *
+	 * @return Cumulative probabilities, indexed by rank
+	 */
+	double[] zipfCdf() {
+		double[] cdf = new double[vocab];
+		double total = 0;
+		for (int r = 0; r < vocab; r++) {
+			total += 1 / Math.pow(r + 1, zipf);
+			cdf[r] = total;
+		}
+		for (int r = 0; r < vocab; r++) {
+			cdf[r] /= total;
+		}
+		return cdf;
+	}
+
+	/**
+	 * Draws a word rank.
+	 *
+	 * @param cdf Cumulative distribution of ranks
+	 * @param random Random source
+	 * @return Rank, 0 for the most frequent word
+	 */
+	static int sample(double[] cdf, Random random) {
+		int r = Arrays.binarySearch(cdf, random.nextDouble());
+		return Math.min(r < 0 ? -r - 1 : r, cdf.length - 1);
+	}
+
+	/**
+	 * Returns the made-up word of a rank: the rank in base 26, spelled with letters.
+	 *
+	 * @param rank Word rank
+	 * @return Lower case word
+	 */
+	static String word(int rank) {
+		StringBuilder sb = new StringBuilder();
+		do {
+			sb.append((char)('a' + rank % 26));
+			rank /= 26;
+		} while (rank > 0);
+		return sb.append("e").toString();
+	}
+
+	/**
+	 * Occasionally capitalizes a word, or adds trailing punctuation.
+	 *
+	 * @param word Word
+	 * @param random Random source
+	 * @return Word as it appears in a document
+	 */
+	static String decorate(String word, Random random) {
+		int r = random.nextInt(20);
+		if (r == 0) {
+			return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+		}
+		if (r == 1) {
+			return word + ".";
+		}
+		if (r == 2) {
+			return word + "?!";
+		}
+		return word;
+	}
+}
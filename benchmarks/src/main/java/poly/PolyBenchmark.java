@@ -0,0 +1,164 @@
+package poly;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ *
+ * Polynomial Benchmark (PolyBenchmark)
+ * JMH benchmarks of read, add, multiply, evaluate and toString on generated polynomials
+ *
+ * Every combination of the degree and density parameters is benchmarked, so sparse and dense
+ * inputs of each size can be compared. Each operation is timed for the linked-list code in
+ * Polynomial and for the faster paths next to it. Polynomials are generated by PolyOracle, in
+ * the trial setup. Parameters are JMH parameters, for example:
+ *
+ *     java -jar benchmarks/target/benchmarks.jar PolyBenchmark -p degree=100,1000,10000 -p density=0.01,1
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolyBenchmark {
+
+	/**
+	 * Degree of the polynomials.
+	 */
+	@Param({"100", "2000"})
+	int degree;
+
+	/**
+	 * Fraction of nonzero coefficients.
+	 */
+	@Param({"0.01", "0.5"})
+	double density;
+
+	/**
+	 * Number of points evaluated per invocation of the evaluate benchmarks.
+	 */
+	@Param("1000")
+	int points;
+
+	@Param("42")
+	long seed;
+
+	/**
+	 * Polynomials to operate on.
+	 */
+	Node poly1, poly2;
+
+	/**
+	 * Points at which to evaluate, and the values computed at them.
+	 */
+	float[] xs, values;
+
+	/**
+	 * Text file holding poly1, in the format Polynomial.read reads.
+	 */
+	File file;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Random random = new Random(seed);
+		poly1 = PolyOracle.generate(random, degree, density, false);
+		poly2 = PolyOracle.generate(random, degree, density, false);
+		xs = new float[points];
+		for (int i = 0; i < points; i++) {
+			xs[i] = (float)(2 * random.nextDouble() - 1);
+		}
+		values = new float[points];
+		file = File.createTempFile("poly-bench", ".txt");
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		for (Node p = PolyOracle.reverse(poly1); p != null; p = p.next) {
+			writer.println(p.term.coeff + " " + p.term.degree);
+		}
+		writer.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public Node readScanner() throws IOException {
+		Scanner sc = new Scanner(file);
+		Node poly = Polynomial.read(sc);
+		sc.close();
+		return poly;
+	}
+
+	@Benchmark
+	public Node readPolynomialIO() throws IOException {
+		return PolynomialIO.read(file);
+	}
+
+	@Benchmark
+	public Node readPolynomialIOChannel() throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return PolynomialIO.read(Channels.newChannel(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public Node addPolynomial() {
+		return Polynomial.add(poly1, poly2);
+	}
+
+	@Benchmark
+	public Node addSparsePolynomial() {
+		return SparsePolynomial.fromNode(poly1).add(SparsePolynomial.fromNode(poly2)).toNode();
+	}
+
+	@Benchmark
+	public Node multiplyPolynomial() {
+		return Polynomial.multiply(poly1, poly2);
+	}
+
+	@Benchmark
+	public Node multiplyFastMultiply() {
+		return FastMultiply.multiply(poly1, poly2);
+	}
+
+	@Benchmark
+	public SparsePolynomial multiplySparsePolynomial() {
+		return SparsePolynomial.fromNode(poly1).multiply(SparsePolynomial.fromNode(poly2));
+	}
+
+	@Benchmark
+	public double[] multiplyParallelMultiply() {
+		return ParallelMultiply.multiply(DensePolynomial.fromNode(poly1), DensePolynomial.fromNode(poly2),
+				ForkJoinPool.commonPool());
+	}
+
+	@Benchmark
+	public float evaluatePolynomial() {
+		float sum = 0;
+		for (float x : xs) {
+			sum += Polynomial.evaluate(poly1, x);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public float[] evaluatePolyEvaluator() {
+		PolyEvaluator.evaluate(poly1, xs, values);
+		return values;
+	}
+
+	@Benchmark
+	public String toStringPolynomial() {
+		return Polynomial.toString(poly1);
+	}
+}